@@ -29,6 +29,7 @@ import ovh.maddie480.randomstuff.backend.streams.features.LNJBot;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 import ovh.maddie480.randomstuff.backend.utils.EmbedBuilder;
 import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
+import ovh.maddie480.randomstuff.backend.utils.ResponseVerifier;
 import ovh.maddie480.randomstuff.backend.utils.WebhookExecutor;
 
 import javax.imageio.ImageIO;
@@ -48,6 +49,7 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -272,9 +274,9 @@ public class CrontabRunner {
         runProcessAndAlertOnException("[Hourly] updatePrivateHelpersFromGitHub", UpdateCheckerTracker::updatePrivateHelpersFromGitHub);
         runProcessAndAlertOnException("[Hourly] CollabAutoHider", CollabAutoHider::run);
         runProcessAndAlertOnException("[Hourly] cleanUpFolder(/shared/temp)", () -> TempFolderCleanup.cleanUpFolder("/shared/temp", 1, path -> true));
-        runProcessAndAlertOnException("[Hourly] cleanUpFolder(/logs)", () -> TempFolderCleanup.cleanUpFolder("/logs", 30, path -> path.getFileName().toString().endsWith(".backend.log.gz")));
+        runProcessAndAlertOnException("[Hourly] cleanUpFolder(/logs)", () -> TempFolderCleanup.cleanUpFolder("/logs", 30, path -> path.getFileName().toString().endsWith(".backend.log.gz") || path.getFileName().toString().endsWith(".backend.log.gz.idx")));
         runProcessAndAlertOnException("[Hourly] cleanUpFolder(/logs, autodeploy)", () -> TempFolderCleanup.cleanUpFolder("/logs", 1, path -> path.getFileName().toString().endsWith(".autodeploy.log")));
-        runProcessAndAlertOnException("[Hourly] zipUpOldFiles(/logs)", () -> TempFolderCleanup.zipUpOldFiles("/logs", 8, path -> path.getFileName().toString().endsWith(".backend.log")));
+        runProcessAndAlertOnException("[Hourly] zipUpOldFiles(/logs)", () -> TempFolderCleanup.zipUpOldFiles("/logs", 8, path -> path.getFileName().toString().endsWith(".backend.log"), Deflater.DEFAULT_COMPRESSION, 4 * 1024 * 1024));
         runProcessAndAlertOnException("[Hourly] MastodonUpdateChecker", () -> {
             MastodonUpdateChecker.loadFile();
             MastodonUpdateChecker.checkForUpdates();
@@ -349,11 +351,10 @@ public class CrontabRunner {
     }
 
     private static void checkArbitraryModApp() throws IOException {
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/gamebanana/arbitrary-mod-app?_idProfile=1698143")) {
-            String result = IOUtils.toString(is, UTF_8);
-            if (!result.contains("Jungle Helper") || !result.contains("Collab Utils 2")) {
-                throw new IOException("Did not find expected contents in arbitrary mod app!");
-            }
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/gamebanana/arbitrary-mod-app?_idProfile=1698143",
+                "Jungle Helper", "Collab Utils 2")) {
+
+            throw new IOException("Did not find expected contents in arbitrary mod app!");
         }
     }
 
@@ -387,12 +388,10 @@ public class CrontabRunner {
             throw new IOException("Seek exceeded first song duration!");
         }
 
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/radio-lnj/playlist")) {
-            if (!IOUtils.toString(is, UTF_8).contains(StringEscapeUtils.escapeHtml4(
-                    playlist.getJSONArray("playlist").getJSONObject(0).getString("trackName")))) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/radio-lnj/playlist", StringEscapeUtils.escapeHtml4(
+                playlist.getJSONArray("playlist").getJSONObject(0).getString("trackName")))) {
 
-                throw new IOException("Playlist page does not show head of playlist!");
-            }
+            throw new IOException("Playlist page does not show head of playlist!");
         }
 
         try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/radio-lnj/playlist.m3u");
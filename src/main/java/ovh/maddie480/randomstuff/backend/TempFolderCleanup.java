@@ -6,19 +6,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -29,6 +41,10 @@ import java.util.zip.GZIPOutputStream;
 public class TempFolderCleanup {
     private static final Logger logger = LoggerFactory.getLogger(TempFolderCleanup.class);
 
+    // log lines start with "yyyy-MM-dd HH:mm:ss.SSS"
+    private static final Pattern LOG_TIMESTAMP = Pattern.compile("^\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3}");
+    private static final int LOG_TIMESTAMP_LENGTH = 23;
+
     public static void cleanUpFolder(String folder, int delayDays, Predicate<Path> extraFilter) throws IOException {
         ConnectionUtils.runWithRetry(() -> {
             doStuffOnOldFiles(folder, delayDays, extraFilter, path -> {
@@ -39,59 +55,201 @@ public class TempFolderCleanup {
         });
     }
 
-    public static void zipUpOldFiles(String folder, int delayDays, Predicate<Path> extraFilter) throws IOException {
-        doStuffOnOldFiles(folder, delayDays, extraFilter, path -> {
-            // compress the file
-            Path destination = path.getParent().resolve(path.getFileName() + ".gz");
-            logger.info("Compressing file {} to {} because it was last modified on {}", path.toAbsolutePath(), destination.toAbsolutePath(), Files.getLastModifiedTime(path).toInstant());
-            try (InputStream is = Files.newInputStream(path);
-                 OutputStream os = Files.newOutputStream(destination);
-                 GZIPOutputStream gos = new GZIPOutputStream(os)) {
+    /**
+     * Compresses old files in parallel.
+     *
+     * @param compressionLevel The deflate compression level, from 0 to 9
+     * @param blockSize        If greater than 0, the output will be split into independent gzip members of about this size
+     *                         (cut at line breaks), and a .idx file will be written next to the .gz to be able to seek into it
+     */
+    public static void zipUpOldFiles(String folder, int delayDays, Predicate<Path> extraFilter, int compressionLevel, int blockSize) throws IOException {
+        List<Path> filesToCompress = listOldFiles(folder, delayDays, extraFilter);
+        if (filesToCompress.isEmpty()) return;
 
-                IOUtils.copy(is, gos);
+        List<Future<?>> tasks = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(Math.min(filesToCompress.size(), Runtime.getRuntime().availableProcessors()))) {
+            for (Path path : filesToCompress) {
+                tasks.add(pool.submit(() -> {
+                    compressFile(path, compressionLevel, blockSize);
+                    return null;
+                }));
             }
+        }
+
+        IOException exception = null;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                logger.error("Could not compress file", e.getCause());
+                if (exception == null) exception = new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        if (exception != null) throw exception;
+    }
+
+    private static void compressFile(Path path, int compressionLevel, int blockSize) throws IOException {
+        Path destination = path.getParent().resolve(path.getFileName() + ".gz");
+        Path index = path.getParent().resolve(path.getFileName() + ".gz.idx");
+        logger.info("Compressing file {} to {} because it was last modified on {}", path.toAbsolutePath(), destination.toAbsolutePath(), Files.getLastModifiedTime(path).toInstant());
+
+        // compress the file, computing the checksum of the input as we go
+        CRC32 inputChecksum = new CRC32();
+        long inputLength = 0;
+
+        try (InputStream is = new CheckedInputStream(Files.newInputStream(path), inputChecksum);
+             FileChannel output = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter indexWriter = blockSize > 0 ? Files.newBufferedWriter(index) : null) {
+
+            OutputStream os = Channels.newOutputStream(output);
+            byte[] buffer = new byte[65536];
+            GzipMember member = null;
+            long memberLength = 0;
+            int read;
 
-            // check for integrity
-            try (InputStream is1 = new BufferedInputStream(Files.newInputStream(path));
-                 InputStream is2 = new BufferedInputStream(new GZIPInputStream(Files.newInputStream(destination)))) {
+            // the index line of the current block is written once we have enough bytes to read its timestamp,
+            // since they can be split between 2 reads
+            boolean indexLinePending = false;
+            long indexCompressedOffset = 0;
+            long indexInputOffset = 0;
+            byte[] firstBytes = new byte[LOG_TIMESTAMP_LENGTH];
+            int firstBytesLength = 0;
 
-                int i1 = is1.read();
-                int i2 = is2.read();
+            while ((read = is.read(buffer)) != -1) {
+                int start = 0;
+                while (start < read) {
+                    if (member == null) {
+                        if (indexWriter != null) {
+                            indexLinePending = true;
+                            indexCompressedOffset = output.position();
+                            indexInputOffset = inputLength;
+                            firstBytesLength = 0;
+                        }
+                        member = new GzipMember(os, compressionLevel);
+                        memberLength = 0;
+                    }
 
-                while (i1 != -1 & i2 != -1) {
-                    if (i1 != i2) throw new IOException("Compressed data mismatch!");
-                    i1 = is1.read();
-                    i2 = is2.read();
+                    int end = read;
+                    boolean endOfMember = false;
+                    if (blockSize > 0 && memberLength + (read - start) >= blockSize) {
+                        // cut after the first line break we find once the block is big enough
+                        int lineBreak = indexOf(buffer, (byte) '\n', start + (int) Math.max(0, blockSize - memberLength - 1), read);
+                        if (lineBreak != -1) {
+                            end = lineBreak + 1;
+                            endOfMember = true;
+                        }
+                    }
+
+                    if (indexLinePending) {
+                        int copied = Math.min(end - start, LOG_TIMESTAMP_LENGTH - firstBytesLength);
+                        System.arraycopy(buffer, start, firstBytes, firstBytesLength, copied);
+                        firstBytesLength += copied;
+
+                        if (endOfMember || firstBytesLength == LOG_TIMESTAMP_LENGTH) {
+                            writeIndexLine(indexWriter, indexCompressedOffset, indexInputOffset, firstBytes, firstBytesLength);
+                            indexLinePending = false;
+                        }
+                    }
+
+                    member.write(buffer, start, end - start);
+                    memberLength += end - start;
+                    inputLength += end - start;
+                    start = end;
+
+                    if (endOfMember) {
+                        member.finishMember();
+                        member = null;
+                    }
                 }
             }
 
-            // copy last modified date and delete uncompressed file
-            Files.setLastModifiedTime(destination, Files.getLastModifiedTime(path));
-            Files.delete(path);
-        });
+            if (indexLinePending) {
+                // the file ends less than a timestamp after the start of the last block
+                writeIndexLine(indexWriter, indexCompressedOffset, indexInputOffset, firstBytes, firstBytesLength);
+            }
+
+            if (member == null && inputLength == 0) {
+                // empty file: we still need a gzip header for the output to be valid
+                member = new GzipMember(os, compressionLevel);
+            }
+            if (member != null) {
+                member.finishMember();
+            }
+        }
+
+        // check for integrity: the decompressed output should have the same checksum as the input
+        CRC32 outputChecksum = new CRC32();
+        long outputLength;
+        try (InputStream is = new CheckedInputStream(new GZIPInputStream(Files.newInputStream(destination)), outputChecksum)) {
+            outputLength = IOUtils.consume(is);
+        }
+        if (inputLength != outputLength || inputChecksum.getValue() != outputChecksum.getValue()) {
+            throw new IOException("Compressed data mismatch for " + path + "! Expected " + inputLength + " bytes with CRC "
+                    + Long.toHexString(inputChecksum.getValue()) + ", got " + outputLength + " bytes with CRC " + Long.toHexString(outputChecksum.getValue()));
+        }
+
+        // copy last modified date and delete uncompressed file
+        Files.setLastModifiedTime(destination, Files.getLastModifiedTime(path));
+        if (blockSize > 0) Files.setLastModifiedTime(index, Files.getLastModifiedTime(path));
+        Files.delete(path);
+    }
+
+    private static int indexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A gzip stream with a configurable compression level, that can be finished without closing the underlying stream,
+     * in order to write several gzip members one after the other. gzip tools read those as a single file.
+     */
+    /**
+     * Writes an index line: compressed offset, uncompressed offset, and timestamp of the first line of the block
+     * (or nothing if the block doesn't start with a timestamp).
+     */
+    private static void writeIndexLine(BufferedWriter indexWriter, long compressedOffset, long inputOffset,
+                                       byte[] firstBytes, int firstBytesLength) throws IOException {
+
+        String timestamp = new String(firstBytes, 0, firstBytesLength, StandardCharsets.UTF_8);
+        indexWriter.write(compressedOffset + "\t" + inputOffset + "\t"
+                + (LOG_TIMESTAMP.matcher(timestamp).find() ? timestamp : "") + "\n");
+    }
+
+    private static class GzipMember extends GZIPOutputStream {
+        public GzipMember(OutputStream out, int compressionLevel) throws IOException {
+            super(out, 65536);
+            def.setLevel(compressionLevel);
+        }
+
+        public void finishMember() throws IOException {
+            finish();
+            def.end();
+        }
     }
 
     private static void doStuffOnOldFiles(String folder, int delayDays, Predicate<Path> extraFilter, IOConsumer<Path> stuff) throws IOException {
-        try {
-            List<Path> filesToDelete;
-
-            try (Stream<Path> walker = Files.walk(Paths.get(folder))) {
-                filesToDelete = walker
-                        .filter(Files::isRegularFile)
-                        .filter(path -> {
-                            try {
-                                return Files.getLastModifiedTime(path).toInstant().isBefore(Instant.now().minus(delayDays, ChronoUnit.DAYS));
-                            } catch (IOException e) {
-                                throw new UncheckedIOException(e);
-                            }
-                        })
-                        .filter(extraFilter)
-                        .toList();
-            }
+        for (Path path : listOldFiles(folder, delayDays, extraFilter)) {
+            stuff.accept(path);
+        }
+    }
 
-            for (Path path : filesToDelete) {
-                stuff.accept(path);
-            }
+    private static List<Path> listOldFiles(String folder, int delayDays, Predicate<Path> extraFilter) throws IOException {
+        try (Stream<Path> walker = Files.walk(Paths.get(folder))) {
+            return walker
+                    .filter(Files::isRegularFile)
+                    .filter(path -> {
+                        try {
+                            return Files.getLastModifiedTime(path).toInstant().isBefore(Instant.now().minus(delayDays, ChronoUnit.DAYS));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .filter(extraFilter)
+                    .toList();
         } catch (UncheckedIOException e) {
             // make sure to trigger a retry, since most crashes come from unlucky timing
             throw new IOException(e);
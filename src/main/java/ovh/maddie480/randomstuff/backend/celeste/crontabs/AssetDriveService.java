@@ -15,17 +15,26 @@ import ovh.maddie480.everest.updatechecker.YamlUtil;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -35,6 +44,14 @@ public class AssetDriveService {
     private static final String DOCX_MIME_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
     private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
 
+    private static final String SYNC_MANIFEST = "/shared/celeste/asset-drive/sync-manifest.json";
+    private static final int PARALLEL_DOWNLOADS = 4;
+
+    private static final String IMAGE_METADATA_CACHE = "/shared/celeste/asset-drive/image-metadata.json";
+    private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR_CHUNK_TYPE = 0x49484452; // "IHDR" in ASCII
+    private static final int PNG_HEADER_SIZE = 8 + 4 + 4 + 13; // signature + IHDR length + IHDR type + IHDR data
+
     private static GoogleCredentials credential;
 
     public static void listAllFiles() throws IOException {
@@ -84,6 +101,9 @@ public class AssetDriveService {
         }
         log.debug("preview.png files per file prefix: {}", indexYamlsPerFolder);
 
+        Map<String, ImageMetadata> imageMetadata = computeImageMetadata(allFiles);
+        logDuplicateAssets(allFiles, imageMetadata);
+
         JSONObject result = new JSONObject();
         result.put("misc", new JSONArray());
         result.put("decals", new JSONArray());
@@ -137,13 +157,10 @@ public class AssetDriveService {
             mappedObject.put("folder", file.getString("folder"));
 
             {
-                Path path = Paths.get("/shared/celeste/asset-drive/files").resolve(file.getString("id") + ".png");
-                if (Files.exists(path)) {
-                    Size pngSize = getPngSize(path);
-                    if (pngSize.width() != 0 && pngSize.height() != 0) {
-                        mappedObject.put("width", pngSize.width());
-                        mappedObject.put("height", pngSize.height());
-                    }
+                ImageMetadata metadata = imageMetadata.get(file.getString("id"));
+                if (metadata != null && metadata.width() != 0 && metadata.height() != 0) {
+                    mappedObject.put("width", metadata.width());
+                    mappedObject.put("height", metadata.height());
                 }
             }
 
@@ -285,73 +302,217 @@ public class AssetDriveService {
                     .collect(Collectors.toSet());
         }
 
+        // the directory listing tells us which files exist, so we don't need to stat them
+        // if we have their previous state in the manifest
+        Set<String> existingFiles = new HashSet<>(missingFiles);
+        Map<String, SyncedFile> previousManifest = loadSyncManifest();
+        Map<String, SyncedFile> newManifest = new ConcurrentHashMap<>();
+
         JSONArray allFiles;
         try (InputStream is = Files.newInputStream(Paths.get("/shared/celeste/asset-drive/file-list.json"))) {
             allFiles = new JSONArray(new JSONTokener(is));
         }
 
-        for (Object o : allFiles) {
-            if (((JSONObject) o).getString("mimeType").equals(FOLDER_MIME_TYPE)) continue;
+        List<Future<?>> downloads = new ArrayList<>();
+        Queue<Future<?>> conversions = new ConcurrentLinkedQueue<>();
+
+        try {
+            // the conversion pool is declared first so that it gets closed last, after all downloads are done submitting to it.
+            // closing the pools waits for all tasks to be done.
+            try (ExecutorService conversionPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                 ExecutorService downloadPool = Executors.newFixedThreadPool(PARALLEL_DOWNLOADS)) {
+
+                for (Object o : allFiles) {
+                    JSONObject file = (JSONObject) o;
+                    if (file.getString("mimeType").equals(FOLDER_MIME_TYPE)) continue;
+
+                    String fileId = file.getString("id");
+                    String extension = switch (file.getString("mimeType")) {
+                        case "image/png" -> "png";
+                        case "font/ttf" -> "ttf";
+                        case "text/plain", DOCX_MIME_TYPE -> "txt";
+                        case "text/yaml" -> "yaml";
+                        default -> "bin";
+                    };
+                    Instant lastModified = ZonedDateTime.parse(file.getString("modifiedTime")).toInstant();
+                    SyncedFile remoteState = new SyncedFile(lastModified.toEpochMilli(), file.optLong("size", -1), file.optString("md5Checksum", ""));
+
+                    Path cached = syncedFilesRepository.resolve(fileId + "." + extension);
+                    Path partial = syncedFilesRepository.resolve(fileId + "." + lastModified.toEpochMilli() + ".part");
+
+                    // 1. the file still exists, don't delete it
+                    missingFiles.remove(cached.getFileName().toString());
+
+                    // 2. if the manifest (or the last modified date, if the file isn't in the manifest yet) matches,
+                    // the file didn't get modified, so don't download it again
+                    if (existingFiles.contains(cached.getFileName().toString())) {
+                        SyncedFile previousState = previousManifest.get(fileId);
+                        if (previousState != null ? previousState.equals(remoteState)
+                                : Files.getLastModifiedTime(cached).toInstant().equals(lastModified)) {
+
+                            newManifest.put(fileId, remoteState);
+                            continue;
+                        }
+                    }
 
-            String fileId = ((JSONObject) o).getString("id");
-            String extension = switch (((JSONObject) o).getString("mimeType")) {
-                case "image/png" -> "png";
-                case "font/ttf" -> "ttf";
-                case "text/plain", DOCX_MIME_TYPE -> "txt";
-                case "text/yaml" -> "yaml";
-                default -> "bin";
-            };
-            Instant lastModified = ZonedDateTime.parse(((JSONObject) o).getString("modifiedTime")).toInstant();
+                    // 3. if it doesn't, download it, resuming any partial download from a previous run
+                    missingFiles.remove(partial.getFileName().toString());
+                    boolean isDocx = file.getString("mimeType").equals(DOCX_MIME_TYPE);
+
+                    downloads.add(downloadPool.submit(() -> {
+                        ConnectionUtils.runWithRetry(() -> {
+                            downloadDriveFile(fileId, lastModified, remoteState.size(), partial);
+                            return null;
+                        });
+
+                        if (isDocx) {
+                            // conversion is CPU-bound, so hand it over to the other pool to keep downloading in the meantime
+                            conversions.add(conversionPool.submit(() -> {
+                                convertDocxToText(partial, cached);
+                                finishSync(partial, cached, lastModified);
+                                newManifest.put(fileId, remoteState);
+                                return null;
+                            }));
+                        } else {
+                            Files.move(partial, cached, StandardCopyOption.REPLACE_EXISTING);
+                            finishSync(partial, cached, lastModified);
+                            newManifest.put(fileId, remoteState);
+                        }
+                        return null;
+                    }));
+                }
 
-            Path cached = syncedFilesRepository.resolve(fileId + "." + extension);
+                waitForAll(downloads);
+                waitForAll(conversions);
+            }
+        } finally {
+            // save what we got even if some downloads failed, so that they don't have to be done again next time
+            saveSyncManifest(newManifest);
+        }
 
-            // 1. the file still exists, don't delete it
-            missingFiles.remove(cached.getFileName().toString());
+        // 4. delete the files that don't exist anymore!
+        for (String s : missingFiles) {
+            log.warn("Deleting file {} that doesn't seem to exist anymore!", s);
+            Files.delete(syncedFilesRepository.resolve(s));
+        }
+    }
 
-            // 2. if the last modified date matches, the file didn't get modified, so don't download it again
-            if (Files.exists(cached) && Files.getLastModifiedTime(cached).toInstant().equals(lastModified)) {
-                continue;
-            }
+    /**
+     * Downloads a Google Drive file to the given partial file.
+     * If the partial file already contains some data, only the rest of the file is requested.
+     */
+    private static void downloadDriveFile(String fileId, Instant lastModified, long expectedSize, Path partial) throws IOException {
+        long alreadyDownloaded = Files.exists(partial) ? Files.size(partial) : 0;
+        if (expectedSize >= 0 && alreadyDownloaded > expectedSize) {
+            log.warn("Partial download {} is bigger than the expected size {}, starting over", partial, expectedSize);
+            Files.delete(partial);
+            alreadyDownloaded = 0;
+        }
+        if (expectedSize >= 0 && alreadyDownloaded == expectedSize && alreadyDownloaded != 0) {
+            log.debug("Google Drive file with id {} was already fully downloaded", fileId);
+            return;
+        }
 
-            // 3. if it doesn't, download it and make sure we set the last modified time right!
-            ConnectionUtils.runWithRetry(() -> {
-                log.debug("Downloading Google Drive file with id {}, last modified on {}", fileId, lastModified);
+        log.debug("Downloading Google Drive file with id {}, last modified on {}, starting from byte {}", fileId, lastModified, alreadyDownloaded);
 
-                credential.refreshIfExpired();
+        HttpURLConnection conn = ConnectionUtils.openConnectionWithTimeout("https://www.googleapis.com/drive/v3/files/" + fileId + "?alt=media");
+        conn.setRequestProperty("Authorization", "Bearer " + getAccessToken());
+        if (alreadyDownloaded > 0) {
+            // byte ranges apply to the encoded content, so we need to get the file as is
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            conn.setRequestProperty("Range", "bytes=" + alreadyDownloaded + "-");
+        }
 
-                HttpURLConnection conn = ConnectionUtils.openConnectionWithTimeout("https://www.googleapis.com/drive/v3/files/" + fileId + "?alt=media");
-                conn.setRequestProperty("Authorization", "Bearer " + credential.getAccessToken().getTokenValue());
+        // if the server ignored the range, it is sending the whole file again
+        boolean resumed = conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
 
-                try (InputStream is = ConnectionUtils.connectionToInputStream(conn);
-                     OutputStream os = Files.newOutputStream(cached)) {
+        try (InputStream is = ConnectionUtils.connectionToInputStream(conn);
+             OutputStream os = resumed ?
+                     Files.newOutputStream(partial, StandardOpenOption.CREATE, StandardOpenOption.APPEND) :
+                     Files.newOutputStream(partial)) {
 
-                    IOUtils.copy(is, os);
-                }
+            IOUtils.copy(is, os);
+        }
+    }
 
-                if (((JSONObject) o).getString("mimeType").equals(DOCX_MIME_TYPE)) {
-                    log.debug("Converting file {} to TXT...", cached);
+    private static void convertDocxToText(Path docx, Path target) throws IOException {
+        log.debug("Converting file {} to TXT...", docx);
 
-                    String extractedText;
-                    try (InputStream is = Files.newInputStream(cached)) {
-                        XWPFDocument doc = new XWPFDocument(is);
-                        POITextExtractor extractor = new XWPFWordExtractor(doc);
-                        extractedText = extractor.getText();
-                    }
+        String extractedText;
+        try (InputStream is = Files.newInputStream(docx)) {
+            XWPFDocument doc = new XWPFDocument(is);
+            POITextExtractor extractor = new XWPFWordExtractor(doc);
+            extractedText = extractor.getText();
+        }
 
-                    try (OutputStream os = Files.newOutputStream(cached)) {
-                        IOUtils.write(extractedText, os, StandardCharsets.UTF_8);
-                    }
-                }
+        try (OutputStream os = Files.newOutputStream(target)) {
+            IOUtils.write(extractedText, os, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void finishSync(Path partial, Path cached, Instant lastModified) throws IOException {
+        Files.deleteIfExists(partial);
+        Files.setLastModifiedTime(cached, FileTime.from(lastModified));
+    }
 
-                Files.setLastModifiedTime(cached, FileTime.from(lastModified));
-                return null;
-            });
+    private static void waitForAll(Collection<Future<?>> tasks) throws IOException {
+        IOException exception = null;
+
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                log.warn("Google Drive file sync failed", e.getCause());
+                if (exception == null) exception = new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
         }
 
-        // 4. delete the files that don't exist anymore!
-        for (String s : missingFiles) {
-            log.warn("Deleting file {} that doesn't seem to exist anymore!", s);
-            Files.delete(syncedFilesRepository.resolve(s));
+        if (exception != null) throw exception;
+    }
+
+    private static synchronized String getAccessToken() throws IOException {
+        credential.refreshIfExpired();
+        return credential.getAccessToken().getTokenValue();
+    }
+
+    /**
+     * The state of a Google Drive file when it was last synced.
+     * If all of this is still the same on Google Drive's side, there is no need to download the file again.
+     */
+    private record SyncedFile(long modifiedTime, long size, String md5Checksum) {}
+
+    private static Map<String, SyncedFile> loadSyncManifest() throws IOException {
+        Path manifestPath = Paths.get(SYNC_MANIFEST);
+        if (!Files.exists(manifestPath)) return Collections.emptyMap();
+
+        JSONObject manifest;
+        try (InputStream is = Files.newInputStream(manifestPath)) {
+            manifest = new JSONObject(new JSONTokener(is));
+        }
+
+        Map<String, SyncedFile> result = new HashMap<>();
+        for (String fileId : manifest.keySet()) {
+            JSONObject entry = manifest.getJSONObject(fileId);
+            result.put(fileId, new SyncedFile(entry.getLong("modifiedTime"), entry.getLong("size"), entry.getString("md5Checksum")));
+        }
+        return result;
+    }
+
+    private static void saveSyncManifest(Map<String, SyncedFile> manifest) throws IOException {
+        JSONObject result = new JSONObject();
+        for (Map.Entry<String, SyncedFile> entry : manifest.entrySet()) {
+            JSONObject file = new JSONObject();
+            file.put("modifiedTime", entry.getValue().modifiedTime());
+            file.put("size", entry.getValue().size());
+            file.put("md5Checksum", entry.getValue().md5Checksum());
+            result.put(entry.getKey(), file);
+        }
+
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(SYNC_MANIFEST))) {
+            result.write(bw);
         }
     }
 
@@ -403,14 +564,12 @@ public class AssetDriveService {
     private static JSONObject listPageOfFilesInFolder(String folderId, String pageToken) throws IOException {
         String url = "https://www.googleapis.com/drive/v3/files?"
                 + "q=" + URLEncoder.encode("'" + folderId + "' in parents and trashed = false", StandardCharsets.UTF_8)
-                + "&fields=" + URLEncoder.encode("files(id,mimeType,name,modifiedTime),nextPageToken", StandardCharsets.UTF_8)
+                + "&fields=" + URLEncoder.encode("files(id,mimeType,name,modifiedTime,size,md5Checksum),nextPageToken", StandardCharsets.UTF_8)
                 + (pageToken == null ? "" : "&pageToken=" + pageToken);
 
         JSONObject result = ConnectionUtils.runWithRetry(() -> {
-            credential.refreshIfExpired();
-
             HttpURLConnection conn = ConnectionUtils.openConnectionWithTimeout(url);
-            conn.setRequestProperty("Authorization", "Bearer " + credential.getAccessToken().getTokenValue());
+            conn.setRequestProperty("Authorization", "Bearer " + getAccessToken());
 
             try (InputStream is = ConnectionUtils.connectionToInputStream(conn)) {
                 return new JSONObject(new JSONTokener(is));
@@ -438,58 +597,183 @@ public class AssetDriveService {
         return result;
     }
 
-    private record Size(int width, int height) {}
+    /**
+     * Information about a PNG file that is expensive to get, and as such is cached between runs.
+     * Width, height and color type come from the IHDR chunk, and the perceptual hash (a "difference hash")
+     * allows finding identical-looking images, even if their files are different.
+     */
+    private record ImageMetadata(long modifiedTime, long size, int width, int height, int colorType, long perceptualHash) {}
 
-    private static Size getPngSize(Path file) {
-        try (InputStream is = Files.newInputStream(file)) {
-            byte[] signature = new byte[8];
-            int readBytes = is.read(signature);
-
-            boolean signatureValid = (readBytes == 8
-                    && signature[0] == -119 // 0x89
-                    && signature[1] == 0x50
-                    && signature[2] == 0x4E
-                    && signature[3] == 0x47
-                    && signature[4] == 0x0D
-                    && signature[5] == 0x0A
-                    && signature[6] == 0x1A
-                    && signature[7] == 0x0A);
-
-            if (!signatureValid) {
-                log.debug("Bad PNG signature for {}, skipping", file.getFileName());
-                return new Size(0, 0);
+    /**
+     * Gets metadata for all PNG files in the asset drive, reusing the metadata from the previous run
+     * for files whose local copy did not change (same last modified date and size), and computing the rest in parallel.
+     * The cache is checked against the local copy since that is what gets read, even if it is behind the drive.
+     */
+    private static Map<String, ImageMetadata> computeImageMetadata(JSONArray allFiles) throws IOException {
+        Map<String, ImageMetadata> previousMetadata = loadImageMetadataCache();
+        Map<String, ImageMetadata> result = new ConcurrentHashMap<>();
+        Path syncedFilesRepository = Paths.get("/shared/celeste/asset-drive/files");
+
+        List<Future<?>> tasks = new ArrayList<>();
+
+        try (ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())) {
+            for (Object o : allFiles) {
+                JSONObject file = (JSONObject) o;
+                if (!"image/png".equals(file.getString("mimeType"))) continue;
+
+                String fileId = file.getString("id");
+                Path path = syncedFilesRepository.resolve(fileId + ".png");
+                if (!Files.exists(path)) continue;
+
+                long modifiedTime = Files.getLastModifiedTime(path).toMillis();
+                long size = Files.size(path);
+
+                ImageMetadata previous = previousMetadata.get(fileId);
+                if (previous != null && previous.modifiedTime() == modifiedTime && previous.size() == size) {
+                    result.put(fileId, previous);
+                    continue;
+                }
+
+                tasks.add(pool.submit(() -> result.put(fileId, readImageMetadata(path, modifiedTime, size))));
+            }
+
+            for (Future<?> task : tasks) {
+                task.get();
             }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compute PNG metadata", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        log.debug("Computed metadata for {} PNG files, {} of which were cached", result.size(),
+                result.entrySet().stream().filter(e -> e.getValue().equals(previousMetadata.get(e.getKey()))).count());
+
+        saveImageMetadataCache(result);
+        return result;
+    }
 
-            readBytes = is.read(signature);
-            if (readBytes != 8) {
-                log.debug("Unexpected end of stream for {}, skipping", file.getFileName());
-                return new Size(0, 0);
+    private static ImageMetadata readImageMetadata(Path file, long modifiedTime, long size) {
+        ByteBuffer header = ByteBuffer.allocate(PNG_HEADER_SIZE);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // PNG headers are tiny, so a single read should get all of it
+            int readBytes = 0;
+            while (header.hasRemaining() && readBytes != -1) {
+                readBytes = channel.read(header);
             }
+        } catch (IOException e) {
+            log.warn("Exception while reading PNG header for {}", file.getFileName(), e);
+            return new ImageMetadata(modifiedTime, size, 0, 0, -1, 0);
+        }
 
-            Size result = new Size(readInt(is), readInt(is));
-            log.debug("Read size for {}: {}x{}", file.getFileName(), result.width(), result.height());
-            return result;
+        header.flip();
+        if (header.remaining() != PNG_HEADER_SIZE) {
+            log.debug("Unexpected end of stream for {}, skipping", file.getFileName());
+            return new ImageMetadata(modifiedTime, size, 0, 0, -1, 0);
+        }
+
+        // 8 bytes of signature, then the first chunk should be IHDR: 4 bytes of length, 4 bytes of type, then the data
+        if (header.getLong(0) != PNG_SIGNATURE || header.getInt(12) != IHDR_CHUNK_TYPE) {
+            log.debug("Bad PNG signature for {}, skipping", file.getFileName());
+            return new ImageMetadata(modifiedTime, size, 0, 0, -1, 0);
+        }
 
+        int width = header.getInt(16);
+        int height = header.getInt(20);
+        int colorType = Byte.toUnsignedInt(header.get(25));
+        long perceptualHash = computePerceptualHash(file);
+
+        log.debug("Read metadata for {}: {}x{}, color type {}, hash {}", file.getFileName(), width, height, colorType, Long.toHexString(perceptualHash));
+        return new ImageMetadata(modifiedTime, size, width, height, colorType, perceptualHash);
+    }
+
+    /**
+     * Computes a difference hash of the image: it gets scaled down to 9x8 in grayscale,
+     * and each bit of the hash tells whether a pixel is brighter than the one on its right.
+     */
+    private static long computePerceptualHash(Path file) {
+        try (InputStream is = Files.newInputStream(file)) {
+            BufferedImage image = ImageIO.read(is);
+            if (image == null) return 0;
+
+            BufferedImage scaled = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, 9, 8, null);
+            graphics.dispose();
+
+            long hash = 0;
+            for (int y = 0; y < 8; y++) {
+                for (int x = 0; x < 8; x++) {
+                    hash <<= 1;
+                    if (scaled.getRaster().getSample(x, y, 0) > scaled.getRaster().getSample(x + 1, y, 0)) {
+                        hash |= 1;
+                    }
+                }
+            }
+            return hash;
         } catch (Exception e) {
-            log.warn("Exception while reading PNG dimensions for {}", file.getFileName(), e);
-            return new Size(0, 0);
+            log.warn("Exception while computing perceptual hash for {}", file.getFileName(), e);
+            return 0;
+        }
+    }
+
+    private static void logDuplicateAssets(JSONArray allFiles, Map<String, ImageMetadata> imageMetadata) {
+        Map<String, String> pathsPerFileId = new HashMap<>();
+        for (Object o : allFiles) {
+            JSONObject file = (JSONObject) o;
+            pathsPerFileId.put(file.getString("id"), file.getString("folder") + "/" + file.getString("name"));
+        }
+
+        // images that are plain or have no horizontal variation all have a hash of 0, so don't count those
+        Map<String, List<String>> filesPerHash = imageMetadata.entrySet().stream()
+                .filter(e -> e.getValue().perceptualHash() != 0)
+                .collect(Collectors.groupingBy(
+                        e -> e.getValue().width() + "x" + e.getValue().height() + "/" + Long.toHexString(e.getValue().perceptualHash()),
+                        Collectors.mapping(e -> pathsPerFileId.get(e.getKey()), Collectors.toList())));
+
+        for (List<String> files : filesPerHash.values()) {
+            if (files.size() > 1) {
+                log.info("Found assets that look identical: {}", files);
+            }
         }
     }
 
-    private static int readInt(InputStream is) throws IOException {
-        byte[] buf = new byte[4];
-        if (is.read(buf) != 4) throw new IOException("Read fewer bytes than expected!");
-        return (unsignedByteToInt(buf[0]) << 24)
-            + (unsignedByteToInt(buf[1]) << 16)
-            + (unsignedByteToInt(buf[2]) << 8)
-            + unsignedByteToInt(buf[3]);
+    private static Map<String, ImageMetadata> loadImageMetadataCache() throws IOException {
+        Path cachePath = Paths.get(IMAGE_METADATA_CACHE);
+        if (!Files.exists(cachePath)) return Collections.emptyMap();
+
+        JSONObject cache;
+        try (InputStream is = Files.newInputStream(cachePath)) {
+            cache = new JSONObject(new JSONTokener(is));
+        }
+
+        Map<String, ImageMetadata> result = new HashMap<>();
+        for (String fileId : cache.keySet()) {
+            JSONObject entry = cache.getJSONObject(fileId);
+            result.put(fileId, new ImageMetadata(entry.getLong("modifiedTime"), entry.optLong("size", -1), entry.getInt("width"), entry.getInt("height"),
+                    entry.getInt("colorType"), entry.getLong("perceptualHash")));
+        }
+        return result;
     }
 
-    private static int unsignedByteToInt(byte b) {
-        // for instance, "-92" is 0xA4, which for an unsigned byte is 164.
-        // -92 + 256 = 164
-        int i = b;
-        if (i < 0) i += 256;
-        return i;
+    private static void saveImageMetadataCache(Map<String, ImageMetadata> metadata) throws IOException {
+        JSONObject result = new JSONObject();
+        for (Map.Entry<String, ImageMetadata> entry : metadata.entrySet()) {
+            JSONObject file = new JSONObject();
+            file.put("modifiedTime", entry.getValue().modifiedTime());
+            file.put("size", entry.getValue().size());
+            file.put("width", entry.getValue().width());
+            file.put("height", entry.getValue().height());
+            file.put("colorType", entry.getValue().colorType());
+            file.put("perceptualHash", entry.getValue().perceptualHash());
+            result.put(entry.getKey(), file);
+        }
+
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(IMAGE_METADATA_CACHE))) {
+            result.write(bw);
+        }
     }
 }
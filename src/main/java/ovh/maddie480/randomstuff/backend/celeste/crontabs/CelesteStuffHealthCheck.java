@@ -19,6 +19,7 @@ import ovh.maddie480.randomstuff.backend.SecretConstants;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 import ovh.maddie480.randomstuff.backend.utils.HttpPostMultipart;
 import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
+import ovh.maddie480.randomstuff.backend.utils.ResponseVerifier;
 import ovh.maddie480.randomstuff.backend.utils.WebhookExecutor;
 
 import java.io.*;
@@ -273,8 +274,8 @@ public class CelesteStuffHealthCheck {
                 .format(DateTimeFormatter.ofPattern("MMMM d, yyyy", Locale.ENGLISH));
 
         log.debug("Loading custom entity catalog... (expecting date: {})", expectedRefreshDate);
-        if (!ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/custom-entity-catalog", UTF_8)
-                .contains(expectedRefreshDate)) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/custom-entity-catalog",
+                expectedRefreshDate)) {
 
             throw new IOException("The latest refresh date of the Custom Entity Catalog is not \"" + expectedRefreshDate + "\" :a:");
         }
@@ -283,15 +284,15 @@ public class CelesteStuffHealthCheck {
                 .format(DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH));
 
         log.debug("Loading custom entity catalog JSON... (expecting date: {})", expectedRefreshDate);
-        if (!ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/custom-entity-catalog.json", UTF_8)
-                .contains(expectedRefreshDate)) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/custom-entity-catalog.json",
+                expectedRefreshDate)) {
 
             throw new IOException("The latest refresh date of the Custom Entity Catalog JSON is not \"" + expectedRefreshDate + "\" :a:");
         }
 
         log.debug("Loading custom entity dictionary...");
-        if (!ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/custom-entity-dictionary.csv", UTF_8)
-                .contains("\nFrostHelper/IceSpinner;Custom Spinner / Custom Spinner (Rainbow Spinner Texture)\n")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/custom-entity-dictionary.csv",
+                "\nFrostHelper/IceSpinner;Custom Spinner / Custom Spinner (Rainbow Spinner Texture)\n")) {
 
             throw new IOException("The custom entity dictionary doesn't contain the example entry displayed on the website!");
         }
@@ -580,22 +581,22 @@ public class CelesteStuffHealthCheck {
      */
     public static void checkOlympusAPIs() throws IOException {
         // search
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/gamebanana-search?q=EXTENDED+VARIANT+MODE"), UTF_8)
-                .contains("\"Name\":\"Extended Variant Mode\"")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/gamebanana-search?q=EXTENDED+VARIANT+MODE",
+                "\"Name\":\"Extended Variant Mode\"")) {
 
             throw new IOException("Extended Variant Mode search test failed");
         }
 
         // sorted list
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/gamebanana-list?sort=downloads&category=6800&page=1"), UTF_8)
-                .contains("\"Name\":\"The 2020 Celeste Spring Community Collab\"")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/gamebanana-list?sort=downloads&category=6800&page=1",
+                "\"Name\":\"The 2020 Celeste Spring Community Collab\"")) {
 
             throw new IOException("Sorted list API test failed");
         }
 
         // categories list
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/gamebanana-categories"), UTF_8)
-                .contains("""
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/gamebanana-categories",
+                """
                         - itemtype: Mod
                           categoryid: 6800
                           formatted: Maps
@@ -605,8 +606,8 @@ public class CelesteStuffHealthCheck {
         }
 
         // subcategories list
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/gamebanana-subcategories"), UTF_8)
-                .contains("""
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/gamebanana-subcategories",
+                """
                           - id: 6803
                             name: Collab/Contest
                             count: \
@@ -616,8 +617,8 @@ public class CelesteStuffHealthCheck {
         }
 
         // featured mods list
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/gamebanana-featured"), UTF_8)
-                .contains("\"Name\":\"The 2020 Celeste Spring Community Collab\"")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/gamebanana-featured",
+                "\"Name\":\"The 2020 Celeste Spring Community Collab\"")) {
 
             throw new IOException("Featured mods list API failed");
         }
@@ -634,8 +635,8 @@ public class CelesteStuffHealthCheck {
         try (BufferedReader br = Files.newBufferedReader(Paths.get("/shared/celeste/latest-everest-versions.json"))) {
             latestDev = new JSONObject(new JSONTokener(br)).getInt("dev");
         }
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/everest-versions"), UTF_8)
-                .contains("\"version\":" + latestDev)) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/everest-versions",
+                "\"version\":" + latestDev)) {
 
             throw new IOException("Everest versions test failed");
         }
@@ -677,10 +678,8 @@ public class CelesteStuffHealthCheck {
         }
 
         // Helper list
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/helper-list")) {
-            if (!IOUtils.toString(is, UTF_8).contains("\"MaxHelpingHand\"")) {
-                throw new IOException("Helper list API health check failed");
-            }
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/helper-list", "\"MaxHelpingHand\"")) {
+            throw new IOException("Helper list API health check failed");
         }
     }
 
@@ -693,21 +692,23 @@ public class CelesteStuffHealthCheck {
         HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout("https://maddie480.ovh/celeste/random-map");
         connection.setInstanceFollowRedirects(true);
         connection.connect();
-        if (!IOUtils.toString(ConnectionUtils.connectionToInputStream(connection), UTF_8).contains("Celeste")) {
-            throw new IOException("Didn't get redirected to a random Celeste map!");
+        try (InputStream is = ConnectionUtils.connectionToInputStream(connection)) {
+            if (!ResponseVerifier.containsAll(is, "Celeste")) {
+                throw new IOException("Didn't get redirected to a random Celeste map!");
+            }
         }
         connection.disconnect();
 
         // GameBanana info API (used by file searcher only)
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/gamebanana-info?itemtype=Mod&itemid=53650"), UTF_8)
-                .contains("\"Name\":\"Extended Variant Mode\"")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/gamebanana-info?itemtype=Mod&itemid=53650",
+                "\"Name\":\"Extended Variant Mode\"")) {
 
             throw new IOException("Extended Variant Mode info check failed");
         }
 
         // deprecated GameBanana categories API
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/gamebanana-categories"), UTF_8)
-                .contains("""
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/gamebanana-categories",
+                """
                         - itemtype: Tool
                           formatted: Tools
                           count:\s""")) {
@@ -716,8 +717,8 @@ public class CelesteStuffHealthCheck {
         }
 
         // mod search database API
-        final String modSearchDatabase = ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/mod_search_database.yaml", UTF_8);
-        if (!modSearchDatabase.contains("Name: The 2020 Celeste Spring Community Collab")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/mod_search_database.yaml",
+                "Name: The 2020 Celeste Spring Community Collab")) {
             throw new IOException("mod_search_database.yaml check failed");
         }
 
@@ -738,37 +739,37 @@ public class CelesteStuffHealthCheck {
         }
 
         // mod_dependency_graph.yaml
-        final String modDependencyGraph = ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/mod_dependency_graph.yaml", UTF_8);
-        if (!modDependencyGraph.contains("SpringCollab2020Audio:")
-                || !modDependencyGraph.contains("URL: https://gamebanana.com/mmdl/484937")
-                || !modDependencyGraph.contains("- Name: SpringCollab2020Audio")
-                || !modDependencyGraph.contains("  Version: 1.0.0")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/mod_dependency_graph.yaml",
+                "SpringCollab2020Audio:",
+                "URL: https://gamebanana.com/mmdl/484937",
+                "- Name: SpringCollab2020Audio",
+                "  Version: 1.0.0")) {
 
             throw new IOException("mod_dependency_graph.yaml check failed");
         }
 
         // Update Checker status, widget version
-        final String updateCheckerStatus = ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/update-checker-status?widget=true", UTF_8);
-        if (!updateCheckerStatus.contains("<span class=\"GreenColor\">Up</span>")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/update-checker-status?widget=true",
+                "<span class=\"GreenColor\">Up</span>")) {
             throw new IOException("Update checker is not OK according to status widget!");
         }
 
         // GameBanana "JSON to RSS feed" API
-        if (!IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/gamebanana/rss-feed?_aCategoryRowIds[]=5081&_sOrderBy=_tsDateAdded,ASC&_nPerpage=10"), UTF_8)
-                .contains("<title>Outcast Outback Helper</title>")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/gamebanana/rss-feed?_aCategoryRowIds[]=5081&_sOrderBy=_tsDateAdded,ASC&_nPerpage=10",
+                "<title>Outcast Outback Helper</title>")) {
 
             throw new IOException("RSS feed by category API failed");
         }
 
         // mod IDs to names API
-        final String modIdToNames = ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/mod_ids_to_names.json", UTF_8);
-        if (!modIdToNames.contains("\"MaxHelpingHand\":\"Maddie's Helping Hand\"")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/mod_ids_to_names.json",
+                "\"MaxHelpingHand\":\"Maddie's Helping Hand\"")) {
             throw new IOException("mod_ids_to_names.json check failed");
         }
 
         // mod IDs to categories API
-        final String modIdToCategories = ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/mod_ids_to_categories.json", UTF_8);
-        if (!modIdToCategories.contains("\"MaxHelpingHand\":\"Helpers\"")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/mod_ids_to_categories.json",
+                "\"MaxHelpingHand\":\"Helpers\"")) {
             throw new IOException("mod_ids_to_categories.json check failed");
         }
     }
@@ -794,8 +795,8 @@ public class CelesteStuffHealthCheck {
         }
 
         // and the status page says everything is fine
-        final String updateCheckerStatus = ConnectionUtils.toStringWithTimeout("https://maddie480.ovh/celeste/update-checker-status", UTF_8);
-        if (!updateCheckerStatus.contains("The update checker is up and running!")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/update-checker-status",
+                "The update checker is up and running!")) {
             throw new IOException("Update checker is not OK according to status page!");
         }
     }
@@ -883,10 +884,10 @@ public class CelesteStuffHealthCheck {
             HttpURLConnection result = submit.finish();
 
             // read the response from everest.yaml validator and check the Winter Collab is deemed valid.
-            String resultBody = IOUtils.toString(ConnectionUtils.connectionToInputStream(result), StandardCharsets.UTF_8);
-            if (!resultBody.contains("Your everest.yaml file seems valid!")
-                    || !resultBody.contains("WinterCollab2021Audio") || !resultBody.contains("VivHelper") || !resultBody.contains("1.4.1")) {
-                throw new IOException("everest.yaml validator gave unexpected output for Winter Collab yaml file");
+            try (InputStream is = ConnectionUtils.connectionToInputStream(result)) {
+                if (!ResponseVerifier.containsAll(is, "Your everest.yaml file seems valid!", "WinterCollab2021Audio", "VivHelper", "1.4.1")) {
+                    throw new IOException("everest.yaml validator gave unexpected output for Winter Collab yaml file");
+                }
             }
         }
 
@@ -953,11 +954,8 @@ public class CelesteStuffHealthCheck {
 
         periodicCheck(() -> {
             log.debug("Loading result page: {}", url);
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout(url)) {
-                String response = IOUtils.toString(is, UTF_8);
-                if (!response.contains("Here is the font you need to place")) {
-                    throw new IOException("Font generator result page does not indicate success!");
-                }
+            if (!ResponseVerifier.containsAll(url, "Here is the font you need to place")) {
+                throw new IOException("Font generator result page does not indicate success!");
             }
         });
 
@@ -1014,11 +1012,8 @@ public class CelesteStuffHealthCheck {
 
         periodicCheck(() -> {
             log.debug("Loading result page: {}", url);
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout(url)) {
-                String response = IOUtils.toString(is, UTF_8);
-                if (!response.contains("Here is the font you need to place")) {
-                    throw new IOException("Font generator result page does not indicate success!");
-                }
+            if (!ResponseVerifier.containsAll(url, "Here is the font you need to place")) {
+                throw new IOException("Font generator result page does not indicate success!");
             }
         });
 
@@ -1070,11 +1065,8 @@ public class CelesteStuffHealthCheck {
 
         periodicCheck(() -> {
             log.debug("Loading result page: {}", url);
-            try (InputStream is = ConnectionUtils.openStreamWithTimeout(url)) {
-                String response = IOUtils.toString(is, UTF_8);
-                if (!response.contains("No issue was found with your zip!")) {
-                    throw new IOException("Mod structure verifier result page does not indicate success!");
-                }
+            if (!ResponseVerifier.containsAll(url, "No issue was found with your zip!")) {
+                throw new IOException("Mod structure verifier result page does not indicate success!");
             }
         });
     }
@@ -1260,12 +1252,10 @@ public class CelesteStuffHealthCheck {
             IOUtils.write("modId=MaxHelpingHand&twoclick=&mirror=", os, UTF_8);
         }
 
-        String resultHtml;
         try (InputStream is = ConnectionUtils.connectionToInputStream(connection)) {
-            resultHtml = IOUtils.toString(is, UTF_8);
-        }
-        if (!resultHtml.contains("https://maddie480.ovh/celeste/dl?id=MaxHelpingHand&amp;twoclick=1&amp;mirror=1")) {
-            throw new IOException("Direct Link Service did not send the direct link!");
+            if (!ResponseVerifier.containsAll(is, "https://maddie480.ovh/celeste/dl?id=MaxHelpingHand&amp;twoclick=1&amp;mirror=1")) {
+                throw new IOException("Direct Link Service did not send the direct link!");
+            }
         }
 
         connection = ConnectionUtils.openConnectionWithTimeout("https://maddie480.ovh/celeste/dl?id=MaxHelpingHand&twoclick=1");
@@ -1300,10 +1290,9 @@ public class CelesteStuffHealthCheck {
             IOUtils.write("modId=TheSecretOfCelesteMountain&bundle=", os, UTF_8);
         }
         try (InputStream is = ConnectionUtils.connectionToInputStream(connection)) {
-            resultHtml = IOUtils.toString(is, UTF_8);
-        }
-        if (!resultHtml.contains("https://maddie480.ovh/celeste/bundle-download?id=TheSecretOfCelesteMountain")) {
-            throw new IOException("Direct Link Service did not send the bundle link!");
+            if (!ResponseVerifier.containsAll(is, "https://maddie480.ovh/celeste/bundle-download?id=TheSecretOfCelesteMountain")) {
+                throw new IOException("Direct Link Service did not send the bundle link!");
+            }
         }
 
         // bundle download of Secret of Celeste Mountain
@@ -1340,11 +1329,10 @@ public class CelesteStuffHealthCheck {
      * Run daily.
      */
     public static void checkSrcModUpdateNotificationsPage() throws IOException {
-        String contents = IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/src-mod-update-notifications?key="
-                + SecretConstants.SRC_MOD_UPDATE_NOTIFICATIONS_KEY), UTF_8);
-        if (!contents.contains("SpringCollab2020")
-                || !contents.contains("The 2020 Celeste Spring Community Collab")
-                || !contents.contains("https://gamebanana.com/mods/150813")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/src-mod-update-notifications?key=" + SecretConstants.SRC_MOD_UPDATE_NOTIFICATIONS_KEY,
+                "SpringCollab2020",
+                "The 2020 Celeste Spring Community Collab",
+                "https://gamebanana.com/mods/150813")) {
 
             throw new IOException("speedrun.com mod update notifications page does not render properly or does not have Spring Collab on it");
         }
@@ -1373,15 +1361,13 @@ public class CelesteStuffHealthCheck {
      * Run daily.
      */
     public static void checkCelesteNewsNetworkSubscriptionService() throws IOException {
-        String contents = IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/news-network-subscription"), UTF_8);
-
         String expected;
         try (InputStream is = Files.newInputStream(Paths.get("/shared/celeste/celeste-news-network-subscribers.json"))) {
             int count = new JSONArray(new JSONTokener(is)).length();
             expected = "<b>" + count + " " + (count == 1 ? "webhook" : "webhooks") + "</b>";
         }
 
-        if (!contents.contains(expected)) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/news-network-subscription", expected)) {
             throw new IOException("#celeste_news_network subscription service page does not show subscriber count anywhere!");
         }
     }
@@ -1417,8 +1403,7 @@ public class CelesteStuffHealthCheck {
      */
     public static void checkCollabList() throws IOException {
         log.debug("Checking collab list...");
-        String contents = IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/collab-contest-list"), UTF_8);
-        if (!contents.contains("Anarchy Mapping Event")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/collab-contest-list", "Anarchy Mapping Event")) {
             throw new IOException("Collab list does not show Anarchy Mapping Event!");
         }
 
@@ -1433,8 +1418,7 @@ public class CelesteStuffHealthCheck {
         }
 
         log.debug("Checking collab editor with key {}...", key);
-        contents = IOUtils.toString(ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/collab-contest-editor?key=" + key), UTF_8);
-        if (!contents.contains("Anarchy Mapping Event")) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/collab-contest-editor?key=" + key, "Anarchy Mapping Event")) {
             throw new IOException("Collab editor does not show Anarchy Mapping Event!");
         }
     }
@@ -1485,25 +1469,15 @@ public class CelesteStuffHealthCheck {
 
         log.debug("Checking that {} with title {} is present on the Olympus News page...", slug, title);
 
-        String siteContent;
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/olympus-news")) {
-            siteContent = IOUtils.toString(is, UTF_8);
-        }
-        if (!siteContent.contains(title)) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/olympus-news", title)) {
             throw new IOException("Olympus News was not found on the page!");
         }
 
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/olympus-news.json")) {
-            siteContent = IOUtils.toString(is, UTF_8);
-        }
-        if (!siteContent.contains(slug)) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/olympus-news.json", slug)) {
             throw new IOException("Olympus News was not found on the page!");
         }
 
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://maddie480.ovh/celeste/olympus-news.xml")) {
-            siteContent = IOUtils.toString(is, UTF_8);
-        }
-        if (!siteContent.contains(slug)) {
+        if (!ResponseVerifier.containsAll("https://maddie480.ovh/celeste/olympus-news.xml", slug)) {
             throw new IOException("Olympus News was not found on the page!");
         }
     }
@@ -9,20 +9,17 @@ import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
 import ovh.maddie480.randomstuff.backend.discord.timezonebot.TimezoneRoleUpdater;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
+import ovh.maddie480.randomstuff.backend.utils.ResponseVerifier;
 import ovh.maddie480.randomstuff.backend.utils.WebhookExecutor;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.time.ZonedDateTime;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -30,101 +27,196 @@ import java.util.stream.Collectors;
  * This class checks the health of multiple platforms (the website, the bot, the mirror and GameBanana)
  * every minute. When multiple checks in a row fail, an alert is sent to a few webhooks.
  * This is different from CelesteStuffHealthCheck, which checks for more specific stuff way less frequently.
+ * <p>
+ * Each service is probed on its own virtual thread, so that a slow service doesn't delay checking the others.
+ * Response times are recorded, and an alert is also sent when a service gets slower than its latency objective.
  */
 public class ContinuousHealthChecks {
     private static final Logger logger = LoggerFactory.getLogger(ContinuousHealthChecks.class);
 
-    private static final Map<String, Integer> servicesHealth = new HashMap<>();
-    private static final Map<String, Boolean> servicesStatus = new HashMap<>();
+    // the median of this many successful checks is compared to the latency objective of the service
+    private static final int LATENCY_WINDOW = 5;
+
+    // upper bounds of the response time histogram buckets, in milliseconds (the last bucket has no upper bound)
+    private static final long[] HISTOGRAM_BUCKETS = {100, 250, 500, 1000, 2500, 5000, 10000};
+
+    /**
+     * The state of a service at a given time.
+     *
+     * @param responseTimeHistogram how many checks took at most each of the {@link #getHistogramBuckets()} milliseconds,
+     *                              the last bucket being for checks that took longer than that
+     */
+    public record ServiceStatus(String name, boolean up, int health, int maxHealth, boolean slow,
+                                long lastResponseTimeMillis, long[] responseTimeHistogram) {
+    }
+
+    private static class Probe {
+        final String name;
+        final IOSupplier<Boolean> check;
+        final List<String> webhookUrls;
+        final int maxHP;
+        final Duration interval;
+        final Duration deadline;
+        final long latencyObjectiveMillis; // 0 if there is none
+
+        // guarded by this
+        int health;
+        boolean up = true;
+        boolean slow = false;
+        long lastResponseTimeMillis = -1;
+        final long[] histogram = new long[HISTOGRAM_BUCKETS.length + 1];
+        final Deque<Long> recentResponseTimes = new ArrayDeque<>();
+
+        Probe(String name, IOSupplier<Boolean> check, List<String> webhookUrls, int maxHP,
+              Duration interval, Duration deadline, long latencyObjectiveMillis) {
+
+            this.name = name;
+            this.check = check;
+            this.webhookUrls = webhookUrls;
+            this.maxHP = maxHP;
+            this.interval = interval;
+            this.deadline = deadline;
+            this.latencyObjectiveMillis = latencyObjectiveMillis;
+            this.health = maxHP;
+        }
+
+        synchronized ServiceStatus getStatus() {
+            return new ServiceStatus(name, up, health, maxHP, slow, lastResponseTimeMillis, histogram.clone());
+        }
+    }
+
+    private static final ExecutorService checkExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private static volatile List<Probe> probes = Collections.emptyList();
 
     public static String getDownServicesList() {
-        return servicesStatus.entrySet().stream()
-                .filter(e -> !e.getValue())
-                .map(Map.Entry::getKey)
+        return getStatusSnapshot().stream()
+                .filter(s -> !s.up())
+                .map(ServiceStatus::name)
                 .collect(Collectors.joining(", "));
     }
 
-    private static final Map<String, Integer> servicesMaxHP = ImmutableMap.of(
-            "Banana Mirror", 1,
-            "CelesteNet", 1,
-            "Update Checker", 1,
-            "Timezone Role Updater", 1,
-            "Nextcloud", 1,
-            "Maddie's Random Stuff Website", 1,
-            "Certbot", 1,
-            // GameBanana is given more leniency, ESPECIALLY the file server
-            "GameBanana Website", 3,
-            "GameBanana API", 3,
-            "GameBanana File Server", 5
-    );
+    public static List<ServiceStatus> getStatusSnapshot() {
+        return probes.stream().map(Probe::getStatus).toList();
+    }
+
+    public static long[] getHistogramBuckets() {
+        return HISTOGRAM_BUCKETS.clone();
+    }
 
     public static void startChecking() {
-        new Thread("Continuous Health Checks") {
-            @Override
-            public void run() {
+        probes = List.of(
+                // 0x0a.de health checks
+                urlProbe("https://celestemodupdater.0x0a.de/banana-mirror", "484937.zip",
+                        "Banana Mirror", 1, 2000, SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://celestenet.0x0a.de/api/status", "\"StartupTime\":",
+                        "CelesteNet", 1, 2000, SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS),
+
+                // maddie480.ovh health checks
+                urlProbe("https://maddie480.ovh/celeste/everest_update.yaml", "SpringCollab2020:",
+                        "Maddie's Random Stuff Website", 1, 2000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://maddie480.ovh/celeste/update-checker-status.json", "\"up\":true",
+                        "Update Checker", 1, 2000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+
+                // GameBanana health checks: GameBanana is given more leniency, ESPECIALLY the file server
+                urlProbe("https://gamebanana.com/games/6460", "Celeste",
+                        "GameBanana Website", 3, 5000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://files.gamebanana.com/bitpit/check.txt", "The check passed!",
+                        "GameBanana File Server", 5, 5000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+                urlProbe("https://gamebanana.com/apiv8/Mod/150813?_csvProperties=@gbprofile", "\"https:\\/\\/gamebanana.com\\/dl\\/484937\"",
+                        "GameBanana API", 3, 5000, SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS),
+
+                new Probe("Nextcloud", ContinuousHealthChecks::checkNextcloudSpace,
+                        Collections.singletonList(SecretConstants.UPDATE_CHECKER_LOGS_HOOK), 1, Duration.ofMinutes(1), Duration.ofSeconds(30), 0),
+                new Probe("Certbot", () -> Files.exists(Paths.get("/shared/temp/cert_renew_success")),
+                        Collections.singletonList(SecretConstants.UPDATE_CHECKER_LOGS_HOOK), 1, Duration.ofMinutes(1), Duration.ofSeconds(5), 0)
+        );
+
+        for (Probe probe : probes) {
+            Thread.ofVirtual().name("Health Check - " + probe.name).start(() -> {
                 while (true) {
+                    waitForNextRun(probe.interval);
+
                     try {
-                        // 0x0a.de health checks
-                        checkURL("https://celestemodupdater.0x0a.de/banana-mirror", "484937.zip",
-                                "Banana Mirror", SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://celestenet.0x0a.de/api/status", "\"StartupTime\":",
-                                "CelesteNet", SecretConstants.JADE_PLATFORM_HEALTHCHECK_HOOKS);
-
-                        // maddie480.ovh health checks
-                        checkURL("https://maddie480.ovh/celeste/everest_update.yaml", "SpringCollab2020:",
-                                "Maddie's Random Stuff Website", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://maddie480.ovh/celeste/update-checker-status.json", "\"up\":true",
-                                "Update Checker", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-
-                        // GameBanana health checks
-                        checkURL("https://gamebanana.com/games/6460", "Celeste",
-                                "GameBanana Website", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://files.gamebanana.com/bitpit/check.txt", "The check passed!",
-                                "GameBanana File Server", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-                        checkURL("https://gamebanana.com/apiv8/Mod/150813?_csvProperties=@gbprofile", "\"https:\\/\\/gamebanana.com\\/dl\\/484937\"",
-                                "GameBanana API", SecretConstants.NON_JADE_PLATFORM_HEALTHCHECK_HOOKS);
-
-                        // backend check: notify privately and restart if it goes down.
-                        checkHealthWithEmergencyRestart(() -> System.currentTimeMillis() - TimezoneRoleUpdater.getLastRunDate() < 1_800_000L,
-                                "Timezone Role Updater");
-                        checkHealth(ContinuousHealthChecks::checkNextcloudSpace,
-                                "Nextcloud", Collections.singletonList(SecretConstants.UPDATE_CHECKER_LOGS_HOOK));
-                        checkHealth(() -> Files.exists(Paths.get("/shared/temp/cert_renew_success")),
-                                "Certbot", Collections.singletonList(SecretConstants.UPDATE_CHECKER_LOGS_HOOK));
+                        runProbe(probe);
                     } catch (Exception e) {
                         // this shouldn't happen, unless we cannot communicate with Discord.
-                        logger.error("Uncaught exception happened during health check!", e);
-                    }
-
-                    try {
-                        // wait until the start of the next minute.
-                        Thread.sleep(60000 - (ZonedDateTime.now().getSecond() * 1000L
-                                + ZonedDateTime.now().getNano() / 1_000_000) + 50);
-                    } catch (InterruptedException e) {
-                        // this shouldn't happen AT ALL.
-                        logger.error("Sleep interrupted!", e);
+                        logger.error("Uncaught exception happened during health check of {}!", probe.name, e);
                     }
                 }
+            });
+        }
+
+        // backend check: notify privately and restart if it goes down.
+        Thread.ofVirtual().name("Health Check - Timezone Role Updater").start(() -> {
+            while (true) {
+                waitForNextRun(Duration.ofMinutes(1));
+                checkHealthWithEmergencyRestart(() -> System.currentTimeMillis() - TimezoneRoleUpdater.getLastRunDate() < 1_800_000L,
+                        "Timezone Role Updater");
             }
-        }.start();
+        });
     }
 
-    private static void checkURL(String url, String content, String serviceName, List<String> webhookUrls) {
-        checkHealth(() -> {
-            HttpURLConnection con = ConnectionUtils.openConnectionWithTimeout(url);
-            con.setConnectTimeout(5000);
-            con.setReadTimeout(10000);
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(ConnectionUtils.connectionToInputStream(con)))) {
-                String s;
-                while ((s = br.readLine()) != null) {
-                    if (s.contains(content)) {
-                        return true;
-                    }
-                }
+    private static Probe urlProbe(String url, String content, String serviceName, int maxHP, long latencyObjectiveMillis, List<String> webhookUrls) {
+        return new Probe(serviceName, () -> checkURL(url, content), webhookUrls, maxHP,
+                Duration.ofMinutes(1), Duration.ofSeconds(20), latencyObjectiveMillis);
+    }
+
+    /**
+     * Waits until the next multiple of the interval, so that checks happen at the start of the minute.
+     */
+    private static void waitForNextRun(Duration interval) {
+        long intervalMillis = interval.toMillis();
+        try {
+            Thread.sleep(intervalMillis - System.currentTimeMillis() % intervalMillis + 50);
+        } catch (InterruptedException e) {
+            // this shouldn't happen AT ALL.
+            logger.error("Sleep interrupted!", e);
+        }
+    }
+
+    private static void runProbe(Probe probe) {
+        boolean result;
+
+        long start = System.nanoTime();
+        Future<Boolean> check = checkExecutor.submit(probe.check::get);
+        try {
+            result = check.get(probe.deadline.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Health check for {} did not complete within {} seconds!", probe.name, probe.deadline.toSeconds());
+            check.cancel(true);
+            result = false;
+        } catch (ExecutionException e) {
+            logger.warn("Health check error for {}!", probe.name, e.getCause());
+            result = false;
+        } catch (InterruptedException e) {
+            logger.error("Health check for {} interrupted!", probe.name, e);
+            check.cancel(true);
+            return;
+        }
+
+        long responseTime = (System.nanoTime() - start) / 1_000_000;
+        logger.debug("Health check result for {}: {} in {} ms", probe.name, result, responseTime);
+
+        List<String> alerts = new ArrayList<>();
+        synchronized (probe) {
+            recordResponseTime(probe, responseTime, result, alerts);
+            updateHealth(probe, result, alerts);
+        }
+
+        for (String alert : alerts) {
+            for (String webhook : probe.webhookUrls) {
+                executeWebhookSafe(webhook, alert);
             }
+        }
+    }
 
-            return false;
-        }, serviceName, webhookUrls);
+    private static boolean checkURL(String url, String content) throws IOException {
+        HttpURLConnection con = ConnectionUtils.openConnectionWithTimeout(url);
+        con.setConnectTimeout(5000);
+        con.setReadTimeout(10000);
+        try (InputStream is = ConnectionUtils.connectionToInputStream(con)) {
+            return ResponseVerifier.containsAll(is, content);
+        }
     }
 
     private static boolean checkNextcloudSpace() throws IOException {
@@ -140,56 +232,60 @@ public class ContinuousHealthChecks {
         }
     }
 
-    private static void checkHealth(IOSupplier<Boolean> healthCheck,
-                                    String serviceName, List<String> webhookUrls) {
-        boolean result;
+    private static void recordResponseTime(Probe probe, long responseTime, boolean success, List<String> alerts) {
+        probe.lastResponseTimeMillis = responseTime;
 
-        try {
-            result = healthCheck.get();
-        } catch (Exception e) {
-            logger.warn("Health check error for {}!", serviceName, e);
-            result = false;
-        }
+        int bucket = 0;
+        while (bucket < HISTOGRAM_BUCKETS.length && responseTime > HISTOGRAM_BUCKETS[bucket]) bucket++;
+        probe.histogram[bucket]++;
+
+        // failed checks often fail fast, so they don't tell anything about latency
+        if (probe.latencyObjectiveMillis == 0 || !success) return;
 
-        logger.debug("Health check result for {}: {}", serviceName, result);
+        probe.recentResponseTimes.addLast(responseTime);
+        if (probe.recentResponseTimes.size() > LATENCY_WINDOW) probe.recentResponseTimes.removeFirst();
+        if (probe.recentResponseTimes.size() < LATENCY_WINDOW) return;
 
-        int serviceMaxHP = servicesMaxHP.get(serviceName);
+        long median = probe.recentResponseTimes.stream().sorted().toList().get(LATENCY_WINDOW / 2);
 
-        int currentHealth = servicesHealth.getOrDefault(serviceName, serviceMaxHP);
-        boolean currentStatus = servicesStatus.getOrDefault(serviceName, true);
+        if (!probe.slow && median > probe.latencyObjectiveMillis) {
+            logger.warn("Service {} is slow: median response time {} ms", probe.name, median);
+            probe.slow = true;
+            alerts.add(":warning: **" + probe.name + "** is slow! Median response time over the last " + LATENCY_WINDOW
+                    + " checks is " + median + " ms (objective: " + probe.latencyObjectiveMillis + " ms).");
+        } else if (probe.slow && median <= probe.latencyObjectiveMillis) {
+            logger.info("Service {} is fast again: median response time {} ms", probe.name, median);
+            probe.slow = false;
+            alerts.add(":white_check_mark: **" + probe.name + "** response times are back to normal (median " + median + " ms).");
+        }
+    }
 
+    private static void updateHealth(Probe probe, boolean result, List<String> alerts) {
         if (result) {
-            if (currentHealth < serviceMaxHP) {
-                currentHealth++;
-                logger.info("Health of {} increased to {}/{} HP", serviceName, currentHealth, serviceMaxHP);
+            if (probe.health < probe.maxHP) {
+                probe.health++;
+                logger.info("Health of {} increased to {}/{} HP", probe.name, probe.health, probe.maxHP);
 
                 // if health is at max and the service was declared down, declare it up again!
-                if (currentHealth == serviceMaxHP && !currentStatus) {
-                    logger.info("Service {} has full HP!", serviceName);
-                    currentStatus = true;
-                    for (String webhook : webhookUrls) {
-                        executeWebhookSafe(webhook, ":white_check_mark: **" + serviceName + "** is up again.");
-                    }
+                if (probe.health == probe.maxHP && !probe.up) {
+                    logger.info("Service {} has full HP!", probe.name);
+                    probe.up = true;
+                    alerts.add(":white_check_mark: **" + probe.name + "** is up again.");
                 }
             }
         } else {
-            if (currentHealth > 0) {
-                currentHealth--;
-                logger.warn("Health of {} decreased to {}/{} HP", serviceName, currentHealth, serviceMaxHP);
+            if (probe.health > 0) {
+                probe.health--;
+                logger.warn("Health of {} decreased to {}/{} HP", probe.name, probe.health, probe.maxHP);
 
                 // if health is at zero and the service is officially up, declare it down.
-                if (currentHealth == 0 && currentStatus) {
-                    logger.warn("Service {} is dead!", serviceName);
-                    currentStatus = false;
-                    for (String webhook : webhookUrls) {
-                        executeWebhookSafe(webhook, ":x: **" + serviceName + "** is down!");
-                    }
+                if (probe.health == 0 && probe.up) {
+                    logger.warn("Service {} is dead!", probe.name);
+                    probe.up = false;
+                    alerts.add(":x: **" + probe.name + "** is down!");
                 }
             }
         }
-
-        servicesHealth.put(serviceName, currentHealth);
-        servicesStatus.put(serviceName, currentStatus);
     }
 
     private static void checkHealthWithEmergencyRestart(Supplier<Boolean> healthCheck, String serviceName) {
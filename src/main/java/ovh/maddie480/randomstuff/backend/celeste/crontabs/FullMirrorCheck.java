@@ -8,31 +8,59 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.everest.updatechecker.DatabaseUpdater;
 import ovh.maddie480.everest.updatechecker.YamlUtil;
+import ovh.maddie480.randomstuff.backend.utils.BulkRemoteVerifier;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 
-import javax.swing.*;
-import java.awt.*;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.*;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class FullMirrorCheck {
     private static final Logger logger = LoggerFactory.getLogger(FullMirrorCheck.class);
 
+    // the check is cancelled if it takes longer than this, so that a stuck mirror does not keep it running forever
+    private static final Duration MAX_DURATION = Duration.ofHours(12);
+
     public static void main(String[] args) throws IOException {
         AtomicBoolean allGood = new AtomicBoolean(true);
 
-        // To avoid cluttering the output, the progress is shown in a window with a progress bar.
-        // This only appears if run directly (the crontabs invoke it with args = null),
-        // and if the environment can actually display the window.
-        boolean popup = args != null && !GraphicsEnvironment.isHeadless();
+        // Progress is written to a status file, in /shared if run by the crontabs (which invoke it with args = null),
+        // or in the working directory if run directly.
+        BulkRemoteVerifier verifier = new BulkRemoteVerifier(
+                args == null ? Paths.get("/shared/celeste/mirror-check-status.json") : Paths.get("mirror-check-status.json"),
+                Duration.ofSeconds(30));
+
+        Thread deadline = Thread.ofVirtual().name("Full Mirror Check Deadline").start(() -> {
+            try {
+                Thread.sleep(MAX_DURATION);
+                logger.error("Mirror check is taking more than {} hours, cancelling it", MAX_DURATION.toHours());
+                verifier.cancel();
+            } catch (InterruptedException e) {
+                // the check is done in time
+            }
+        });
+
+        try {
+            runChecks(verifier, allGood);
+        } finally {
+            deadline.interrupt();
+        }
 
+        if (verifier.isCancelled()) {
+            throw new IOException("Mirror check was cancelled after " + MAX_DURATION.toHours() + " hours!");
+        }
+        if (!allGood.get()) {
+            throw new IOException("Some mirror checks failed! Check logs for more details.");
+        }
+    }
+
+    private static void runChecks(BulkRemoteVerifier verifier, AtomicBoolean allGood) throws IOException {
         {
             logger.debug("Checking match between celestemodupdater-storage.0x0a.de and updater database");
             Map<String, String> hashes;
@@ -42,9 +70,9 @@ public class FullMirrorCheck {
                                 v -> "https://celestemodupdater-storage.0x0a.de/banana-mirror/" + v.get("GameBananaFileId") + ".zip",
                                 v -> ((List<String>) v.get("xxHash")).getFirst()));
             }
-            doTheParallelStuff(hashes.entrySet(), 5, popup, entry -> retryAndCatch(() -> {
+            verifier.run("Mod hashes", hashes.entrySet(), 5, entry -> retryAndCatch(() -> {
                 String actualHash;
-                try (InputStream is = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout(entry.getKey()))) {
+                try (InputStream is = verifier.openStream(entry.getKey())) {
                     actualHash = DatabaseUpdater.computeXXHash(is);
                 }
                 if (!actualHash.equals(entry.getValue())) {
@@ -54,16 +82,11 @@ public class FullMirrorCheck {
             }, allGood));
 
             logger.debug("Checking match between mods on all mirrors");
-            doTheParallelStuff(hashes.keySet(), 5, popup, entry -> retryAndCatch(() -> compareStreams(() -> {
-                try (InputStream i1 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout(entry));
-                     InputStream i2 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout("https://celestemodupdater-mirror.papyrus.0x0a.de/"
-                             + entry.substring("https://celestemodupdater-storage.0x0a.de/".length())));
-                     InputStream i3 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout("https://banana-mirror-mods.celestemods.com/"
-                             + entry.substring("https://celestemodupdater-storage.0x0a.de/banana-mirror/".length())))) {
-
-                    return compareStreams(Arrays.asList(i1, i2, i3));
-                }
-            }, "mod " + entry, allGood), allGood));
+            verifier.run("Mods", hashes.keySet(), 5, entry -> retryAndCatch(() -> compareStreams(() -> compareStreams(verifier.openStreams(
+                    entry,
+                    "https://celestemodupdater-mirror.papyrus.0x0a.de/" + entry.substring("https://celestemodupdater-storage.0x0a.de/".length()),
+                    "https://banana-mirror-mods.celestemods.com/" + entry.substring("https://celestemodupdater-storage.0x0a.de/banana-mirror/".length())
+            )), "mod " + entry, allGood), allGood));
         }
 
         {
@@ -76,17 +99,11 @@ public class FullMirrorCheck {
                         .collect(Collectors.toList());
             }
 
-            doTheParallelStuff(mirroredScreenshots, 25, popup, entry -> retryAndCatch(() -> compareStreams(() -> {
-                try (InputStream i1 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout("https://celestemodupdater-storage.0x0a.de/"
-                        + entry.substring("https://celestemodupdater.0x0a.de/".length())));
-                     InputStream i2 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout("https://celestemodupdater-mirror.papyrus.0x0a.de/"
-                             + entry.substring("https://celestemodupdater.0x0a.de/".length())));
-                     InputStream i3 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout("https://banana-mirror-images.celestemods.com/"
-                             + entry.substring("https://celestemodupdater.0x0a.de/banana-mirror-images/".length())))) {
-
-                    return compareStreams(Arrays.asList(i1, i2, i3));
-                }
-            }, "image " + entry, allGood), allGood));
+            verifier.run("Screenshots", mirroredScreenshots, 25, entry -> retryAndCatch(() -> compareStreams(() -> compareStreams(verifier.openStreams(
+                    "https://celestemodupdater-storage.0x0a.de/" + entry.substring("https://celestemodupdater.0x0a.de/".length()),
+                    "https://celestemodupdater-mirror.papyrus.0x0a.de/" + entry.substring("https://celestemodupdater.0x0a.de/".length()),
+                    "https://banana-mirror-images.celestemods.com/" + entry.substring("https://celestemodupdater.0x0a.de/banana-mirror-images/".length())
+            )), "image " + entry, allGood), allGood));
         }
 
         {
@@ -97,17 +114,10 @@ public class FullMirrorCheck {
                 for (int i = 0; i < a.length(); i++) richPresenceIcons.add(a.getString(i));
             }
 
-            doTheParallelStuff(richPresenceIcons, 25, popup, entry -> retryAndCatch(() -> compareStreams(() -> {
-                try (InputStream i1 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout("https://celestemodupdater-storage.0x0a.de/rich-presence-icons/" + entry + ".png"));
-                     InputStream i2 = new BufferedInputStream(ConnectionUtils.openStreamWithTimeout("https://banana-mirror-rich-presence-icons.celestemods.com/" + entry + ".png"))) {
-
-                    return compareStreams(Arrays.asList(i1, i2));
-                }
-            }, "Rich Presence icon " + entry, allGood), allGood));
-        }
-
-        if (!allGood.get()) {
-            throw new IOException("Some mirror checks failed! Check logs for more details.");
+            verifier.run("Rich Presence icons", richPresenceIcons, 25, entry -> retryAndCatch(() -> compareStreams(() -> compareStreams(verifier.openStreams(
+                    "https://celestemodupdater-storage.0x0a.de/rich-presence-icons/" + entry + ".png",
+                    "https://banana-mirror-rich-presence-icons.celestemods.com/" + entry + ".png"
+            )), "Rich Presence icon " + entry, allGood), allGood));
         }
     }
 
@@ -122,7 +132,15 @@ public class FullMirrorCheck {
                 }
             }
             thing.run();
+        } catch (InterruptedException e) {
+            // the check was cancelled
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // the check was cancelled while a connection was open
+                return;
+            }
+
             logger.error("Could not process item", e);
             allGood.set(false);
         }
@@ -140,53 +158,27 @@ public class FullMirrorCheck {
     }
 
     private static boolean compareStreams(List<InputStream> streams) throws IOException {
-        int b;
-        while (true) {
-            b = streams.getFirst().read();
-            for (int i = 1; i < streams.size(); i++) {
-                if (streams.get(i).read() != b) return false;
+        IOException closeException = null;
+        try {
+            int b;
+            while (true) {
+                b = streams.getFirst().read();
+                for (int i = 1; i < streams.size(); i++) {
+                    if (streams.get(i).read() != b) return false;
+                }
+                if (b == -1) return true;
             }
-            if (b == -1) return true;
-        }
-    }
-
-    private static <T> void doTheParallelStuff(Collection<T> items, int nb, boolean popup, Consumer<T> processOne) {
-        JFrame jf = null;
-        JProgressBar progress = null;
-        if (popup) {
-            jf = new JFrame("Mirror Check");
-            jf.add(progress = new JProgressBar(0, items.size()));
-            jf.pack();
-            jf.setBounds(0, 0, 400, 75);
-            jf.setVisible(true);
-            progress.setStringPainted(true);
-            progress.setFont(progress.getFont().deriveFont(36f));
-        }
-
-        final Semaphore sync = new Semaphore(nb);
-
-        int processed = 0;
-
-        for (T item : items) {
-            // wait for one of the spots to be available
-            sync.acquireUninterruptibly();
-
-            final T thisItem = item;
-            new Thread(() -> {
-                processOne.accept(thisItem);
-                sync.release();
-            }).start();
-
-            if (popup) {
-                processed++;
-                progress.setValue(processed);
-                progress.setString(progress.getValue() + "/" + progress.getMaximum());
+        } finally {
+            // close all streams even if one fails to close, so that all connection slots are released
+            for (InputStream stream : streams) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    if (closeException == null) closeException = e;
+                    else closeException.addSuppressed(e);
+                }
             }
+            if (closeException != null) throw closeException;
         }
-
-        // wait for everything to end
-        sync.acquireUninterruptibly(nb);
-
-        if (popup) jf.dispose();
     }
 }
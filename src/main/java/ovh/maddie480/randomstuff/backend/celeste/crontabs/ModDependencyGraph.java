@@ -0,0 +1,215 @@
+package ovh.maddie480.randomstuff.backend.celeste.crontabs;
+
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.everest.updatechecker.YamlUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the mod dependency graph produced by the update checker in memory, with the dependencies and reverse dependencies
+ * of each mod, along with its everest.yaml-like export format (see {@link #keyValueToEverestYamlFormat(Map)}).
+ * The update checker events tell which mods changed, so that only their entries get rebuilt when the graph is refreshed,
+ * and the file is only parsed again if it was modified since the last refresh.
+ */
+public class ModDependencyGraph {
+    private static final Logger log = LoggerFactory.getLogger(ModDependencyGraph.class);
+
+    private final Path source;
+
+    // mod ID => entry, in the format of the exported mod-dependency-graph.yaml
+    private final Map<String, Map<String, Object>> everestYamlFormatEntries = new LinkedHashMap<>();
+
+    // mod ID => dependency IDs, and dependency ID => IDs of the mods that depend on it
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+    private final Map<String, Set<String>> optionalDependencies = new HashMap<>();
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+    private final Map<String, Set<String>> optionalDependents = new HashMap<>();
+
+    private final Set<String> changedMods = new HashSet<>();
+    private boolean loaded = false;
+
+    // last modified date and size of the source when it was last parsed
+    private FileTime sourceLastModified;
+    private long sourceSize;
+
+    /**
+     * @param source The mod dependency graph written by the update checker
+     */
+    public ModDependencyGraph(Path source) {
+        this.source = source;
+    }
+
+    /**
+     * Marks a mod as updated or deleted, so that its entry gets read again on next {@link #refresh(boolean)}.
+     */
+    public synchronized void modChanged(String modId) {
+        changedMods.add(modId);
+    }
+
+    /**
+     * Applies the changes to the mod dependency graph since the last refresh.
+     *
+     * @param full Whether all entries should be rebuilt, instead of only the ones for mods that were marked as changed
+     */
+    public synchronized void refresh(boolean full) throws IOException {
+        BasicFileAttributes sourceAttributes = Files.readAttributes(source, BasicFileAttributes.class);
+        if (loaded && !full && sourceAttributes.lastModifiedTime().equals(sourceLastModified) && sourceAttributes.size() == sourceSize) {
+            // the changed mods (if any) are not in the file yet, they will be read once it is written
+            return;
+        }
+
+        Map<String, Map<String, Object>> dependencyGraph;
+        try (InputStream is = Files.newInputStream(source)) {
+            dependencyGraph = YamlUtil.load(is);
+        }
+
+        if (!loaded || full) {
+            everestYamlFormatEntries.clear();
+            dependencies.clear();
+            optionalDependencies.clear();
+            dependents.clear();
+            optionalDependents.clear();
+
+            for (Map.Entry<String, Map<String, Object>> entry : dependencyGraph.entrySet()) {
+                addEntry(entry.getKey(), entry.getValue());
+            }
+
+            log.debug("Loaded mod dependency graph with {} mods", everestYamlFormatEntries.size());
+        } else {
+            // mods that appeared or disappeared without us hearing about it should also be taken into account
+            changedMods.addAll(dependencyGraph.keySet().stream().filter(modId -> !everestYamlFormatEntries.containsKey(modId)).toList());
+            changedMods.addAll(everestYamlFormatEntries.keySet().stream().filter(modId -> !dependencyGraph.containsKey(modId)).toList());
+
+            for (String modId : changedMods) {
+                unlinkEntry(modId);
+                if (dependencyGraph.containsKey(modId)) {
+                    addEntry(modId, dependencyGraph.get(modId));
+                } else {
+                    everestYamlFormatEntries.remove(modId);
+                }
+            }
+
+            // rebuilt entries were put at the end: go back to the order of the source, so that the export is stable
+            Map<String, Map<String, Object>> reordered = new LinkedHashMap<>();
+            for (String modId : dependencyGraph.keySet()) {
+                reordered.put(modId, everestYamlFormatEntries.get(modId));
+            }
+            everestYamlFormatEntries.clear();
+            everestYamlFormatEntries.putAll(reordered);
+
+            log.debug("Refreshed mod dependency graph entries for {}", changedMods);
+        }
+
+        changedMods.clear();
+        loaded = true;
+        sourceLastModified = sourceAttributes.lastModifiedTime();
+        sourceSize = sourceAttributes.size();
+    }
+
+    /**
+     * Writes the mod dependency graph in an everest.yaml-like format to the given file.
+     */
+    public synchronized void export(Path target) throws IOException {
+        refresh(false);
+
+        try (OutputStream os = Files.newOutputStream(target)) {
+            YamlUtil.dump(everestYamlFormatEntries, os);
+        }
+    }
+
+    /**
+     * Returns the IDs of all mods the given mod depends on, directly or indirectly.
+     */
+    public synchronized Set<String> getTransitiveDependencies(String modId, boolean includeOptional) throws IOException {
+        refresh(false);
+        return walk(modId, includeOptional ? List.of(dependencies, optionalDependencies) : List.of(dependencies));
+    }
+
+    /**
+     * Returns the IDs of all mods that depend on the given mod, directly or indirectly.
+     */
+    public synchronized Set<String> getTransitiveDependents(String modId, boolean includeOptional) throws IOException {
+        refresh(false);
+        return walk(modId, includeOptional ? List.of(dependents, optionalDependents) : List.of(dependents));
+    }
+
+    private static Set<String> walk(String modId, List<Map<String, Set<String>>> edges) {
+        Set<String> result = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(modId);
+
+        while (!toVisit.isEmpty()) {
+            String current = toVisit.poll();
+            for (Map<String, Set<String>> edge : edges) {
+                for (String next : edge.getOrDefault(current, Collections.emptySet())) {
+                    if (!next.equals(modId) && result.add(next)) {
+                        toVisit.add(next);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void addEntry(String modId, Map<String, Object> entry) {
+        Map<String, Object> deps = (Map<String, Object>) entry.get("Dependencies");
+        Map<String, Object> optionalDeps = (Map<String, Object>) entry.get("OptionalDependencies");
+
+        link(modId, deps.keySet(), dependencies, dependents);
+        link(modId, optionalDeps.keySet(), optionalDependencies, optionalDependents);
+
+        Map<String, Object> converted = new LinkedHashMap<>(entry);
+        converted.put("Dependencies", keyValueToEverestYamlFormat(deps));
+        converted.put("OptionalDependencies", keyValueToEverestYamlFormat(optionalDeps));
+        everestYamlFormatEntries.put(modId, converted);
+    }
+
+    private void unlinkEntry(String modId) {
+        unlink(modId, dependencies, dependents);
+        unlink(modId, optionalDependencies, optionalDependents);
+    }
+
+    private static void link(String modId, Set<String> targets, Map<String, Set<String>> edges, Map<String, Set<String>> reverseEdges) {
+        edges.put(modId, new HashSet<>(targets));
+        for (String target : targets) {
+            reverseEdges.computeIfAbsent(target, k -> new HashSet<>()).add(modId);
+        }
+    }
+
+    private static void unlink(String modId, Map<String, Set<String>> edges, Map<String, Set<String>> reverseEdges) {
+        Set<String> targets = edges.remove(modId);
+        if (targets == null) return;
+
+        for (String target : targets) {
+            Set<String> reverse = reverseEdges.get(target);
+            reverse.remove(modId);
+            if (reverse.isEmpty()) reverseEdges.remove(target);
+        }
+    }
+
+    /**
+     * Converts a dictionary of
+     * DependencyName: DependencyVersion
+     * to a list of
+     * - Name: DependencyName
+     *   Version: DependencyVersion
+     */
+    private static List<Map<String, Object>> keyValueToEverestYamlFormat(Map<String, Object> keyValue) {
+        return keyValue.entrySet().stream()
+                .map(entry -> ImmutableMap.of(
+                        "Name", entry.getKey(),
+                        "Version", entry.getValue()))
+                .collect(Collectors.toList());
+    }
+}
@@ -52,6 +52,9 @@ import static ovh.maddie480.randomstuff.backend.celeste.crontabs.GameBananaAutom
 public class UpdateCheckerTracker extends EventListener {
     private static final Logger log = LoggerFactory.getLogger(UpdateCheckerTracker.class);
 
+    // trackers are created for each update, but the dependency graph should stay in memory between them
+    private static final ModDependencyGraph modDependencyGraph = new ModDependencyGraph(Paths.get("uploads/moddependencygraph.yaml"));
+
     private String everestUpdateSha256 = "[first check]";
     private String modSearchDatabaseSha256 = "[first check]";
     private String fileIdsSha256 = "[first check]";
@@ -148,6 +151,8 @@ public class UpdateCheckerTracker extends EventListener {
 
     @Override
     public void savedNewInformationToDatabase(Mod mod) {
+        modDependencyGraph.modChanged(mod.getName());
+
         for (String webhook : SecretConstants.UPDATE_CHECKER_HOOKS) {
             executeWebhookAsUpdateChecker(webhook, ":white_check_mark: **" + mod.getName() + "** was updated to version **" + mod.getVersion() + "** on <t:" + mod.getLastUpdate() + ">.\n" +
                     ":arrow_right: <https://gamebanana.com/" + mod.getGameBananaType().toLowerCase(Locale.ROOT) + "s/" + mod.getGameBananaId() + ">\n" +
@@ -194,6 +199,8 @@ public class UpdateCheckerTracker extends EventListener {
 
     @Override
     public void scannedModDependencies(String modId, int dependencyCount, int optionalDependencyCount) {
+        modDependencyGraph.modChanged(modId);
+
         executeWebhookAsUpdateChecker(SecretConstants.UPDATE_CHECKER_LOGS_HOOK, ":mag_right: **" + modId + "** has "
                 + pluralize(dependencyCount, "dependency", "dependencies") + " and "
                 + pluralize(optionalDependencyCount, "optional dependency", "optional dependencies") + ".");
@@ -285,6 +292,8 @@ public class UpdateCheckerTracker extends EventListener {
 
     @Override
     public void modWasDeletedFromDatabase(Mod mod) {
+        modDependencyGraph.modChanged(mod.getName());
+
         for (String webhook : SecretConstants.UPDATE_CHECKER_HOOKS) {
             executeWebhookAsUpdateChecker(webhook, ":x: **" + mod.getName() + "** was deleted from the database.");
         }
@@ -386,7 +395,9 @@ public class UpdateCheckerTracker extends EventListener {
                     YamlUtil.dump(yaml, os);
                 }
 
-                Files.writeString(Paths.get("/shared/celeste/updater/mod-dependency-graph.yaml"), convertModDependencyGraphToEverestYamlFormat(), UTF_8);
+                // full updates rebuild the whole graph, in case we missed a change
+                modDependencyGraph.refresh(currentUpdateIsFull);
+                modDependencyGraph.export(Paths.get("/shared/celeste/updater/mod-dependency-graph.yaml"));
 
                 HttpURLConnection conn = ConnectionUtils.openConnectionWithTimeout("https://maddie480.ovh/celeste/everest-update-reload?key="
                         + SecretConstants.RELOAD_SHARED_SECRET);
@@ -587,44 +598,6 @@ public class UpdateCheckerTracker extends EventListener {
         return string.split(" ");
     }
 
-    /**
-     * Converts mod_dependency_graph.yaml to an everest.yaml-like format (see {@link #keyValueToEverestYamlFormat(Map)}).
-     */
-    private static String convertModDependencyGraphToEverestYamlFormat() throws IOException {
-        // read
-        Map<String, Map<String, Object>> dependencyGraph;
-        try (InputStream is = new FileInputStream("uploads/moddependencygraph.yaml")) {
-            dependencyGraph = YamlUtil.load(is);
-        }
-
-        // convert
-        for (Map<String, Object> entry : dependencyGraph.values()) {
-            entry.put("Dependencies", keyValueToEverestYamlFormat((Map<String, Object>) entry.get("Dependencies")));
-            entry.put("OptionalDependencies", keyValueToEverestYamlFormat((Map<String, Object>) entry.get("OptionalDependencies")));
-        }
-
-        // write
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
-            YamlUtil.dump(dependencyGraph, os);
-            return os.toString(UTF_8);
-        }
-    }
-
-    /**
-     * Converts a dictionary of
-     * DependencyName: DependencyVersion
-     * to a list of
-     * - Name: DependencyName
-     *   Version: DependencyVersion
-     */
-    private static List<Map<String, Object>> keyValueToEverestYamlFormat(Map<String, Object> keyValue) {
-        return keyValue.entrySet().stream()
-                .map(entry -> ImmutableMap.of(
-                        "Name", entry.getKey(),
-                        "Version", entry.getValue()))
-                .collect(Collectors.toList());
-    }
-
     // Function<File, List<String>> is no good when we can throw IOException.
     private interface EntryReader {
         List<String> readEntriesFromFile(File file) throws IOException;
@@ -7,6 +7,9 @@ import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 import net.dv8tion.jda.api.requests.restaction.pagination.PinnedMessagePaginationAction;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
@@ -14,93 +17,138 @@ import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 import ovh.maddie480.randomstuff.backend.utils.DiscardableJDA;
 import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
+import java.net.HttpURLConnection;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class PlatformBackup {
     private static final Logger logger = LoggerFactory.getLogger(PlatformBackup.class);
 
+    // the pins and their attachments are kept between backups, so that attachments that didn't change are not downloaded again
+    private static final Path PINS_FOLDER = Paths.get("/tmp/backup-discord-pins");
+    private static final Path PINS_MANIFEST = Paths.get("/tmp/backup-discord-pins.json");
+    private static final int PARALLEL_DOWNLOADS = 4;
+
+    private record AttachmentDownload(String url, long id, int size, String fileName) {
+    }
+
     public static void run() throws IOException {
         try (DiscardableJDA client = new DiscardableJDA(SecretConstants.QUEST_COMMUNITY_BOT_TOKEN, GatewayIntent.MESSAGE_CONTENT)) {
             runMessageDump(client);
         }
 
+        // create a package with a backup of the platform and upload it to cloud storage at the same time
         try {
-            { // create a package with a backup of the platform
-                Process p = OutputStreamLogger.redirectAllOutput(logger,
-                        new ProcessBuilder("/app/static/backup-platform.sh").start());
-                p.waitFor();
-                if (p.exitValue() != 0) {
-                    throw new IOException("backup-platform.sh quit with exit code " + p.exitValue());
-                }
-            }
+            ConnectionUtils.runWithRetry(() -> {
+                uploadBackup(SecretConstants.NEXTCLOUD_UPLOAD_TARGET.replace("%d", LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE)));
+                return null;
+            });
+        } finally {
+            FileUtils.deleteDirectory(new File("/tmp/everest-versions"));
+        }
 
-            { // upload it to cloud storage
-                Process p = OutputStreamLogger.redirectAllOutput(logger,
-                        new ProcessBuilder("curl",
-                                "--fail",
-                                "-u", SecretConstants.NEXTCLOUD_LOGIN,
-                                "--header", "X-Requested-With: XMLHttpRequest",
-                                "-T", "/shared/temp/RandomStuffBackend.tar.gz",
-                                SecretConstants.NEXTCLOUD_UPLOAD_TARGET.replace("%d", LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE)),
-                                "-v").start());
-                p.waitFor();
-                if (p.exitValue() != 0) {
-                    throw new IOException("curl POST to nextcloud quit with exit code " + p.exitValue());
-                }
-            }
+        { // delete the file created 1 week ago
+            HttpURLConnection connection = openNextcloudConnection(
+                    SecretConstants.NEXTCLOUD_UPLOAD_TARGET.replace("%d", LocalDate.now().minusDays(7).format(DateTimeFormatter.ISO_LOCAL_DATE)));
+            connection.setRequestMethod("DELETE");
 
-            { // delete the file created 1 week ago
-                Process p = OutputStreamLogger.redirectAllOutput(logger,
-                        new ProcessBuilder("curl",
-                                "--fail",
-                                "-u", SecretConstants.NEXTCLOUD_LOGIN,
-                                "--header", "X-Requested-With: XMLHttpRequest",
-                                "-X", "DELETE",
-                                SecretConstants.NEXTCLOUD_UPLOAD_TARGET.replace("%d", LocalDate.now().minusDays(7).format(DateTimeFormatter.ISO_LOCAL_DATE)),
-                                "-v").start());
-                p.waitFor();
-                if (p.exitValue() != 0) {
-                    throw new IOException("curl DELETE to nextcloud quit with exit code " + p.exitValue());
-                }
+            if (connection.getResponseCode() / 100 != 2) {
+                throw new IOException("DELETE to nextcloud responded with HTTP code " + connection.getResponseCode());
             }
+        }
+    }
+
+    /**
+     * Runs tar and sends its output to Nextcloud as it comes, so that the archive is never written to disk.
+     */
+    private static void uploadBackup(String target) throws IOException {
+        long start = System.currentTimeMillis();
+
+        Process tar = OutputStreamLogger.redirectErrorOutput(logger,
+                new ProcessBuilder("tar", "czf", "-", "--exclude=/shared/temp",
+                        "/tmp/everest-versions", PINS_FOLDER.toString(), "/shared", "/backend").start());
+
+        HttpURLConnection connection = openNextcloudConnection(target);
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(1024 * 1024);
+        connection.setReadTimeout(300000);
 
-            // delete it
-            Files.delete(Paths.get("/shared/temp/RandomStuffBackend.tar.gz"));
+        long size;
+        try (InputStream archive = tar.getInputStream()) {
+            OutputStream upload = connection.getOutputStream();
+            size = IOUtils.copyLarge(archive, upload);
+
+            // only end the request if tar succeeded, so that Nextcloud never keeps an incomplete archive
+            if (tar.waitFor() != 0) {
+                connection.disconnect();
+                throw new IOException("tar quit with exit code " + tar.exitValue());
+            }
+            upload.close();
         } catch (InterruptedException e) {
+            connection.disconnect();
             throw new IOException(e);
+        } finally {
+            tar.destroy();
+        }
+
+        if (connection.getResponseCode() / 100 != 2) {
+            throw new IOException("PUT to nextcloud responded with HTTP code " + connection.getResponseCode());
         }
+
+        logger.info("Uploaded backup of {} bytes to Nextcloud in {} ms", size, System.currentTimeMillis() - start);
+    }
+
+    private static HttpURLConnection openNextcloudConnection(String url) throws IOException {
+        HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout(url);
+        connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(SecretConstants.NEXTCLOUD_LOGIN.getBytes(UTF_8)));
+        connection.setRequestProperty("X-Requested-With", "XMLHttpRequest");
+        return connection;
     }
 
     private static void runMessageDump(JDA client) throws IOException {
-        Files.createDirectories(Paths.get("/tmp/backup-discord-pins"));
+        Files.createDirectories(PINS_FOLDER);
+
+        List<AttachmentDownload> attachments = new ArrayList<>();
+        dumpMessagesFrom(client, 791795741919674388L, attachments);
+        dumpMessagesFrom(client, 551822297573490749L, attachments);
+        dumpMessagesFrom(client, 445236692136230943L, attachments);
+        dumpMessagesFrom(client, 445631337315958796L, attachments);
 
-        dumpMessagesFrom(client, 791795741919674388L);
-        dumpMessagesFrom(client, 551822297573490749L);
-        dumpMessagesFrom(client, 445236692136230943L);
-        dumpMessagesFrom(client, 445631337315958796L);
+        downloadAttachments(attachments);
     }
 
-    private static void dumpMessagesFrom(JDA client, Long channelId) throws IOException {
+    private static void dumpMessagesFrom(JDA client, Long channelId, List<AttachmentDownload> attachments) throws IOException {
         TextChannel channel = client.getTextChannelById(channelId);
         logger.debug("Dump des pins de {}", channel);
 
         List<PinnedMessagePaginationAction.PinnedMessage> pinnedMessages = channel.retrievePinnedMessages().stream().toList();
         logger.debug("{} messages récupérés", pinnedMessages.size());
 
-        if (pinnedMessages.isEmpty()) return;
+        Path dumpFile = PINS_FOLDER.resolve("dump_" + channel.getName() + ".txt");
+        if (pinnedMessages.isEmpty()) {
+            Files.deleteIfExists(dumpFile);
+            return;
+        }
 
         OffsetDateTime date = pinnedMessages.getFirst().getMessage().getTimeCreated();
 
-        try (PrintWriter printWriter = new PrintWriter("/tmp/backup-discord-pins/dump_" + channel.getName() + ".txt")) {
+        try (PrintWriter printWriter = new PrintWriter(dumpFile.toFile())) {
             for (PinnedMessagePaginationAction.PinnedMessage pinnedMessage : pinnedMessages) {
                 Message message = pinnedMessage.getMessage();
                 logger.debug("Current message: {} from {} at {}", message.getContentDisplay(),
@@ -120,10 +168,10 @@ public class PlatformBackup {
                     for (Message.Attachment attachment : message.getAttachments()) {
                         String originalFileName = attachment.getFileName();
 
-                        String newFileName = date.format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + "_" + channel.getName() + "_" + originalFileName;
-
-                        File dest = new File("/tmp/backup-discord-pins/" + newFileName);
-                        FileUtils.copyToFile(ConnectionUtils.openStreamWithTimeout(attachment.getUrl()), dest);
+                        // the attachment ID keeps names unique, since attachments are downloaded in parallel
+                        String newFileName = date.format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + "_" + channel.getName()
+                                + "_" + attachment.getId() + "_" + originalFileName;
+                        attachments.add(new AttachmentDownload(attachment.getUrl(), attachment.getIdLong(), attachment.getSize(), newFileName));
 
                         printWriter.println("[Pièce jointe : " + newFileName + "]");
                     }
@@ -134,6 +182,111 @@ public class PlatformBackup {
         }
     }
 
+    /**
+     * Downloads the attachments in parallel, skipping the ones that are already in the pins folder
+     * with the hash they had when they were downloaded. Files from messages that are not pinned anymore are deleted.
+     */
+    private static void downloadAttachments(List<AttachmentDownload> attachments) throws IOException {
+        JSONObject previousManifest = new JSONObject();
+        if (Files.exists(PINS_MANIFEST)) {
+            try (InputStream is = Files.newInputStream(PINS_MANIFEST)) {
+                previousManifest = new JSONObject(new JSONTokener(is));
+            }
+        }
+
+        Map<String, JSONObject> manifest = new ConcurrentHashMap<>();
+        int skipped = 0;
+        List<Future<?>> downloads = new ArrayList<>();
+        Semaphore slots = new Semaphore(PARALLEL_DOWNLOADS);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (AttachmentDownload attachment : attachments) {
+                JSONObject previous = previousManifest.optJSONObject(attachment.fileName());
+                Path target = PINS_FOLDER.resolve(attachment.fileName());
+
+                if (previous != null && previous.getLong("id") == attachment.id() && previous.getInt("size") == attachment.size()
+                        && Files.exists(target) && previous.getString("sha256").equals(hash(target))) {
+
+                    manifest.put(attachment.fileName(), previous);
+                    skipped++;
+                    continue;
+                }
+
+                downloads.add(executor.submit(() -> {
+                    slots.acquire();
+                    try {
+                        String sha256 = download(attachment.url(), target);
+                        manifest.put(attachment.fileName(), new JSONObject()
+                                .put("id", attachment.id())
+                                .put("size", attachment.size())
+                                .put("sha256", sha256));
+                    } finally {
+                        slots.release();
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> download : downloads) {
+                download.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not download attachment", e.getCause());
+        } finally {
+            // keep track of what was downloaded, even if something failed
+            Path tempFile = PINS_MANIFEST.resolveSibling(PINS_MANIFEST.getFileName() + ".tmp");
+            Files.writeString(tempFile, new JSONObject(manifest).toString(), UTF_8);
+            Files.move(tempFile, PINS_MANIFEST, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        logger.debug("Downloaded {} attachments, {} were unchanged", downloads.size(), skipped);
+
+        Set<String> expectedFiles = new HashSet<>(manifest.keySet());
+        try (Stream<Path> files = Files.list(PINS_FOLDER)) {
+            for (Path file : files.toList()) {
+                String fileName = file.getFileName().toString();
+                if (!fileName.startsWith("dump_") && !expectedFiles.contains(fileName)) {
+                    logger.debug("Deleting attachment that is not pinned anymore: {}", fileName);
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the file through a temporary file, and returns its SHA-256 hash.
+     */
+    private static String download(String url, Path target) throws IOException {
+        MessageDigest digest = sha256();
+        Path tempFile = target.resolveSibling(target.getFileName() + ".part");
+
+        try (InputStream is = new DigestInputStream(ConnectionUtils.openStreamWithTimeout(url), digest)) {
+            Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+            IOUtils.consume(is);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always supported
+            throw new RuntimeException(e);
+        }
+    }
+
     private static void dumpMessage(PrintWriter printWriter, Message msg) {
         printWriter.println("[" + msg.getTimeCreated().format(DateTimeFormatter.ofPattern("d MMMM yyyy, HH:mm:ss")) + "]\n" +
                 "<" + getUsernameTransitionAware(msg.getAuthor()) + "> " + msg.getContentDisplay());
@@ -2,126 +2,269 @@ package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.gamestats;
 
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.MessageEmbed;
+import org.apache.commons.lang3.StringUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.leveling.DistanceEdition;
 
-import java.io.FileInputStream;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
 
 public class GameDB {
     private static final Logger log = LoggerFactory.getLogger(GameDB.class);
 
+    private static final Path GAME_DB_PATH = Paths.get("/app/static/games.json");
+
+    // nombre de candidats (ceux qui ont le plus de trigrammes en commun) dont on calcule la distance d'édition
+    private static final int SUGGESTION_CANDIDATES = 50;
+
+    /**
+     * La base de jeux chargée en mémoire, avec des index sur les noms et alias.
+     */
+    private static class Catalog {
+        final long modifiedAt;
+        final List<JSONObject> games = new ArrayList<>();
+        final MessageEmbed[] embeds;
+
+        // nom ou alias -> indices des jeux
+        final Map<String, List<Integer>> byName = new HashMap<>();
+        final Map<String, List<Integer>> byFoldedName = new HashMap<>();
+
+        // noms et alias normalisés, le jeu auquel ils correspondent, et leurs trigrammes
+        final List<String> entries = new ArrayList<>();
+        final List<Integer> entryGames = new ArrayList<>();
+        final List<Integer> entryTrigramCounts = new ArrayList<>();
+        final Map<String, List<Integer>> byTrigram = new HashMap<>();
+
+        Catalog(JSONArray gameDB, long modifiedAt) {
+            this.modifiedAt = modifiedAt;
+
+            for (Object object : gameDB) {
+                JSONObject game = (JSONObject) object;
+                int index = games.size();
+                games.add(game);
+
+                index(game.getString("name"), index);
+                if (game.has("aliases")) {
+                    for (Object alias : game.getJSONArray("aliases")) {
+                        index(alias.toString(), index);
+                    }
+                }
+            }
+
+            embeds = new MessageEmbed[games.size()];
+        }
+
+        private void index(String name, int game) {
+            addToIndex(byName, name, game);
+            addToIndex(byFoldedName, fold(name), game);
+
+            String normalized = normalize(name);
+            Set<String> trigrams = trigrams(normalized);
+            int entry = entries.size();
+            entries.add(normalized);
+            entryGames.add(game);
+            entryTrigramCounts.add(trigrams.size());
+            for (String trigram : trigrams) {
+                byTrigram.computeIfAbsent(trigram, k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        private static void addToIndex(Map<String, List<Integer>> index, String key, int game) {
+            List<Integer> games = index.computeIfAbsent(key, k -> new ArrayList<>(1));
+            if (!games.contains(game)) games.add(game);
+        }
+    }
+
+    private static Catalog catalog;
+
+    private static synchronized Catalog getCatalog() throws Exception {
+        long modifiedAt = Files.getLastModifiedTime(GAME_DB_PATH).toMillis();
+        if (catalog == null || catalog.modifiedAt != modifiedAt) {
+            log.debug("Reloading game DB");
+            long start = System.currentTimeMillis();
+            try (InputStream is = Files.newInputStream(GAME_DB_PATH)) {
+                catalog = new Catalog(new JSONArray(new JSONTokener(is)), modifiedAt);
+            }
+            log.info("Game DB loaded in {} ms: {} games, {} names and aliases, {} trigrams",
+                    System.currentTimeMillis() - start, catalog.games.size(), catalog.entries.size(), catalog.byTrigram.size());
+        }
+        return catalog;
+    }
+
     public static MessageEmbed findGame(String name) {
         return findGame(name, false);
     }
 
     public static MessageEmbed findGame(String name, boolean ignoreCase) {
-        JSONArray gameDB;
-        try (InputStream is = new FileInputStream("/app/static/games.json")) {
-            log.debug("Reloading game DB");
-            gameDB = new JSONArray(new JSONTokener(is));
+        Catalog catalog;
+        try {
+            catalog = getCatalog();
         } catch (Exception e) {
             log.error("Impossible de lire la base de données de jeux", e);
             return null;
         }
 
+        List<Integer> matches = ignoreCase ? catalog.byFoldedName.get(fold(name)) : catalog.byName.get(name);
+        if (matches == null) {
+            log.debug("Je renvoie null");
+            return null;
+        }
+        if (matches.size() > 1) {
+            log.warn("Il y a plusieurs jeux qui correspondent => abandon");
+            return null;
+        }
+
+        int index = matches.getFirst();
         try {
-            JSONObject result = null;
-            for (Object object : gameDB) {
-                JSONObject game = (JSONObject) object;
+            MessageEmbed embed = catalog.embeds[index];
+            if (embed == null) {
+                embed = buildEmbed(catalog.games.get(index));
+                catalog.embeds[index] = embed;
+            }
 
-                boolean matches = false;
-                if (ignoreCase) {
-                    if (game.getString("name").equalsIgnoreCase(name)) {
-                        matches = true;
-                    } else if ((game.has("aliases"))) {
-                        for (Object alias : game.getJSONArray("aliases")) {
-                            if (name.equalsIgnoreCase(alias.toString())) {
-                                matches = true;
-                            }
-                        }
-                    }
-                } else {
-                    if (game.getString("name").equals(name)) {
-                        matches = true;
-                    } else if ((game.has("aliases"))) {
-                        for (Object alias : game.getJSONArray("aliases")) {
-                            if (name.equals(alias)) {
-                                matches = true;
-                                break;
-                            }
-                        }
-                    }
-                }
+            log.debug("Je renvoie quelque chose");
+            return embed;
+        } catch (Exception e) {
+            log.error("Impossible de lire la base de données de jeux", e);
+            return null;
+        }
+    }
 
-                if (matches) {
-                    if (result != null) {
-                        log.warn("Il y a plusieurs jeux qui correspondent => abandon");
-                        return null;
-                    } else {
-                        result = game;
-                    }
-                }
+    /**
+     * Cherche les jeux dont le nom ou un alias ressemble au nom donné, du plus proche au plus éloigné.
+     *
+     * @param withImageOnly ne renvoyer que les jeux qui ont une image (utilisable comme arrière-plan)
+     */
+    public static List<String> suggestGames(String name, int count, boolean withImageOnly) {
+        Catalog catalog;
+        try {
+            catalog = getCatalog();
+        } catch (Exception e) {
+            log.error("Impossible de lire la base de données de jeux", e);
+            return Collections.emptyList();
+        }
+
+        String normalized = normalize(name);
+        Set<String> trigrams = trigrams(normalized);
+
+        // compter les trigrammes en commun avec chaque nom, uniquement pour les noms qui en ont au moins un
+        Map<Integer, Integer> sharedTrigrams = new HashMap<>();
+        for (String trigram : trigrams) {
+            for (int entry : catalog.byTrigram.getOrDefault(trigram, Collections.emptyList())) {
+                sharedTrigrams.merge(entry, 1, Integer::sum);
             }
+        }
 
-            if (result != null) {
-                EmbedBuilder builder = new EmbedBuilder()
-                        .setTitle(result.getString("name"));
+        // coefficient de Dice, pour ne pas favoriser les noms très longs
+        List<Integer> candidates = sharedTrigrams.entrySet().stream()
+                .sorted(Comparator.comparingDouble(e -> -2.0 * e.getValue() / (trigrams.size() + catalog.entryTrigramCounts.get(e.getKey()))))
+                .limit(SUGGESTION_CANDIDATES)
+                .map(Map.Entry::getKey)
+                .toList();
 
-                if (result.has("description")) {
-                    builder.setDescription(result.getString("description"));
-                }
+        Map<Integer, Integer> distances = new HashMap<>();
+        for (int entry : candidates) {
+            distances.put(entry, DistanceEdition.computeDistance(normalized, catalog.entries.get(entry)));
+        }
 
-                if (result.has("icon") && result.has("id")) {
-                    builder.setThumbnail("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
-                            + result.getString("icon") + ".webp");
-                }
+        int maxDistance = Math.max(3, normalized.length() / 3);
+        List<String> result = new ArrayList<>();
+        Set<Integer> seenGames = new HashSet<>();
 
-                if (result.has("splash") && result.has("id")) {
-                    builder.setImage("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
-                            + result.getString("splash") + ".webp?size=512");
-                }
+        for (int entry : candidates.stream().sorted(Comparator.comparingInt(distances::get)).toList()) {
+            int game = catalog.entryGames.get(entry);
+            JSONObject gameObject = catalog.games.get(game);
 
-                if (result.has("developers") && !result.getJSONArray("developers").isEmpty()) {
-                    List<String> devs = new ArrayList<>();
-                    for (Object dev : result.getJSONArray("developers")) {
-                        devs.add(((JSONObject) dev).getString("name"));
-                    }
-                    builder.addField("Développé par", String.join(", ", devs), false);
-                }
+            if (distances.get(entry) > maxDistance) break;
+            if (!seenGames.add(game)) continue;
+            if (withImageOnly && !(gameObject.has("splash") && gameObject.has("id"))) continue;
 
-                if (result.has("publishers") && !result.getJSONArray("publishers").isEmpty()) {
-                    List<String> devs = new ArrayList<>();
-                    for (Object dev : result.getJSONArray("publishers")) {
-                        devs.add(((JSONObject) dev).getString("name"));
-                    }
-                    builder.addField("Publié par", String.join(", ", devs), false);
-                }
+            result.add(gameObject.getString("name"));
+            if (result.size() == count) break;
+        }
 
-                if (result.has("third_party_skus")) {
-                    for (Object vendor : result.getJSONArray("third_party_skus")) {
-                        JSONObject vendorObj = (JSONObject) vendor;
-                        if (vendorObj.get("distributor").equals("steam")) {
-                            builder.addField("Steam", "https://store.steampowered.com/app/" + vendorObj.getString("id") + "/", false);
-                        }
-                    }
-                }
+        log.debug("Suggestions pour {} : {}", name, result);
+        return result;
+    }
 
-                builder.setFooter("Base de données Discord", null);
+    private static MessageEmbed buildEmbed(JSONObject result) {
+        EmbedBuilder builder = new EmbedBuilder()
+                .setTitle(result.getString("name"));
 
-                log.debug("Je renvoie quelque chose");
-                return builder.build();
+        if (result.has("description")) {
+            builder.setDescription(result.getString("description"));
+        }
+
+        if (result.has("icon") && result.has("id")) {
+            builder.setThumbnail("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
+                    + result.getString("icon") + ".webp");
+        }
+
+        if (result.has("splash") && result.has("id")) {
+            builder.setImage("https://cdn.discordapp.com/app-icons/" + result.getString("id") + "/"
+                    + result.getString("splash") + ".webp?size=512");
+        }
+
+        if (result.has("developers") && !result.getJSONArray("developers").isEmpty()) {
+            List<String> devs = new ArrayList<>();
+            for (Object dev : result.getJSONArray("developers")) {
+                devs.add(((JSONObject) dev).getString("name"));
+            }
+            builder.addField("Développé par", String.join(", ", devs), false);
+        }
+
+        if (result.has("publishers") && !result.getJSONArray("publishers").isEmpty()) {
+            List<String> devs = new ArrayList<>();
+            for (Object dev : result.getJSONArray("publishers")) {
+                devs.add(((JSONObject) dev).getString("name"));
+            }
+            builder.addField("Publié par", String.join(", ", devs), false);
+        }
+
+        if (result.has("third_party_skus")) {
+            for (Object vendor : result.getJSONArray("third_party_skus")) {
+                JSONObject vendorObj = (JSONObject) vendor;
+                if (vendorObj.get("distributor").equals("steam")) {
+                    builder.addField("Steam", "https://store.steampowered.com/app/" + vendorObj.getString("id") + "/", false);
+                }
             }
-        } catch (Exception e) {
-            log.error("Impossible de lire la base de données de jeux", e);
         }
 
-        log.debug("Je renvoie null");
-        return null;
+        builder.setFooter("Base de données Discord", null);
+        return builder.build();
+    }
+
+    /**
+     * Met le nom sous une forme telle que deux noms égaux avec {@link String#equalsIgnoreCase(String)} donnent le même résultat.
+     */
+    private static String fold(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Même normalisation que {@link DistanceEdition#computeDistance(String, String)}.
+     */
+    private static String normalize(String name) {
+        return StringUtils.stripAccents(name.toLowerCase());
+    }
+
+    private static Set<String> trigrams(String normalized) {
+        String padded = " " + normalized + " ";
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
     }
 }
@@ -3,21 +3,31 @@ package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.gamestats;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.*;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import net.dv8tion.jda.api.events.session.SessionRecreateEvent;
+import net.dv8tion.jda.api.events.user.UserActivityEndEvent;
+import net.dv8tion.jda.api.events.user.UserActivityStartEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.LongHashSet;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.time.DayOfWeek;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class GamestatsManager {
+public class GamestatsManager extends ListenerAdapter {
     private static final Logger log = LoggerFactory.getLogger(GamestatsManager.class);
 
-    private final Set<String> enabledList = new HashSet<>();
+    private final LongHashSet enabledList = new LongHashSet();
+
+    // id du joueur -> jeux auxquels il joue en ce moment, uniquement pour les joueurs ayant activé les gamestats
+    private final Map<Long, Set<String>> activeSessions = new HashMap<>();
+    private long guildId;
 
     static final int DAILY = 0;
     static final int MONTHLY = 1;
@@ -25,8 +35,7 @@ public class GamestatsManager {
     static final int STEAM = 3;
     static final int WEEKLY = 4;
 
-    // catégorie -> nom du jeu -> id du joueur -> temps de jeu
-    private ArrayList<HashMap<String, HashMap<Long, Integer>>> gamestats = new ArrayList<>();
+    private GamestatsStore gamestats;
 
     private SteamCommand steamCommand;
 
@@ -37,6 +46,10 @@ public class GamestatsManager {
     public void run(Guild guild) throws IOException {
         loadFile(guild);
 
+        guildId = guild.getIdLong();
+        guild.getJDA().addEventListener(this);
+        resyncSessions(guild);
+
         new Thread("Gamestats Manager") {
             @Override
             public void run() {
@@ -56,10 +69,15 @@ public class GamestatsManager {
                                 if (ZonedDateTime.now().getDayOfMonth() == 1) {
                                     wipeStats(MONTHLY);
                                 }
+
+                                gamestats.snapshot();
                             }
                         }
 
                         if (ZonedDateTime.now().getMinute() == 0) {
+                            // au cas où on aurait raté des événements de présence
+                            resyncSessions(guild);
+
                             steamCommand.refreshSteamStats(guild.getJDA());
                         }
                     } catch (Exception e) {
@@ -79,102 +97,130 @@ public class GamestatsManager {
 
     private void loadFile(Guild guild) throws IOException {
         // charger
-        try (ObjectInputStream input = new ObjectInputStream(new FileInputStream("gamestats.ser"))) {
-            gamestats = (ArrayList<HashMap<String, HashMap<Long, Integer>>>) input.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new IOException(e);
-        }
+        gamestats = new GamestatsStore(Paths.get("gamestats.bin"), Paths.get("gamestats.ser"));
+        gamestats.snapshot();
 
         try (BufferedReader br = new BufferedReader(new FileReader("played_command_users.txt"))) {
             String s;
             while ((s = br.readLine()) != null) {
-                enabledList.add(s);
+                enabledList.add(Long.parseLong(s));
             }
         }
 
         // vérifier que les utilisateurs sont toujours sur le serveur
-        for (String discordId : new ArrayList<>(enabledList)) {
+        for (long discordId : enabledList.toArray()) {
             Member member = guild.getMemberById(discordId);
             if (member != null) {
                 log.debug("Utilisateurs de !gamestats : l'utilisateur {} existe", member);
             } else {
                 log.warn("Utilisateurs de !gamestats : l'utilisateur {} n'existe plus !", discordId);
                 enabledList.remove(discordId);
-
-                try (BufferedWriter bw = new BufferedWriter(new FileWriter("played_command_users.txt"))) {
-                    for (String bl : enabledList) {
-                        bw.write(bl + "\n");
-                    }
-                }
+                saveEnabledList();
             }
         }
     }
 
-    private void updateStats(Guild guild) {
-        if (guild.getJDA().getStatus() != JDA.Status.CONNECTED) {
-            log.warn("Je ne collecte pas les gamestats parce que le bot n'est pas connecté. (statut = {})", guild.getJDA().getStatus());
-            return;
+    private void saveEnabledList() throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter("played_command_users.txt"))) {
+            for (long bl : enabledList.toArray()) {
+                bw.write(bl + "\n");
+            }
         }
+    }
 
-        guild.getMembers().forEach(this::countStatsForMember);
+    @Override
+    public void onUserActivityStart(@NotNull UserActivityStartEvent event) {
+        if (event.getGuild().getIdLong() == guildId && event.getNewActivity().getType() == Activity.ActivityType.PLAYING) {
+            synchronized (this) {
+                if (enabledList.contains(event.getUser().getIdLong()) && !event.getUser().isBot()) {
+                    log.debug("{} a commencé à jouer à {}", event.getUser(), event.getNewActivity().getName());
+                    activeSessions.computeIfAbsent(event.getUser().getIdLong(), k -> new HashSet<>()).add(event.getNewActivity().getName());
+                }
+            }
+        }
+    }
 
-        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(new FileOutputStream("gamestats.ser"))) {
-            objectOutputStream.writeObject(gamestats);
-        } catch (IOException e) {
-            log.error("Impossible d'enregistrer les gamestats", e);
+    @Override
+    public void onUserActivityEnd(@NotNull UserActivityEndEvent event) {
+        if (event.getGuild().getIdLong() == guildId && event.getOldActivity().getType() == Activity.ActivityType.PLAYING) {
+            // une mise à jour d'activité (rich presence) envoie Start puis End avec le même nom de jeu :
+            // on recalcule donc les jeux en cours à partir des activités actuelles du membre
+            synchronized (this) {
+                activeSessions.remove(event.getUser().getIdLong());
+                addSessionsOf(event.getMember());
+                log.debug("{} a arrêté l'activité {}, jeux en cours : {}", event.getUser(), event.getOldActivity().getName(),
+                        activeSessions.getOrDefault(event.getUser().getIdLong(), Collections.emptySet()));
+            }
         }
     }
 
-    private void countStatsForMember(net.dv8tion.jda.api.entities.Member member) {
-        if (!member.getUser().isBot()) {
-            for (Activity game : member.getActivities()) {
-                if (game.getType() == Activity.ActivityType.PLAYING) {
-                    String playedGame = game.getName();
-                    long userId = member.getUser().getIdLong();
+    @Override
+    public void onSessionRecreate(@NotNull SessionRecreateEvent event) {
+        // les événements reçus pendant la déconnexion sont perdus
+        Guild guild = event.getJDA().getGuildById(guildId);
+        if (guild != null) resyncSessions(guild);
+    }
 
-                    if (!enabledList.contains(Long.toString(userId))) {
-                        continue;
-                    }
+    /**
+     * Reconstruit les sessions de jeu en cours à partir des présences de tous les membres du serveur.
+     */
+    private synchronized void resyncSessions(Guild guild) {
+        activeSessions.clear();
+        for (Member member : guild.getMembers()) {
+            addSessionsOf(member);
+        }
+        log.debug("{} joueurs en train de jouer", activeSessions.size());
+    }
 
-                    for (int i = 0; i < 5; i++) {
-                        if (i == STEAM) i++;
+    private void addSessionsOf(Member member) {
+        if (member.getUser().isBot() || !enabledList.contains(member.getIdLong())) {
+            return;
+        }
 
-                        if (!gamestats.get(i).containsKey(playedGame)) {
-                            log.debug("C'est la première fois que quelqu'un joue à {} dans le type {}", playedGame, i);
+        for (Activity game : member.getActivities()) {
+            if (game.getType() == Activity.ActivityType.PLAYING) {
+                activeSessions.computeIfAbsent(member.getIdLong(), k -> new HashSet<>()).add(game.getName());
+            }
+        }
+    }
 
-                            HashMap<Long, Integer> playTime = new HashMap<>();
-                            playTime.put(userId, 1);
+    private void updateStats(Guild guild) {
+        if (guild.getJDA().getStatus() != JDA.Status.CONNECTED) {
+            log.warn("Je ne collecte pas les gamestats parce que le bot n'est pas connecté. (statut = {})", guild.getJDA().getStatus());
+            return;
+        }
 
-                            gamestats.get(i).put(playedGame, playTime);
-                        } else {
-                            int playTime = gamestats.get(i).get(playedGame).getOrDefault(userId, 0);
-                            gamestats.get(i).get(playedGame).put(userId, playTime + 1);
-                        }
-                    }
+        synchronized (this) {
+            activeSessions.forEach((userId, games) -> {
+                for (String game : games) {
+                    gamestats.addMinute(userId, game);
                 }
-            }
+            });
+        }
+
+        // seules les minutes ajoutées sont écrites sur le disque
+        try {
+            gamestats.flush();
+        } catch (IOException e) {
+            log.error("Impossible d'enregistrer les gamestats", e);
         }
     }
 
-    void putSteamGamestats(HashMap<String, HashMap<Long, Integer>> steamGamestats) {
-        gamestats.set(STEAM, steamGamestats);
+    void putSteamGamestats(long userId, Map<String, Integer> games) {
+        gamestats.replaceUser(STEAM, userId, games);
     }
 
-    private static class Game implements Comparable<Game> {
-        String gameName;
-        int playTime;
-        int playerCount;
+    void removeSteamGamestats(long userId) {
+        gamestats.removeUser(STEAM, userId);
+    }
 
-        @Override
-        public int compareTo(@NotNull GamestatsManager.Game o) {
-            return o.playTime - playTime;
-        }
+    Set<Long> getSteamUsers() {
+        return gamestats.getUsers(STEAM);
     }
 
     String postStats(int type) {
         log.debug("Récupération du top 10 du type {}", type);
-        String sorted = getGamesSortedByPlayTime(type).stream()
-                .limit(10)
+        String sorted = gamestats.getTopGames(type, 10, false).stream()
                 .map(this::gameToStatString)
                 .collect(Collectors.joining("\n"));
 
@@ -188,11 +234,7 @@ public class GamestatsManager {
 
     String postReverseStats(int type) {
         log.debug("Récupération du flop 10 de type {}", type);
-        List<Game> games = getGamesSortedByPlayTime(type);
-        Collections.reverse(games);
-
-        String sorted = games.stream()
-                .limit(10)
+        String sorted = gamestats.getTopGames(type, 10, true).stream()
                 .map(this::gameToStatString)
                 .collect(Collectors.joining("\n"));
 
@@ -204,29 +246,15 @@ public class GamestatsManager {
     }
 
     @NotNull
-    private List<Game> getGamesSortedByPlayTime(int type) {
-        return gamestats.get(type).entrySet().stream()
-                .map(entry -> {
-                    Game game = new Game();
-                    game.gameName = entry.getKey();
-                    game.playTime = entry.getValue().values().stream().mapToInt(i -> i).sum();
-                    game.playerCount = entry.getValue().size();
-                    return game;
-                })
-                .sorted()
-                .collect(Collectors.toList());
-    }
-
-    @NotNull
-    private String gameToStatString(Game game) {
-        return "- **" + game.gameName + "** : " + formatTime(game.playTime)
-                + " avec " + game.playerCount + (game.playerCount == 1 ? " joueur" : " joueurs");
+    private String gameToStatString(GamestatsStore.GameTime game) {
+        return "- **" + game.gameName() + "** : " + formatTime(game.playTime())
+                + " avec " + game.playerCount() + (game.playerCount() == 1 ? " joueur" : " joueurs");
     }
 
     String getStatsForGame(String game, MessageChannel channel) {
         // essayer de trouver la bonne casse
-        Set<String> gameSet = new HashSet<>(gamestats.get(ALLTIME).keySet());
-        gameSet.addAll(gamestats.get(STEAM).keySet());
+        Set<String> gameSet = gamestats.getGameNames(ALLTIME);
+        gameSet.addAll(gamestats.getGameNames(STEAM));
 
         if (!gameSet.contains(game)) {
             String gameNameToCorrect = game;
@@ -246,19 +274,19 @@ public class GamestatsManager {
         } else {
             StringBuilder builder = new StringBuilder("Temps de jeu pour **" + game + "** : ");
 
-            if (gamestats.get(DAILY).containsKey(game)) {
+            if (gamestats.hasGame(DAILY, game)) {
                 appendStatsForType(channel.getJDA(), game, builder, DAILY, "aujourd'hui");
             }
-            if (gamestats.get(WEEKLY).containsKey(game)) {
+            if (gamestats.hasGame(WEEKLY, game)) {
                 appendStatsForType(channel.getJDA(), game, builder, WEEKLY, "cette semaine");
             }
-            if (gamestats.get(MONTHLY).containsKey(game)) {
+            if (gamestats.hasGame(MONTHLY, game)) {
                 appendStatsForType(channel.getJDA(), game, builder, MONTHLY, "ce mois-ci");
             }
-            if (gamestats.get(ALLTIME).containsKey(game)) {
+            if (gamestats.hasGame(ALLTIME, game)) {
                 appendStatsForType(channel.getJDA(), game, builder, ALLTIME, "depuis le 18/12/2018");
             }
-            if (gamestats.get(STEAM).containsKey(game)) {
+            if (gamestats.hasGame(STEAM, game)) {
                 appendStatsForType(channel.getJDA(), game, builder, STEAM, "sur Steam");
             }
 
@@ -278,7 +306,12 @@ public class GamestatsManager {
     }
 
     String getUserStats(User user, int type, boolean isSelfUser) {
-        if (!enabledList.contains(user.getId())) {
+        boolean enabled;
+        synchronized (this) {
+            enabled = enabledList.contains(user.getIdLong());
+        }
+
+        if (!enabled) {
             if (!isSelfUser) {
                 return user.getName() + " n'a pas activé les gamestats.";
             } else {
@@ -286,12 +319,9 @@ public class GamestatsManager {
             }
         }
 
-        String gameList = gamestats.get(type).entrySet().stream()
-                .filter(entry -> entry.getValue().containsKey(user.getIdLong()))
-                .map(entry -> gamestatsEntryToGame(user, entry))
-                .sorted()
+        String gameList = gamestats.getGamesOfUser(type, user.getIdLong()).stream()
                 .limit(10)
-                .map(game -> "- **" + game.gameName + "** : " + formatTime(game.playTime))
+                .map(game -> "- **" + game.gameName() + "** : " + formatTime(game.playTime()))
                 .collect(Collectors.joining("\n"));
 
         if (gameList.isEmpty()) {
@@ -324,63 +354,45 @@ public class GamestatsManager {
     }
 
     public Map<String, String> getUserStatsForProfile(User user) {
-        List<Game> gameList = gamestats.get(ALLTIME).entrySet().stream()
-                .filter(entry -> entry.getValue().containsKey(user.getIdLong()))
-                .map(entry -> gamestatsEntryToGame(user, entry))
-                .sorted()
-                .collect(Collectors.toList());
-
-        List<Game> steamGameList = gamestats.get(STEAM).entrySet().stream()
-                .filter(entry -> entry.getValue().containsKey(user.getIdLong()))
-                .map(entry -> gamestatsEntryToGame(user, entry))
-                .sorted()
-                .collect(Collectors.toList());
+        List<GamestatsStore.GameTime> gameList = gamestats.getGamesOfUser(ALLTIME, user.getIdLong());
+        List<GamestatsStore.GameTime> steamGameList = gamestats.getGamesOfUser(STEAM, user.getIdLong());
 
         log.debug("Jeux Discord = {}", gameList);
         log.debug("Jeux Steam = {}", steamGameList);
 
-        for (Game steamGame : steamGameList) {
-            Game discordGame = gameList.stream().filter(game -> game.gameName.equals(steamGame.gameName)).findFirst().orElse(null);
+        for (GamestatsStore.GameTime steamGame : steamGameList) {
+            GamestatsStore.GameTime discordGame = gameList.stream().filter(game -> game.gameName().equals(steamGame.gameName())).findFirst().orElse(null);
 
-            if (discordGame != null && discordGame.playTime < steamGame.playTime) {
+            if (discordGame != null && discordGame.playTime() < steamGame.playTime()) {
                 // remplacer
-                log.debug("Plus de temps sur Steam que Discord pour {} -> remplacer", discordGame.gameName);
+                log.debug("Plus de temps sur Steam que Discord pour {} -> remplacer", discordGame.gameName());
                 gameList.remove(discordGame);
                 gameList.add(steamGame);
             } else if (discordGame == null) {
                 // ajouter
-                log.debug("{} uniquement sur Steam -> ajouter", steamGame.gameName);
+                log.debug("{} uniquement sur Steam -> ajouter", steamGame.gameName());
                 gameList.add(steamGame);
             }
         }
 
-        gameList.sort(Game::compareTo);
+        gameList.sort(Comparator.comparingLong(game -> -game.playTime()));
 
         Map<String, String> map = new LinkedHashMap<>();
-        for (Game game : gameList) {
-            map.put(game.gameName, formatTime(game.playTime));
+        for (GamestatsStore.GameTime game : gameList) {
+            map.put(game.gameName(), formatTime(game.playTime()));
         }
         return map;
     }
 
-    @NotNull
-    private GamestatsManager.Game gamestatsEntryToGame(User user, Map.Entry<String, HashMap<Long, Integer>> entry) {
-        Game game = new Game();
-        game.gameName = entry.getKey();
-        game.playTime = entry.getValue().get(user.getIdLong());
-        return game;
-    }
-
     private void appendStatsForType(JDA client, String game, StringBuilder builder, int type, String typeName) {
-        List<Game> sortedGames = getGamesSortedByPlayTime(type);
-        int position = sortedGames.indexOf(sortedGames.stream().filter(g -> g.gameName.equals(game)).findFirst().orElse(null)) + 1;
+        long[] totalAndRank = gamestats.getTotalAndRank(type, game);
+        long position = totalAndRank[1];
 
-        builder.append("\n- **").append(formatTime(gamestats.get(type).get(game).values().stream().mapToInt(i -> i).sum())).append("** ").append(typeName)
-                .append(" (").append(position).append(position == 1 ? "er / " : "ème / ").append(gamestats.get(type).size())
+        builder.append("\n- **").append(formatTime(totalAndRank[0])).append("** ").append(typeName)
+                .append(" (").append(position).append(position == 1 ? "er / " : "ème / ").append(gamestats.getGameCount(type))
                 .append(") :\n    - ");
 
-        builder.append(gamestats.get(type).get(game).entrySet().stream()
-                .sorted(Comparator.comparingInt(entry -> -entry.getValue()))
+        builder.append(gamestats.getPlayers(type, game).stream()
                 .map(entry -> formatTime(entry.getValue()) + " pour " +
                         Optional.ofNullable(client.getUserById(entry.getKey()))
                                 .map(User::getName)
@@ -388,9 +400,9 @@ public class GamestatsManager {
                 .collect(Collectors.joining("\n    - ")));
     }
 
-    private String formatTime(int time) {
-        int hours = time / 60;
-        int minutes = time % 60;
+    private String formatTime(long time) {
+        long hours = time / 60;
+        long minutes = time % 60;
 
         if (hours == 0) {
             return minutes + (minutes == 1 ? " minute" : " minutes");
@@ -401,46 +413,28 @@ public class GamestatsManager {
 
     private void wipeStats(int type) {
         log.warn("RAZ des stats de type {}", type);
-        gamestats.set(type, new HashMap<>());
+        gamestats.wipe(type);
     }
 
-    void toggleGamestats(MessageChannel channel, User user) throws IOException {
-        if (enabledList.contains(user.getId())) {
-            enabledList.remove(user.getId());
+    synchronized void toggleGamestats(MessageChannel channel, User user) throws IOException {
+        if (enabledList.remove(user.getIdLong())) {
+            activeSessions.remove(user.getIdLong());
             channel.sendMessage(":white_check_mark: Tu as **désactivé** la collecte des gamestats.\n" +
                     "Si tu ne changes pas d'avis, tes gamestats seront supprimées du bot à minuit.").queue();
         } else {
-            enabledList.add(user.getId());
+            enabledList.add(user.getIdLong());
+
+            Member member = channel.getJDA().getGuildById(guildId).getMemberById(user.getIdLong());
+            if (member != null) addSessionsOf(member);
+
             channel.sendMessage(":white_check_mark: Tu as **activé** la collecte des gamestats.\n" +
                     "Tes temps de jeu seront maintenant inclus dans la commande `!gamestats`, et tu pourras voir tes statistiques avec `!played`.").queue();
         }
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter("played_command_users.txt"))) {
-            for (String bl : enabledList) {
-                bw.write(bl + "\n");
-            }
-        }
+        saveEnabledList();
     }
 
-    private void autoPurge() {
-        for (HashMap<String, HashMap<Long, Integer>> category : gamestats) {
-            for (HashMap<Long, Integer> timesPerUser : category.values()) {
-                Set<Long> toConsider = new HashSet<>(timesPerUser.keySet());
-                for (Long userId : toConsider) {
-                    if (!enabledList.contains(userId.toString())) {
-                        log.warn("Deleting play time for user {}", userId);
-                        timesPerUser.remove(userId);
-                    }
-                }
-            }
-
-            Set<String> games = new HashSet<>(category.keySet());
-            for (String game : games) {
-                if (category.get(game).isEmpty()) {
-                    log.warn("Deleting now empty game {}", game);
-                    category.remove(game);
-                }
-            }
-        }
+    private synchronized void autoPurge() {
+        gamestats.removeUsersIf(userId -> !enabledList.contains(userId));
     }
 }
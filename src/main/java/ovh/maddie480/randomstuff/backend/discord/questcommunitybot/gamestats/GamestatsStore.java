@@ -0,0 +1,516 @@
+package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.gamestats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.Leaderboard;
+import ovh.maddie480.randomstuff.backend.utils.LongLongHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+
+/**
+ * Holds the play time of each user for each game and each period (see the constants in {@link GamestatsManager}).
+ * Game names are turned into numeric IDs, play times are kept in primitive maps both by game and by user,
+ * and each period keeps the total play time of each game sorted, so that rankings don't need to go through everything.
+ * <p>
+ * Changes are appended to a journal, and the whole state is written to a snapshot once a day (or when the journal
+ * gets too big), which allows starting a new journal. On startup, the snapshot is loaded and newer journals are replayed.
+ */
+class GamestatsStore {
+    private static final Logger log = LoggerFactory.getLogger(GamestatsStore.class);
+
+    private static final int PERIOD_COUNT = 5;
+    private static final int[] LIVE_PERIODS = {GamestatsManager.DAILY, GamestatsManager.WEEKLY, GamestatsManager.MONTHLY, GamestatsManager.ALLTIME};
+
+    private static final byte RECORD_GAME = 1;
+    private static final byte RECORD_MINUTE = 2;
+    private static final byte RECORD_WIPE = 3;
+    private static final byte RECORD_ADD = 4;
+    private static final byte RECORD_REMOVE_USER = 5;
+    private static final byte RECORD_REMOVE_USER_FROM_PERIOD = 6;
+
+    private static final int SNAPSHOT_FORMAT = 1;
+    private static final long MAX_JOURNAL_SIZE = 4 * 1024 * 1024;
+
+    record GameTime(String gameName, long playTime, int playerCount) {
+    }
+
+    private static class Period {
+        // game ID -> user ID -> play time
+        final List<LongLongHashMap> playersByGame = new ArrayList<>();
+        // user ID -> game ID -> play time
+        final Map<Long, LongLongHashMap> gamesByUser = new HashMap<>();
+        // game ID -> total play time
+        final LongLongHashMap totals = new LongLongHashMap();
+        final Leaderboard ranking = new Leaderboard();
+
+        LongLongHashMap getPlayers(int gameId) {
+            return gameId < playersByGame.size() ? playersByGame.get(gameId) : null;
+        }
+
+        void add(long userId, int gameId, long minutes) {
+            while (playersByGame.size() <= gameId) playersByGame.add(null);
+            if (playersByGame.get(gameId) == null) playersByGame.set(gameId, new LongLongHashMap());
+
+            playersByGame.get(gameId).addTo(userId, minutes);
+            gamesByUser.computeIfAbsent(userId, k -> new LongLongHashMap()).addTo(gameId, minutes);
+            setTotal(gameId, totals.get(gameId, 0) + minutes);
+        }
+
+        void removeUser(long userId) {
+            LongLongHashMap games = gamesByUser.remove(userId);
+            if (games == null) return;
+
+            games.forEach((gameId, minutes) -> {
+                LongLongHashMap players = playersByGame.get((int) gameId);
+                players.remove(userId);
+
+                if (players.isEmpty()) {
+                    log.debug("Deleting now empty game {}", gameId);
+                    playersByGame.set((int) gameId, null);
+                    ranking.remove(gameId, totals.get(gameId, 0));
+                    totals.remove(gameId);
+                } else {
+                    setTotal((int) gameId, totals.get(gameId, 0) - minutes);
+                }
+            });
+        }
+
+        private void setTotal(int gameId, long total) {
+            if (totals.containsKey(gameId)) ranking.remove(gameId, totals.get(gameId, 0));
+            totals.put(gameId, total);
+            ranking.add(gameId, total);
+        }
+    }
+
+    private final Path snapshotPath;
+    private final Path directory;
+    private final String journalPrefix;
+
+    private final List<String> gameNames = new ArrayList<>();
+    private final Map<String, Integer> gameIds = new HashMap<>();
+    private final Period[] periods = new Period[PERIOD_COUNT];
+
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pendingRecords = new DataOutputStream(pendingBytes);
+    private int journalGeneration;
+    private FileChannel journal;
+
+    /**
+     * Loads the stats from the snapshot and journals, or from the legacy serialized file if there is no snapshot yet.
+     */
+    GamestatsStore(Path snapshotPath, Path legacyPath) throws IOException {
+        this.snapshotPath = snapshotPath;
+        this.directory = snapshotPath.toAbsolutePath().getParent();
+        this.journalPrefix = snapshotPath.getFileName() + ".journal.";
+
+        for (int i = 0; i < PERIOD_COUNT; i++) periods[i] = new Period();
+
+        long start = System.nanoTime();
+        if (Files.exists(snapshotPath)) {
+            journalGeneration = loadSnapshot();
+        } else if (Files.exists(legacyPath)) {
+            log.info("Migrating gamestats from {}", legacyPath);
+            loadLegacy(legacyPath);
+            journalGeneration = 0;
+        }
+
+        int replayed = 0;
+        for (int generation : listJournalGenerations()) {
+            if (generation >= journalGeneration) {
+                replayed += replayJournal(getJournalPath(generation));
+                journalGeneration = generation + 1;
+            }
+        }
+
+        log.info("Loaded gamestats for {} games in {} ms ({} journal records replayed)",
+                gameNames.size(), (System.nanoTime() - start) / 1_000_000, replayed);
+
+        // never append to an existing journal, since it might end with a partial record
+        journal = openJournal(journalGeneration);
+    }
+
+    // ================== changing stats
+
+    /**
+     * Counts one minute of play time for the user on the game, in all periods except Steam.
+     */
+    synchronized void addMinute(long userId, String game) {
+        int gameId = intern(game);
+        for (int period : LIVE_PERIODS) periods[period].add(userId, gameId, 1);
+
+        record(RECORD_MINUTE, records -> {
+            records.writeLong(userId);
+            records.writeInt(gameId);
+        });
+    }
+
+    synchronized void wipe(int period) {
+        periods[period] = new Period();
+        record(RECORD_WIPE, records -> records.writeByte(period));
+    }
+
+    /**
+     * Replaces the play time of the user in the period with the given one, leaving other users untouched.
+     */
+    synchronized void replaceUser(int period, long userId, Map<String, Integer> games) {
+        removeUser(period, userId);
+
+        for (Map.Entry<String, Integer> game : games.entrySet()) {
+            int gameId = intern(game.getKey());
+            periods[period].add(userId, gameId, game.getValue());
+
+            record(RECORD_ADD, records -> {
+                records.writeByte(period);
+                records.writeLong(userId);
+                records.writeInt(gameId);
+                records.writeLong(game.getValue());
+            });
+        }
+    }
+
+    /**
+     * Deletes the play time of the user in the period only.
+     */
+    synchronized void removeUser(int period, long userId) {
+        if (!periods[period].gamesByUser.containsKey(userId)) return;
+
+        periods[period].removeUser(userId);
+        record(RECORD_REMOVE_USER_FROM_PERIOD, records -> {
+            records.writeByte(period);
+            records.writeLong(userId);
+        });
+    }
+
+    /**
+     * Deletes the play time of all users matching the predicate, in all periods.
+     */
+    synchronized void removeUsersIf(LongPredicate predicate) {
+        Set<Long> users = new HashSet<>();
+        for (Period period : periods) users.addAll(period.gamesByUser.keySet());
+
+        for (long userId : users) {
+            if (!predicate.test(userId)) continue;
+
+            log.warn("Deleting play time for user {}", userId);
+            for (Period period : periods) period.removeUser(userId);
+            record(RECORD_REMOVE_USER, records -> records.writeLong(userId));
+        }
+    }
+
+    private int intern(String game) {
+        Integer gameId = gameIds.get(game);
+        if (gameId != null) return gameId;
+
+        int newId = gameNames.size();
+        gameNames.add(game);
+        gameIds.put(game, newId);
+        record(RECORD_GAME, records -> {
+            records.writeInt(newId);
+            records.writeUTF(game);
+        });
+        return newId;
+    }
+
+    // ================== reading stats
+
+    /**
+     * Gives the most played games of the period, or the least played ones if reverse is true.
+     */
+    synchronized List<GameTime> getTopGames(int period, int count, boolean reverse) {
+        Period data = periods[period];
+        List<GameTime> games = new ArrayList<>(count);
+
+        for (int i = 0; i < count && i < data.ranking.size(); i++) {
+            Leaderboard.Entry entry = data.ranking.get(reverse ? data.ranking.size() - 1 - i : i);
+            games.add(new GameTime(gameNames.get((int) entry.id()), entry.score(), data.getPlayers((int) entry.id()).size()));
+        }
+        return games;
+    }
+
+    synchronized Set<Long> getUsers(int period) {
+        return new HashSet<>(periods[period].gamesByUser.keySet());
+    }
+
+    synchronized int getGameCount(int period) {
+        return periods[period].ranking.size();
+    }
+
+    synchronized Set<String> getGameNames(int period) {
+        Set<String> names = new HashSet<>();
+        periods[period].totals.forEach((gameId, total) -> names.add(gameNames.get((int) gameId)));
+        return names;
+    }
+
+    synchronized boolean hasGame(int period, String game) {
+        Integer gameId = gameIds.get(game);
+        return gameId != null && periods[period].getPlayers(gameId) != null;
+    }
+
+    /**
+     * @return the total play time of the game in the period, and its position in the ranking starting from 1
+     */
+    synchronized long[] getTotalAndRank(int period, String game) {
+        int gameId = gameIds.get(game);
+        long total = periods[period].totals.get(gameId, 0);
+        return new long[]{total, periods[period].ranking.rankOf(gameId, total) + 1};
+    }
+
+    /**
+     * Gives the play time of each player of the game in the period, the most playing player first.
+     */
+    synchronized List<Map.Entry<Long, Long>> getPlayers(int period, String game) {
+        List<Map.Entry<Long, Long>> players = new ArrayList<>();
+        periods[period].getPlayers(gameIds.get(game)).forEach((userId, minutes) -> players.add(Map.entry(userId, minutes)));
+        players.sort(Comparator.comparingLong(entry -> -entry.getValue()));
+        return players;
+    }
+
+    /**
+     * Gives the play time of the user for each game in the period, the most played game first.
+     */
+    synchronized List<GameTime> getGamesOfUser(int period, long userId) {
+        LongLongHashMap games = periods[period].gamesByUser.get(userId);
+        if (games == null) return new ArrayList<>();
+
+        List<GameTime> result = new ArrayList<>(games.size());
+        games.forEach((gameId, minutes) -> result.add(new GameTime(gameNames.get((int) gameId), minutes, 1)));
+        result.sort(Comparator.comparingLong(game -> -game.playTime()));
+        return result;
+    }
+
+    // ================== journal and snapshots
+
+    private interface RecordWriter {
+        void write(DataOutputStream records) throws IOException;
+    }
+
+    private void record(byte type, RecordWriter writer) {
+        try {
+            pendingRecords.writeByte(type);
+            writer.write(pendingRecords);
+        } catch (IOException e) {
+            // this cannot happen when writing to a ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the changes made since the last call to the journal, and makes sure they reached the disk.
+     * A new snapshot is written if the journal gets too big.
+     */
+    synchronized void flush() throws IOException {
+        if (pendingBytes.size() == 0) return;
+
+        long start = System.nanoTime();
+        int size = pendingBytes.size();
+        ByteBuffer buffer = ByteBuffer.wrap(pendingBytes.toByteArray());
+        long journalEnd = journal.position();
+
+        try {
+            while (buffer.hasRemaining()) journal.write(buffer);
+            journal.force(false);
+        } catch (IOException e) {
+            // keep the records for next time, and drop whatever was partially written so that they don't get applied twice
+            try {
+                journal.truncate(journalEnd);
+                journal.position(journalEnd);
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+
+        // only forget the records once they are safely in the journal
+        pendingBytes.reset();
+
+        log.debug("Appended {} bytes to gamestats journal in {} ms, journal size is now {} bytes",
+                size, (System.nanoTime() - start) / 1_000_000, journal.size());
+
+        if (journal.size() > MAX_JOURNAL_SIZE) snapshot();
+    }
+
+    /**
+     * Writes all stats to the snapshot file, then starts a new journal and deletes the old ones.
+     * If the snapshot cannot be written, the current journal and the changes that were not written yet are kept as is.
+     */
+    synchronized void snapshot() throws IOException {
+        long start = System.nanoTime();
+        int coveredGeneration = journalGeneration + 1;
+
+        // if the snapshot fails after that, this empty journal is harmless: it will be replayed after the current one
+        FileChannel newJournal = openJournal(coveredGeneration);
+
+        Path tempFile = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                output.writeInt(SNAPSHOT_FORMAT);
+                output.writeInt(coveredGeneration);
+
+                output.writeInt(gameNames.size());
+                for (String gameName : gameNames) output.writeUTF(gameName);
+
+                for (Period period : periods) {
+                    output.writeInt(period.gamesByUser.size());
+                    for (Map.Entry<Long, LongLongHashMap> user : period.gamesByUser.entrySet()) {
+                        LongLongHashMap games = user.getValue();
+                        output.writeLong(user.getKey());
+                        output.writeInt(games.size());
+                        for (long gameId : games.keys()) {
+                            output.writeInt((int) gameId);
+                            output.writeLong(games.get(gameId, 0));
+                        }
+                    }
+                }
+            }
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            newJournal.close();
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        // the snapshot includes anything that was not written to the journal yet
+        pendingBytes.reset();
+        journal.close();
+        journal = newJournal;
+        journalGeneration = coveredGeneration;
+        for (int generation : listJournalGenerations()) {
+            if (generation < coveredGeneration) Files.delete(getJournalPath(generation));
+        }
+
+        log.info("Gamestats snapshot written in {} ms ({} bytes)", (System.nanoTime() - start) / 1_000_000, Files.size(snapshotPath));
+    }
+
+    private FileChannel openJournal(int generation) throws IOException {
+        return FileChannel.open(getJournalPath(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private Path getJournalPath(int generation) {
+        return directory.resolve(journalPrefix + generation);
+    }
+
+    private List<Integer> listJournalGenerations() throws IOException {
+        try (Stream<Path> list = Files.list(directory)) {
+            return list
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(journalPrefix))
+                    .map(name -> Integer.parseInt(name.substring(journalPrefix.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private int replayJournal(Path path) throws IOException {
+        int count = 0;
+
+        try (DataInputStream records = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int type = records.read();
+                if (type == -1) break;
+
+                switch (type) {
+                    case RECORD_GAME -> {
+                        int gameId = records.readInt();
+                        String game = records.readUTF();
+                        gameNames.add(game);
+                        gameIds.put(game, gameId);
+                    }
+                    case RECORD_MINUTE -> {
+                        long userId = records.readLong();
+                        int gameId = records.readInt();
+                        for (int period : LIVE_PERIODS) periods[period].add(userId, gameId, 1);
+                    }
+                    case RECORD_WIPE -> periods[records.readByte()] = new Period();
+                    case RECORD_ADD -> {
+                        int period = records.readByte();
+                        long userId = records.readLong();
+                        int gameId = records.readInt();
+                        periods[period].add(userId, gameId, records.readLong());
+                    }
+                    case RECORD_REMOVE_USER -> {
+                        long userId = records.readLong();
+                        for (Period period : periods) period.removeUser(userId);
+                    }
+                    case RECORD_REMOVE_USER_FROM_PERIOD -> {
+                        int period = records.readByte();
+                        periods[period].removeUser(records.readLong());
+                    }
+                    default -> throw new IOException("Unknown record type " + type + " in journal " + path);
+                }
+
+                count++;
+            }
+        } catch (EOFException e) {
+            // the bot stopped while writing this record
+            log.warn("Journal {} ends with a partial record, ignoring it", path);
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the generation of the first journal that was written after this snapshot
+     */
+    private int loadSnapshot() throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            int format = input.readInt();
+            if (format != SNAPSHOT_FORMAT) throw new IOException("Unknown gamestats snapshot format " + format);
+            int generation = input.readInt();
+
+            int gameCount = input.readInt();
+            for (int gameId = 0; gameId < gameCount; gameId++) {
+                String game = input.readUTF();
+                gameNames.add(game);
+                gameIds.put(game, gameId);
+            }
+
+            for (Period period : periods) {
+                int userCount = input.readInt();
+                for (int i = 0; i < userCount; i++) {
+                    long userId = input.readLong();
+                    int userGameCount = input.readInt();
+                    for (int j = 0; j < userGameCount; j++) {
+                        period.add(userId, input.readInt(), input.readLong());
+                    }
+                }
+            }
+
+            return generation;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadLegacy(Path legacyPath) throws IOException {
+        try (ObjectInputStream input = new ObjectInputStream(Files.newInputStream(legacyPath))) {
+            List<HashMap<String, HashMap<Long, Integer>>> gamestats = (ArrayList<HashMap<String, HashMap<Long, Integer>>>) input.readObject();
+
+            for (int period = 0; period < PERIOD_COUNT; period++) {
+                for (Map.Entry<String, HashMap<Long, Integer>> game : gamestats.get(period).entrySet()) {
+                    int gameId = gameIds.computeIfAbsent(game.getKey(), name -> {
+                        gameNames.add(name);
+                        return gameNames.size() - 1;
+                    });
+
+                    for (Map.Entry<Long, Integer> player : game.getValue().entrySet()) {
+                        periods[period].add(player.getKey(), gameId, player.getValue());
+                    }
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
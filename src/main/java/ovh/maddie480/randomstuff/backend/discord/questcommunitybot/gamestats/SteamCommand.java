@@ -23,7 +23,8 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -31,11 +32,21 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class SteamCommand implements BotCommand {
     private static final Logger log = LoggerFactory.getLogger(SteamCommand.class);
 
+    // nombre maximum de requêtes simultanées à l'API Steam, et délai minimum entre deux débuts de requêtes
+    private static final int STEAM_API_PARALLELISM = 4;
+    private static final long STEAM_API_INTERVAL_MILLIS = 250;
+
     private final Map<Long, List<String>> steamProfilesForMessage = new HashMap<>();
     private final Map<Long, Long> allowedUsersForMessage = new HashMap<>();
 
     private final Map<String, String> discordToSteamUsers = new HashMap<>();
 
+    private final Semaphore steamApiSlots = new Semaphore(STEAM_API_PARALLELISM);
+    private long nextSteamApiCall = 0;
+
+    // compte Discord -> empreinte des temps de jeu Steam appliqués lors du dernier relevé
+    private final Map<String, Long> lastDigests = new ConcurrentHashMap<>();
+
     private final GamestatsManager gamestatsManager;
 
     public SteamCommand(GamestatsManager gamestatsManager) {
@@ -105,64 +116,124 @@ public class SteamCommand implements BotCommand {
         log.debug("Map des comptes Discord avec leurs comptes Steam = {}", discordToSteamUsers);
     }
 
-    void refreshSteamStats(JDA client) throws IOException {
+    synchronized void refreshSteamStats(JDA client) throws IOException {
         log.debug("Refreshing Steam stats");
+        long start = System.currentTimeMillis();
+
+        final Map<String, String> accounts = new HashMap<>(discordToSteamUsers);
+        final AtomicInteger apiCalls = new AtomicInteger();
+        final AtomicInteger changedAccounts = new AtomicInteger();
+        final AtomicInteger failedAccounts = new AtomicInteger();
+
+        // les comptes qui ont été dissociés
+        final Set<Long> steamUsers = gamestatsManager.getSteamUsers();
+        for (long discordId : steamUsers) {
+            if (!accounts.containsKey(Long.toString(discordId))) {
+                log.debug("Suppression des stats Steam de {}, qui n'a plus de compte associé", discordId);
+                gamestatsManager.removeSteamGamestats(discordId);
+            }
+        }
+        lastDigests.keySet().retainAll(accounts.keySet());
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Map.Entry<String, String> account : accounts.entrySet()) {
+                executor.submit(() -> {
+                    try {
+                        Map<String, Integer> games = getOwnedGamesWithRetry(account.getValue(), apiCalls);
+
+                        // ne toucher aux gamestats que si quelque chose a changé depuis le dernier relevé,
+                        // et qu'elles n'ont pas été supprimées entre temps (par exemple par la purge automatique)
+                        long digest = digest(account.getValue(), games);
+                        Long previousDigest = lastDigests.get(account.getKey());
+                        if (previousDigest != null && previousDigest == digest
+                                && (games.isEmpty() || steamUsers.contains(Long.parseLong(account.getKey())))) {
+                            log.debug("Stats Steam de {} inchangées", account.getKey());
+                            return;
+                        }
 
-        final HashMap<String, HashMap<Long, Integer>> steamGamestats = new HashMap<>();
-
-        for (Map.Entry<String, String> account : discordToSteamUsers.entrySet()) {
-            addSteamGamestatsWithRetry(client, steamGamestats, account);
+                        gamestatsManager.putSteamGamestats(Long.parseLong(account.getKey()), games);
+                        lastDigests.put(account.getKey(), digest);
+                        changedAccounts.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        log.error("Impossible de récupérer les stats Steam de {} (steamid {})",
+                                client.getUserById(account.getKey()), account.getValue(), e);
+                        failedAccounts.incrementAndGet();
+                    }
+                });
+            }
         }
 
-        log.debug("Terminé ! Les gamestats de Steam contiennent {} jeux", steamGamestats.size());
-        gamestatsManager.putSteamGamestats(steamGamestats);
+        log.info("Stats Steam rafraîchies en {} ms : {} comptes, {} appels à l'API, {} comptes modifiés, {} en échec",
+                System.currentTimeMillis() - start, accounts.size(), apiCalls.get(), changedAccounts.get(), failedAccounts.get());
+
+        if (failedAccounts.get() != 0) {
+            throw new IOException("Les stats Steam de " + failedAccounts.get() + " comptes n'ont pas pu être récupérées");
+        }
     }
 
-    private static void addSteamGamestatsWithRetry(JDA client,
-                                                   HashMap<String, HashMap<Long, Integer>> steamGamestats,
-                                                   Map.Entry<String, String> account) throws IOException {
+    private Map<String, Integer> getOwnedGamesWithRetry(String steamId, AtomicInteger apiCalls) throws IOException {
+        return ConnectionUtils.runWithRetry(() -> {
+            JSONObject games;
+            acquireSteamApiSlot();
+            apiCalls.incrementAndGet();
+            try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://api.steampowered.com/IPlayerService/GetOwnedGames/v0001/?key="
+                    + SecretConstants.STEAM_WEB_API_KEY + "&steamid=" + steamId + "&include_played_free_games=1&include_appinfo=1")) {
+
+                games = new JSONObject(new JSONTokener(is));
+            } finally {
+                steamApiSlots.release();
+            }
+
+            Map<String, Integer> result = new HashMap<>();
 
-        User user = client.getUserById(account.getKey());
-        int tries = 3;
-        log.debug("Je tente de récupérer les stats de {} (steamid {}), tentatives restantes = {}", user, account.getValue(), tries);
+            if (!games.getJSONObject("response").has("games")) {
+                log.warn("Could not retrieve Steam gamestats for account {}! It probably has private play times.", steamId);
+                return result;
+            }
 
-        ConnectionUtils.runWithRetry(() -> {
-            addSteamGamestatsForUser(steamGamestats, account);
-            return null;
+            for (Object gameObj : games.getJSONObject("response").getJSONArray("games")) {
+                JSONObject game = (JSONObject) gameObj;
+                result.put(game.getString("name"), game.getInt("playtime_forever"));
+            }
+            return result;
         });
     }
 
-    private static void addSteamGamestatsForUser(HashMap<String, HashMap<Long, Integer>> steamGamestats,
-                                                 Map.Entry<String, String> account) throws IOException {
-        Long discordId = Long.parseLong(account.getKey());
-        String steamId = account.getValue();
-
-        JSONObject games;
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout("https://api.steampowered.com/IPlayerService/GetOwnedGames/v0001/?key="
-                + SecretConstants.STEAM_WEB_API_KEY + "&steamid=" + steamId + "&include_played_free_games=1&include_appinfo=1")) {
-
-            games = new JSONObject(new JSONTokener(is));
+    /**
+     * Attend qu'une requête à l'API Steam soit autorisée : pas plus de {@link #STEAM_API_PARALLELISM} à la fois,
+     * et au moins {@link #STEAM_API_INTERVAL_MILLIS} ms entre deux débuts de requêtes.
+     * Le créneau doit être libéré avec steamApiSlots.release() une fois la requête terminée.
+     */
+    private void acquireSteamApiSlot() throws IOException {
+        try {
+            steamApiSlots.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a Steam API slot");
         }
 
-        if (!games.getJSONObject("response").has("games")) {
-            log.warn("Could not retrieve Steam gamestats for account {}! It probably has private play times.", steamId);
-            return;
+        long waitMillis;
+        synchronized (steamApiSlots) {
+            long now = System.currentTimeMillis();
+            long slot = Math.max(now, nextSteamApiCall);
+            nextSteamApiCall = slot + STEAM_API_INTERVAL_MILLIS;
+            waitMillis = slot - now;
         }
 
-        games.getJSONObject("response").getJSONArray("games").forEach(gameObj -> {
-            JSONObject game = (JSONObject) gameObj;
-
-            String name = game.getString("name");
-            Integer gameTimeMinutes = game.getInt("playtime_forever");
+        try {
+            if (waitMillis > 0) Thread.sleep(waitMillis);
+        } catch (InterruptedException e) {
+            steamApiSlots.release();
+            throw new InterruptedIOException("Interrupted while waiting for a Steam API slot");
+        }
+    }
 
-            if (steamGamestats.containsKey(name)) {
-                steamGamestats.get(name).put(discordId, gameTimeMinutes);
-            } else {
-                HashMap<Long, Integer> newMap = new HashMap<>();
-                newMap.put(discordId, gameTimeMinutes);
-                steamGamestats.put(name, newMap);
-            }
-        });
+    private static long digest(String steamId, Map<String, Integer> games) {
+        long digest = steamId.hashCode();
+        for (Map.Entry<String, Integer> game : new TreeMap<>(games).entrySet()) {
+            digest = digest * 1_000_003 + game.getKey().hashCode();
+            digest = digest * 1_000_003 + game.getValue();
+        }
+        return digest;
     }
 
     @Override
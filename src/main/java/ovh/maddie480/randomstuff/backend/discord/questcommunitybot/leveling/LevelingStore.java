@@ -0,0 +1,513 @@
+package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.leveling;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.Leaderboard;
+import ovh.maddie480.randomstuff.backend.utils.LongLongHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Holds the leveling stats in memory. Every change is appended to a journal that gets written and synced to disk
+ * in batches once a second, and the whole state is regularly written to a snapshot file, which allows starting
+ * a new journal. On startup, the last snapshot is loaded and the journals written since then are replayed.
+ * <p>
+ * Snapshots are written to a temporary file then moved, and a crash in the middle of a journal write
+ * only loses the last partial batch, so the data cannot get corrupted as a whole.
+ */
+class LevelingStore {
+    private static final Logger logger = LoggerFactory.getLogger(LevelingStore.class);
+
+    // the ordinals of those enums are written to the journal, so new values should only be added at the end!
+    enum Stat {CASH, XP, REP, LAST_DAILY_AT, LAST_REP_AT, DAILY_STREAK}
+
+    enum Owned {BACKGROUNDS, GAME_BACKGROUNDS, PAID_ROLES}
+
+    private static final Set<Stat> RANKED_STATS = EnumSet.of(Stat.CASH, Stat.XP, Stat.REP);
+
+    private static final byte RECORD_SET = 1;
+    private static final byte RECORD_ADD_OWNED = 2;
+    private static final byte RECORD_REMOVE_USER = 3;
+
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final long MAX_JOURNAL_SIZE = 1024 * 1024;
+
+    private final Path snapshotPath;
+    private final Path directory;
+    private final String journalPrefix;
+
+    private final Map<Stat, LongLongHashMap> stats = new EnumMap<>(Stat.class);
+    private final Map<Owned, Map<Long, List<String>>> owned = new EnumMap<>(Owned.class);
+    private final Map<Stat, Leaderboard> leaderboards = new EnumMap<>(Stat.class);
+
+    // records that were not written to the journal yet
+    private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pendingRecords = new DataOutputStream(pendingBytes);
+    private long oldestPendingRecordAt = -1;
+
+    // writing to the journal and switching to a new one should not happen at the same time
+    private final Object journalLock = new Object();
+    private int journalGeneration;
+    private FileChannel journal;
+    private long lastSnapshotAt = System.currentTimeMillis();
+
+    // metrics since the last snapshot
+    private long recordCount = 0;
+    private long batchCount = 0;
+    private long totalWriteNanos = 0;
+    private long maxWriteNanos = 0;
+    private long maxDurabilityDelayNanos = 0;
+
+    /**
+     * Loads the stats from the snapshot and journals, or from the legacy serialized file if there is no snapshot yet,
+     * then starts writing changes in the background.
+     */
+    LevelingStore(Path snapshotPath, Path legacyPath) throws IOException {
+        this.snapshotPath = snapshotPath;
+        this.directory = snapshotPath.toAbsolutePath().getParent();
+        this.journalPrefix = snapshotPath.getFileName() + ".journal.";
+
+        for (Stat stat : Stat.values()) stats.put(stat, new LongLongHashMap());
+        for (Owned type : Owned.values()) owned.put(type, new HashMap<>());
+
+        long start = System.nanoTime();
+        if (Files.exists(snapshotPath)) {
+            journalGeneration = loadSnapshot();
+        } else if (Files.exists(legacyPath)) {
+            logger.info("Migrating leveling stats from {}", legacyPath);
+            loadLegacy(legacyPath);
+            journalGeneration = 0;
+        }
+
+        int replayed = 0;
+        for (int generation : listJournalGenerations()) {
+            if (generation >= journalGeneration) {
+                replayed += replayJournal(getJournalPath(generation));
+                journalGeneration = generation + 1;
+            }
+        }
+
+        for (Stat stat : RANKED_STATS) {
+            Leaderboard leaderboard = new Leaderboard();
+            stats.get(stat).forEach(leaderboard::add);
+            leaderboards.put(stat, leaderboard);
+        }
+
+        logger.info("Loaded leveling stats of {} users in {} ms ({} journal records replayed)",
+                stats.get(Stat.XP).size(), (System.nanoTime() - start) / 1_000_000, replayed);
+
+        // never append to an existing journal, since it might end with a partial record
+        journal = openJournal(journalGeneration);
+
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Leveling Store Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::writeInBackground, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.error("Could not write the last leveling stats changes", e);
+            }
+        }, "Leveling Store Shutdown Hook"));
+    }
+
+    // ================== reading and changing stats
+
+    synchronized long get(Stat stat, long userId) {
+        return stats.get(stat).get(userId, 0);
+    }
+
+    synchronized boolean has(Stat stat, long userId) {
+        return stats.get(stat).containsKey(userId);
+    }
+
+    synchronized void set(Stat stat, long userId, long value) {
+        LongLongHashMap values = stats.get(stat);
+        Leaderboard leaderboard = leaderboards.get(stat);
+        if (leaderboard != null) {
+            if (values.containsKey(userId)) leaderboard.remove(userId, values.get(userId, 0));
+            leaderboard.add(userId, value);
+        }
+
+        values.put(userId, value);
+        record(RECORD_SET, records -> {
+            records.writeByte(stat.ordinal());
+            records.writeLong(userId);
+            records.writeLong(value);
+        });
+    }
+
+    /**
+     * @return the new value
+     */
+    synchronized long add(Stat stat, long userId, long delta) {
+        long value = stats.get(stat).get(userId, 0) + delta;
+        set(stat, userId, value);
+        return value;
+    }
+
+    /**
+     * Gives the users with the highest values for the given stat, best first.
+     *
+     * @param excluded users that should not appear in the ranking
+     */
+    synchronized List<Leaderboard.Entry> getTop(Stat stat, int count, Set<Long> excluded) {
+        Leaderboard leaderboard = leaderboards.get(stat);
+        List<Leaderboard.Entry> top = new ArrayList<>(count);
+
+        for (int rank = 0; rank < leaderboard.size() && top.size() < count; rank++) {
+            Leaderboard.Entry entry = leaderboard.get(rank);
+            if (!excluded.contains(entry.id())) top.add(entry);
+        }
+        return top;
+    }
+
+    /**
+     * Gives the position of the user in the ranking for the given stat.
+     *
+     * @param excluded users that should not appear in the ranking
+     * @return the rank, starting from 1, or 0 if the user is not ranked
+     */
+    synchronized int getRank(Stat stat, long userId, Set<Long> excluded) {
+        LongLongHashMap values = stats.get(stat);
+        if (!values.containsKey(userId) || excluded.contains(userId)) return 0;
+
+        Leaderboard leaderboard = leaderboards.get(stat);
+        int rank = leaderboard.rankOf(userId, values.get(userId, 0));
+
+        // excluded users are few (bots), so we just check which ones are above
+        int excludedAbove = 0;
+        for (long excludedId : excluded) {
+            if (values.containsKey(excludedId) && leaderboard.rankOf(excludedId, values.get(excludedId, 0)) < rank) {
+                excludedAbove++;
+            }
+        }
+
+        return rank - excludedAbove + 1;
+    }
+
+    synchronized boolean owns(Owned type, long userId, String item) {
+        return owned.get(type).getOrDefault(userId, Collections.emptyList()).contains(item);
+    }
+
+    synchronized List<String> getOwned(Owned type, long userId) {
+        return new ArrayList<>(owned.get(type).getOrDefault(userId, Collections.emptyList()));
+    }
+
+    synchronized boolean isEmpty(Owned type) {
+        return owned.get(type).isEmpty();
+    }
+
+    synchronized void addOwned(Owned type, long userId, String item) {
+        owned.get(type).computeIfAbsent(userId, k -> new ArrayList<>()).add(item);
+        record(RECORD_ADD_OWNED, records -> {
+            records.writeByte(type.ordinal());
+            records.writeLong(userId);
+            records.writeUTF(item);
+        });
+    }
+
+    /**
+     * Lists all users that have anything in the store.
+     */
+    synchronized Set<Long> getUsers() {
+        Set<Long> users = new HashSet<>();
+        for (LongLongHashMap values : stats.values()) {
+            for (long userId : values.keys()) users.add(userId);
+        }
+        for (Map<Long, List<String>> items : owned.values()) {
+            users.addAll(items.keySet());
+        }
+        return users;
+    }
+
+    synchronized void removeUser(long userId) {
+        leaderboards.forEach((stat, leaderboard) -> {
+            LongLongHashMap values = stats.get(stat);
+            if (values.containsKey(userId)) leaderboard.remove(userId, values.get(userId, 0));
+        });
+        for (LongLongHashMap values : stats.values()) values.remove(userId);
+        for (Map<Long, List<String>> items : owned.values()) items.remove(userId);
+        record(RECORD_REMOVE_USER, records -> records.writeLong(userId));
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream records) throws IOException;
+    }
+
+    private void record(byte type, RecordWriter writer) {
+        try {
+            if (oldestPendingRecordAt == -1) oldestPendingRecordAt = System.nanoTime();
+            pendingRecords.writeByte(type);
+            writer.write(pendingRecords);
+            recordCount++;
+        } catch (IOException e) {
+            // this cannot happen when writing to a ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ================== journal and snapshots
+
+    private void writeInBackground() {
+        try {
+            flush();
+
+            if (System.currentTimeMillis() - lastSnapshotAt > SNAPSHOT_INTERVAL_MILLIS || journal.size() > MAX_JOURNAL_SIZE) {
+                snapshot();
+            }
+        } catch (IOException e) {
+            logger.error("Could not write leveling stats", e);
+        }
+    }
+
+    /**
+     * Writes the pending changes to the journal, and makes sure they actually reached the disk.
+     */
+    void flush() throws IOException {
+        synchronized (journalLock) {
+            writeToJournal(takePendingRecords());
+        }
+    }
+
+    private synchronized byte[] takePendingRecords() {
+        byte[] records = pendingBytes.toByteArray();
+        pendingBytes.reset();
+
+        if (records.length != 0) {
+            maxDurabilityDelayNanos = Math.max(maxDurabilityDelayNanos, System.nanoTime() - oldestPendingRecordAt);
+        }
+        oldestPendingRecordAt = -1;
+        return records;
+    }
+
+    private void writeToJournal(byte[] records) throws IOException {
+        if (records.length == 0) return;
+
+        long start = System.nanoTime();
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        while (buffer.hasRemaining()) journal.write(buffer);
+        journal.force(false);
+        long writeTime = System.nanoTime() - start;
+
+        synchronized (this) {
+            batchCount++;
+            totalWriteNanos += writeTime;
+            maxWriteNanos = Math.max(maxWriteNanos, writeTime);
+        }
+    }
+
+    /**
+     * Writes all stats to the snapshot file, then deletes the journals it makes obsolete.
+     */
+    void snapshot() throws IOException {
+        long start = System.nanoTime();
+
+        JSONObject state;
+        int coveredGeneration;
+        long journalSize;
+        String metrics;
+
+        synchronized (journalLock) {
+            byte[] lastRecords;
+            synchronized (this) {
+                lastRecords = takePendingRecords();
+                state = toJson();
+                coveredGeneration = journalGeneration + 1;
+                state.put("journalGeneration", coveredGeneration);
+                metrics = getMetricsAndReset();
+            }
+
+            // changes made from now on go to the next journal, that will be replayed on top of this snapshot
+            writeToJournal(lastRecords);
+            journalSize = journal.size();
+            journal.close();
+            journalGeneration = coveredGeneration;
+            journal = openJournal(journalGeneration);
+        }
+
+        byte[] snapshot = state.toString().getBytes(StandardCharsets.UTF_8);
+        Path tempFile = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(tempFile, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (int generation : listJournalGenerations()) {
+            if (generation < coveredGeneration) Files.delete(getJournalPath(generation));
+        }
+
+        lastSnapshotAt = System.currentTimeMillis();
+        logger.info("Leveling stats snapshot written in {} ms ({} bytes). Since the previous one: {}, journal size was {} bytes",
+                (System.nanoTime() - start) / 1_000_000, snapshot.length, metrics, journalSize);
+    }
+
+    private String getMetricsAndReset() {
+        String metrics = String.format("%d changes written in %d batches, write+sync avg %.2f ms / max %.2f ms, max delay before reaching the disk %d ms",
+                recordCount, batchCount,
+                batchCount == 0 ? 0 : totalWriteNanos / batchCount / 1_000_000.0, maxWriteNanos / 1_000_000.0,
+                maxDurabilityDelayNanos / 1_000_000);
+
+        recordCount = 0;
+        batchCount = 0;
+        totalWriteNanos = 0;
+        maxWriteNanos = 0;
+        maxDurabilityDelayNanos = 0;
+        return metrics;
+    }
+
+    private FileChannel openJournal(int generation) throws IOException {
+        return FileChannel.open(getJournalPath(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private Path getJournalPath(int generation) {
+        return directory.resolve(journalPrefix + generation);
+    }
+
+    private List<Integer> listJournalGenerations() throws IOException {
+        try (Stream<Path> list = Files.list(directory)) {
+            return list
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(journalPrefix))
+                    .map(name -> Integer.parseInt(name.substring(journalPrefix.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private int replayJournal(Path path) throws IOException {
+        int count = 0;
+
+        try (DataInputStream records = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int type = records.read();
+                if (type == -1) break;
+
+                switch (type) {
+                    case RECORD_SET -> {
+                        Stat stat = Stat.values()[records.readByte()];
+                        long userId = records.readLong();
+                        stats.get(stat).put(userId, records.readLong());
+                    }
+                    case RECORD_ADD_OWNED -> {
+                        Owned ownedType = Owned.values()[records.readByte()];
+                        long userId = records.readLong();
+                        owned.get(ownedType).computeIfAbsent(userId, k -> new ArrayList<>()).add(records.readUTF());
+                    }
+                    case RECORD_REMOVE_USER -> {
+                        long userId = records.readLong();
+                        for (LongLongHashMap values : stats.values()) values.remove(userId);
+                        for (Map<Long, List<String>> items : owned.values()) items.remove(userId);
+                    }
+                    default -> throw new IOException("Unknown record type " + type + " in journal " + path);
+                }
+
+                count++;
+            }
+        } catch (EOFException e) {
+            // the bot stopped while writing this record
+            logger.warn("Journal {} ends with a partial record, ignoring it", path);
+        }
+
+        return count;
+    }
+
+    private JSONObject toJson() {
+        JSONObject state = new JSONObject();
+
+        for (Stat stat : Stat.values()) {
+            JSONObject values = new JSONObject();
+            stats.get(stat).forEach((userId, value) -> values.put(Long.toString(userId), value));
+            state.put(stat.name(), values);
+        }
+        for (Owned type : Owned.values()) {
+            JSONObject items = new JSONObject();
+            owned.get(type).forEach((userId, list) -> items.put(Long.toString(userId), new JSONArray(list)));
+            state.put(type.name(), items);
+        }
+
+        return state;
+    }
+
+    /**
+     * @return the generation of the first journal that was written after this snapshot
+     */
+    private int loadSnapshot() throws IOException {
+        JSONObject state;
+        try (BufferedReader br = Files.newBufferedReader(snapshotPath)) {
+            state = new JSONObject(new JSONTokener(br));
+        }
+
+        for (Stat stat : Stat.values()) {
+            JSONObject values = state.getJSONObject(stat.name());
+            for (String userId : values.keySet()) {
+                stats.get(stat).put(Long.parseLong(userId), values.getLong(userId));
+            }
+        }
+        for (Owned type : Owned.values()) {
+            JSONObject items = state.getJSONObject(type.name());
+            for (String userId : items.keySet()) {
+                List<String> list = new ArrayList<>();
+                for (Object item : items.getJSONArray(userId)) list.add((String) item);
+                owned.get(type).put(Long.parseLong(userId), list);
+            }
+        }
+
+        return state.getInt("journalGeneration");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadLegacy(Path legacyPath) throws IOException {
+        try (ObjectInputStream stream = new ObjectInputStream(Files.newInputStream(legacyPath))) {
+            loadLegacyNumbers(Stat.CASH, (ConcurrentHashMap<Long, Long>) stream.readObject());
+            loadLegacyNumbers(Stat.XP, (ConcurrentHashMap<Long, Long>) stream.readObject());
+            loadLegacyNumbers(Stat.REP, (ConcurrentHashMap<Long, Long>) stream.readObject());
+            loadLegacyDates(Stat.LAST_DAILY_AT, (ConcurrentHashMap<Long, ZonedDateTime>) stream.readObject());
+            loadLegacyDates(Stat.LAST_REP_AT, (ConcurrentHashMap<Long, ZonedDateTime>) stream.readObject());
+            owned.get(Owned.BACKGROUNDS).putAll((ConcurrentHashMap<Long, ArrayList<String>>) stream.readObject());
+            loadLegacyNumbers(Stat.DAILY_STREAK, (ConcurrentHashMap<Long, Integer>) stream.readObject());
+            owned.get(Owned.GAME_BACKGROUNDS).putAll((ConcurrentHashMap<Long, ArrayList<String>>) stream.readObject());
+
+            for (Map.Entry<Long, ArrayList<Long>> entry : ((ConcurrentHashMap<Long, ArrayList<Long>>) stream.readObject()).entrySet()) {
+                owned.get(Owned.PAID_ROLES).put(entry.getKey(), new ArrayList<>(entry.getValue().stream().map(Object::toString).toList()));
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void loadLegacyNumbers(Stat stat, Map<Long, ? extends Number> values) {
+        values.forEach((userId, value) -> stats.get(stat).put(userId, value.longValue()));
+    }
+
+    private void loadLegacyDates(Stat stat, Map<Long, ZonedDateTime> values) {
+        values.forEach((userId, value) -> stats.get(stat).put(userId, value.toInstant().toEpochMilli()));
+    }
+}
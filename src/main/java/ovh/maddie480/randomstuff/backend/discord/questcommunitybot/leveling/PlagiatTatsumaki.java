@@ -6,7 +6,6 @@ import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.utils.FileUpload;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.Nullable;
@@ -17,6 +16,7 @@ import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.Utils;
 import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.gamestats.GameDB;
 import ovh.maddie480.randomstuff.backend.discord.questcommunitybot.gamestats.GamestatsManager;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
+import ovh.maddie480.randomstuff.backend.utils.Leaderboard;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
@@ -38,6 +38,7 @@ import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
 import java.text.DecimalFormat;
 import java.time.Instant;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
@@ -49,15 +50,18 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static java.awt.Image.SCALE_SMOOTH;
 import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 import static java.time.temporal.ChronoUnit.DAYS;
+import static ovh.maddie480.randomstuff.backend.discord.questcommunitybot.leveling.LevelingStore.Owned.*;
+import static ovh.maddie480.randomstuff.backend.discord.questcommunitybot.leveling.LevelingStore.Stat.*;
 
 public class PlagiatTatsumaki {
     private static final Logger logger = LoggerFactory.getLogger(PlagiatTatsumaki.class);
 
     private static final DecimalFormat separated = new DecimalFormat("#,##0");
 
+    private static final ProfileImageCache imageCache = new ProfileImageCache();
+
     private final GamestatsManager gamestatsManager;
 
     public PlagiatTatsumaki(GamestatsManager gamestatsManager, Guild guild) throws IOException {
@@ -111,19 +115,8 @@ public class PlagiatTatsumaki {
                 0
         );
 
+        store = new LevelingStore(Paths.get("tatsumaclone.json"), Paths.get("tatsumaclone.ser"));
         load(guild);
-        logger.debug("""
-                        Les stats Tatsumaki ont été chargées :\s
-                        cash = {}
-                        xp = {}
-                        rep = {}
-                        lastDailyAt = {}
-                        lastRepAt = {}
-                        boughtBackgrounds = {}
-                        dailyStreak = {}
-                        boughtGameBackgrounds = {}
-                        ownedPaidRoles = {}""",
-                cash, xp, rep, lastDailyAt, lastRepAt, boughtBackgrounds, dailyStreak, boughtGameBackgrounds, ownedPaidRoles);
     }
 
     // =============
@@ -142,13 +135,6 @@ public class PlagiatTatsumaki {
         }
     }
 
-    private static class UserAndScore {
-        long id;
-        long rank;
-        String userName;
-        long score;
-    }
-
     private static class Background {
         final String fileName;
         final String name;
@@ -167,59 +153,36 @@ public class PlagiatTatsumaki {
         }
     }
 
-    private ConcurrentHashMap<Long, Long> cash = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, Long> xp = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, Long> rep = new ConcurrentHashMap<>();
+    private final LevelingStore store;
 
     private final ConcurrentHashMap<Long, ZonedDateTime> lastSpokeAt = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, ZonedDateTime> lastDailyAt = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, ZonedDateTime> lastRepAt = new ConcurrentHashMap<>();
 
-    private ConcurrentHashMap<Long, ArrayList<String>> boughtBackgrounds = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, Integer> dailyStreak = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, ArrayList<String>> boughtGameBackgrounds = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Long, ArrayList<Long>> ownedPaidRoles = new ConcurrentHashMap<>();
+    // pour exclure les bots du classement
+    private final Set<Long> botIds = ConcurrentHashMap.newKeySet();
 
     private final ConcurrentHashMap<Long, PendingTransaction> transactions = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Long, PendingTransaction> buyBackgroundTransactions = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Long, PendingTransaction> buyRoleTransactions = new ConcurrentHashMap<>();
 
     private void load(Guild guild) throws IOException {
-        try (ObjectInputStream stream = new ObjectInputStream(new FileInputStream("tatsumaclone.ser"))) {
-            cash = (ConcurrentHashMap<Long, Long>) stream.readObject();
-            xp = (ConcurrentHashMap<Long, Long>) stream.readObject();
-            rep = (ConcurrentHashMap<Long, Long>) stream.readObject();
-            lastDailyAt = (ConcurrentHashMap<Long, ZonedDateTime>) stream.readObject();
-            lastRepAt = (ConcurrentHashMap<Long, ZonedDateTime>) stream.readObject();
-            boughtBackgrounds = (ConcurrentHashMap<Long, ArrayList<String>>) stream.readObject();
-            dailyStreak = (ConcurrentHashMap<Long, Integer>) stream.readObject();
-            boughtGameBackgrounds = (ConcurrentHashMap<Long, ArrayList<String>>) stream.readObject();
-            ownedPaidRoles = (ConcurrentHashMap<Long, ArrayList<Long>>) stream.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new IOException(e);
-        }
-
-        if (ownedPaidRoles.isEmpty()) {
+        if (store.isEmpty(PAID_ROLES)) {
             logger.info("Initializing ownedPaidRoles map");
             for (Member member : guild.getMembers()) {
-                List<Long> allPaidRoles = member.getRoles().stream()
+                member.getRoles().stream()
                         .filter(userRole -> roleIds.contains(userRole.getIdLong())
                                 && rolePrices.get(roleIds.indexOf(userRole.getIdLong())) != 0)
-                        .map(Role::getIdLong)
-                        .toList();
-
-                if (!allPaidRoles.isEmpty()) {
-                    ownedPaidRoles.put(member.getUser().getIdLong(), new ArrayList<>(allPaidRoles));
-                }
+                        .forEach(role -> store.addOwned(PAID_ROLES, member.getUser().getIdLong(), role.getId()));
             }
         }
 
-        for (Map<Long, ?> map : Arrays.asList(cash, xp, rep, lastDailyAt, lastRepAt, boughtBackgrounds, dailyStreak, boughtGameBackgrounds, ownedPaidRoles)) {
-            for (Long l : new ArrayList<>(map.keySet())) {
-                if (guild.getMemberById(l) == null) {
-                    logger.warn("On oublie l'utilisateur {} qui n'existe plus !", l);
-                    map.remove(l);
-                }
+        for (Member member : guild.getMembers()) {
+            if (member.getUser().isBot()) botIds.add(member.getIdLong());
+        }
+
+        for (long l : store.getUsers()) {
+            if (guild.getMemberById(l) == null) {
+                logger.warn("On oublie l'utilisateur {} qui n'existe plus !", l);
+                store.removeUser(l);
             }
         }
 
@@ -234,23 +197,11 @@ public class PlagiatTatsumaki {
             }
         }
 
-        save();
+        store.snapshot();
     }
 
-    private void save() {
-        try (ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream("tatsumaclone.ser"))) {
-            stream.writeObject(cash);
-            stream.writeObject(xp);
-            stream.writeObject(rep);
-            stream.writeObject(lastDailyAt);
-            stream.writeObject(lastRepAt);
-            stream.writeObject(boughtBackgrounds);
-            stream.writeObject(dailyStreak);
-            stream.writeObject(boughtGameBackgrounds);
-            stream.writeObject(ownedPaidRoles);
-        } catch (IOException e) {
-            logger.error("Impossible de sauver les statistiques Tatsumaki", e);
-        }
+    private ZonedDateTime getTime(LevelingStore.Stat stat, long userId) {
+        return Instant.ofEpochMilli(store.get(stat, userId)).atZone(ZoneId.systemDefault());
     }
 
     public void onMessageReceived(MessageReceivedEvent message) {
@@ -259,23 +210,18 @@ public class PlagiatTatsumaki {
         if (!lastSpokeAt.containsKey(authorId) ||
                 lastSpokeAt.get(authorId).plusMinutes(2).isBefore(ZonedDateTime.now())) {
 
-            long oldExp = xp.getOrDefault(authorId, 0L);
+            if (message.getAuthor().isBot()) botIds.add(authorId);
 
-            int level = 0;
-            while (oldExp >= getLevelXP(level + 1)) {
-                level++;
-            }
+            long oldExp = store.get(XP, authorId);
+
+            int level = getLevel(oldExp);
             long nextLevel = getLevelXP(level + 1);
 
             int expGet = (int) (Math.random() * 11 + 10);
-            long newExp = oldExp + expGet;
-            xp.put(authorId, newExp);
+            long newExp = store.add(XP, authorId, expGet);
             lastSpokeAt.put(authorId, ZonedDateTime.now());
 
-            long newCash = cash.getOrDefault(authorId, 0L) + 1;
-            cash.put(authorId, newCash);
-
-            save();
+            long newCash = store.add(CASH, authorId, 1);
 
             logger.debug("{} a obtenu {} exp en parlant, et en possède maintenant {}, il/elle a {} pièces. Seuil de niveau = {}", message.getAuthor(), expGet, newExp, newCash, nextLevel);
 
@@ -290,11 +236,11 @@ public class PlagiatTatsumaki {
     void daily(MessageChannel channel, User author) {
         long authorId = author.getIdLong();
 
-        if (!lastDailyAt.containsKey(authorId) ||
-                lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
+        if (!store.has(LAST_DAILY_AT, authorId) ||
+                getTime(LAST_DAILY_AT, authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
 
-            int streakStatus = dailyStreak.getOrDefault(authorId, 0);
-            if (lastDailyAt.containsKey(authorId) && lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(2).isAfter(ZonedDateTime.now())) {
+            int streakStatus = (int) store.get(DAILY_STREAK, authorId);
+            if (store.has(LAST_DAILY_AT, authorId) && getTime(LAST_DAILY_AT, authorId).truncatedTo(DAYS).plusDays(2).isAfter(ZonedDateTime.now())) {
                 // le dernier daily date d'hier
                 streakStatus++;
             } else {
@@ -302,12 +248,9 @@ public class PlagiatTatsumaki {
                 streakStatus = 1;
             }
 
-            long newCash = cash.getOrDefault(authorId, 0L);
-            newCash += 200;
-            if (streakStatus == 7) newCash += 350;
-            cash.put(authorId, newCash);
+            long newCash = store.add(CASH, authorId, streakStatus == 7 ? 550 : 200);
 
-            lastDailyAt.put(authorId, ZonedDateTime.now());
+            store.set(LAST_DAILY_AT, authorId, System.currentTimeMillis());
 
             String intro = "**" + author.getName() + "**, tu as gagné 200 pièces !";
             String credit = "\nTon crédit est maintenant de **" + separated.format(newCash) + "** pièces.";
@@ -323,12 +266,11 @@ public class PlagiatTatsumaki {
                 message = intro + credit + streakBar;
             }
 
-            dailyStreak.put(authorId, streakStatus);
-            save();
+            store.set(DAILY_STREAK, authorId, streakStatus);
 
             channel.sendMessage(message).queue();
         } else {
-            ZonedDateTime timeDailyAvailable = lastDailyAt.get(authorId).truncatedTo(DAYS).plusDays(1);
+            ZonedDateTime timeDailyAvailable = getTime(LAST_DAILY_AT, authorId).truncatedTo(DAYS).plusDays(1);
 
             long minutes = Instant.now().until(timeDailyAvailable.toInstant(), ChronoUnit.MINUTES);
 
@@ -354,20 +296,18 @@ public class PlagiatTatsumaki {
             return;
         }
 
-        if (!lastRepAt.containsKey(authorId) ||
-                lastRepAt.get(authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
+        if (!store.has(LAST_REP_AT, authorId) ||
+                getTime(LAST_REP_AT, authorId).truncatedTo(DAYS).plusDays(1).isBefore(ZonedDateTime.now())) {
 
-            long newRep = rep.getOrDefault(receiverId, 0L);
-            newRep++;
-            rep.put(receiverId, newRep);
+            if (receiver.isBot()) botIds.add(receiverId);
+            long newRep = store.add(REP, receiverId, 1);
 
-            lastRepAt.put(authorId, ZonedDateTime.now());
-            save();
+            store.set(LAST_REP_AT, authorId, System.currentTimeMillis());
 
             channel.sendMessage("**" + author.getName() + "**, tu as donné un point de réputation à <@" + receiverId + "> !\nIl/elle a maintenant **"
                     + separated.format(newRep) + "** " + (newRep == 1 ? "point" : "points") + " de réputation.").queue();
         } else {
-            ZonedDateTime timeRepAvailable = lastRepAt.get(authorId).truncatedTo(DAYS).plusDays(1);
+            ZonedDateTime timeRepAvailable = getTime(LAST_REP_AT, authorId).truncatedTo(DAYS).plusDays(1);
 
             long minutes = Instant.now().until(timeRepAvailable.toInstant(), ChronoUnit.MINUTES);
 
@@ -403,7 +343,7 @@ public class PlagiatTatsumaki {
             return;
         }
 
-        long authorCash = cash.getOrDefault(authorId, 0L);
+        long authorCash = store.get(CASH, authorId);
         if (authorCash < amount) {
             channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                     separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
@@ -443,21 +383,15 @@ public class PlagiatTatsumaki {
             PendingTransaction transaction = transactions.remove(messageId);
             logger.debug("Cleared transaction confirmation, new map = {}", transactions);
 
-            long authorCash = cash.getOrDefault(transaction.from, 0L);
+            long authorCash = store.get(CASH, transaction.from);
             if (authorCash < transaction.amount) {
                 channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                         separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
                 return true;
             }
 
-            authorCash -= transaction.amount;
-            cash.put(transaction.from, authorCash);
-
-            long receiverCash = cash.getOrDefault(transaction.to, 0L);
-            receiverCash += transaction.amount;
-            cash.put(transaction.to, receiverCash);
-
-            save();
+            store.add(CASH, transaction.from, -transaction.amount);
+            long receiverCash = store.add(CASH, transaction.to, transaction.amount);
 
             channel.sendMessage("<@" + transaction.to + ">, **" + author.getName() + "** vient de te donner " +
                     separated.format(transaction.amount) + (transaction.amount == 1 ? " pièce" : " pièces") + " ! Tu as maintenant " +
@@ -475,7 +409,7 @@ public class PlagiatTatsumaki {
             PendingTransaction transaction = buyBackgroundTransactions.remove(messageId);
             logger.debug("Cleared transaction confirmation, new map = {}", buyBackgroundTransactions);
 
-            long authorCash = cash.getOrDefault(transaction.from, 0L);
+            long authorCash = store.get(CASH, transaction.from);
             if (authorCash < transaction.amount) {
                 channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                         separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
@@ -498,12 +432,9 @@ public class PlagiatTatsumaki {
                                     new FileOutputStream("backgrounds_user" + File.separator + author.getIdLong() + ".png"));
                         }
 
-                        ArrayList<String> boughtBackgroundsForUser = boughtGameBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>());
-                        boughtBackgroundsForUser.add(transaction.backgroundNameUrlEncoded);
-                        boughtGameBackgrounds.put(author.getIdLong(), boughtBackgroundsForUser);
+                        store.addOwned(GAME_BACKGROUNDS, author.getIdLong(), transaction.backgroundNameUrlEncoded);
 
                         purgeBackgrounds();
-                        save();
 
                         channel.sendMessage(":white_check_mark: Ton arrière-plan est maintenant **" +
                                 URLDecoder.decode(transaction.backgroundNameUrlEncoded, StandardCharsets.UTF_8) + "** !").queue();
@@ -517,24 +448,18 @@ public class PlagiatTatsumaki {
                                 Paths.get("backgrounds_user", author.getIdLong() + ".png"),
                                 StandardCopyOption.REPLACE_EXISTING);
 
-                        ArrayList<String> boughtBackgroundsForUser = boughtBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>());
-                        boughtBackgroundsForUser.add(matchingBackground.nameUrlEncoded);
-                        boughtBackgrounds.put(author.getIdLong(), boughtBackgroundsForUser);
+                        store.addOwned(BACKGROUNDS, author.getIdLong(), matchingBackground.nameUrlEncoded);
 
                         purgeBackgrounds();
-                        save();
 
                         channel.sendMessage(":white_check_mark: Ton arrière-plan est maintenant **" + matchingBackground.name + "** !").queue();
                     }
 
-                    authorCash -= transaction.amount;
-                    cash.put(transaction.from, authorCash);
+                    store.add(CASH, transaction.from, -transaction.amount);
 
                     if (transaction.to != -1 && matchingBackground != null) {
                         int wonAmount = (int) (transaction.amount * 0.8);
-                        long receiverCash = cash.getOrDefault(transaction.to, 0L);
-                        receiverCash += wonAmount;
-                        cash.put(transaction.to, receiverCash);
+                        store.add(CASH, transaction.to, wonAmount);
 
                         User backgroundAuthor = channel.getJDA().getUserById(transaction.to);
                         if (backgroundAuthor != null) {
@@ -544,8 +469,6 @@ public class PlagiatTatsumaki {
                                             + wonAmount + (wonAmount == 1 ? " pièce.**" : " pièces.**")).queue());
                         }
                     }
-
-                    save();
                 }
             } catch (IOException e) {
                 logger.error("Une erreur est survenue lors de l'achat de l'AP", e);
@@ -564,15 +487,14 @@ public class PlagiatTatsumaki {
             PendingTransaction transaction = buyRoleTransactions.remove(messageId);
             logger.debug("Cleared transaction confirmation, new map = {}", buyRoleTransactions);
 
-            long authorCash = cash.getOrDefault(transaction.from, 0L);
+            long authorCash = store.get(CASH, transaction.from);
             if (authorCash < transaction.amount) {
                 channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                         separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ".").queue();
                 return true;
             }
 
-            authorCash -= transaction.amount;
-            cash.put(transaction.from, authorCash);
+            store.add(CASH, transaction.from, -transaction.amount);
 
             Role role = channel.getJDA().getRoleById(transaction.to);
 
@@ -584,10 +506,7 @@ public class PlagiatTatsumaki {
 
             channel.sendMessage(":white_check_mark: Tu as maintenant le rôle **" + role.getName() + "** !").queue();
 
-            ArrayList<Long> ownedPaidRolesForUser = ownedPaidRoles.getOrDefault(author.getIdLong(), new ArrayList<>());
-            ownedPaidRolesForUser.add(transaction.to);
-            ownedPaidRoles.put(author.getIdLong(), ownedPaidRolesForUser);
-            save();
+            store.addOwned(PAID_ROLES, author.getIdLong(), Long.toString(transaction.to));
 
             return true;
         }
@@ -597,63 +516,46 @@ public class PlagiatTatsumaki {
 
     void getRanking(MessageChannel channel, User author, boolean byXp, boolean byCash, boolean includeBots) {
         String unit;
-        ConcurrentHashMap<Long, Long> source;
+        LevelingStore.Stat source;
         String rankingBy;
 
         if (byXp) {
             rankingBy = "XP";
             unit = "point";
-            source = xp;
+            source = XP;
         } else if (byCash) {
             rankingBy = "nombre de pièces";
             unit = "pièce";
-            source = cash;
+            source = CASH;
         } else {
             rankingBy = "réputation";
             unit = "point";
-            source = rep;
+            source = REP;
         }
 
-        List<UserAndScore> fullRanking = new ArrayList<>(source.size());
-        for (Map.Entry<Long, Long> entry : source.entrySet()) {
-            User user = channel.getJDA().getUserById(entry.getKey());
-
-            // si l'utilisateur est un bot, on l'enlève du classement si les bots ne sont pas inclus
-            if (user != null && user.isBot() && !includeBots) continue;
+        Set<Long> excluded = includeBots ? Collections.emptySet() : botIds;
+        List<Leaderboard.Entry> top = store.getTop(source, 10, excluded);
 
-            UserAndScore score = new UserAndScore();
-            score.id = entry.getKey();
-            score.userName = (user == null ? "[utilisateur inconnu]" : user.getName());
-            score.score = entry.getValue();
-            fullRanking.add(score);
-        }
-        fullRanking.sort(Comparator.comparing(item -> -item.score));
+        StringBuilder ranking = new StringBuilder();
+        for (int rank = 1; rank <= top.size(); rank++) {
+            Leaderboard.Entry entry = top.get(rank - 1);
+            User user = channel.getJDA().getUserById(entry.id());
 
-        for (int rank = 0; rank < fullRanking.size(); rank++) {
-            fullRanking.get(rank).rank = rank + 1;
+            if (rank != 1) ranking.append("\n");
+            ranking.append(rank == 1 ? "1er" : rank + "ème")
+                    .append(" - **")
+                    .append(user == null ? "[utilisateur inconnu]" : user.getName())
+                    .append("** avec ")
+                    .append(separated.format(entry.score())).append(" ").append(unit).append(entry.score() == 1 ? "" : "s");
         }
 
-        String ranking = fullRanking.stream()
-                .limit(10)
-                .map(user ->
-                        (user.rank == 1 ? "1er" : user.rank + "ème")
-                                + " - **"
-                                + user.userName
-                                + "** avec "
-                                + separated.format(user.score) + " " + unit + (user.score == 1 ? "" : "s")
-                )
-                .collect(Collectors.joining("\n"));
-
-        UserAndScore currentUser = fullRanking.stream()
-                .filter(user -> user.id == author.getIdLong())
-                .findFirst()
-                .orElse(null);
-
-        if (currentUser != null) {
-            ranking += "\n\nTon classement sur le serveur : **"
-                    + (currentUser.rank == 1 ? "1er" : currentUser.rank + "ème")
-                    + "** avec "
-                    + separated.format(currentUser.score) + " " + unit + (currentUser.score == 1 ? "" : "s");
+        int currentUserRank = store.getRank(source, author.getIdLong(), excluded);
+        if (currentUserRank != 0) {
+            long currentUserScore = store.get(source, author.getIdLong());
+            ranking.append("\n\nTon classement sur le serveur : **")
+                    .append(currentUserRank == 1 ? "1er" : currentUserRank + "ème")
+                    .append("** avec ")
+                    .append(separated.format(currentUserScore)).append(" ").append(unit).append(currentUserScore == 1 ? "" : "s");
         }
 
         channel.sendMessage("__**Classement du serveur par " + rankingBy + "**__\n" + ranking).queue();
@@ -662,8 +564,8 @@ public class PlagiatTatsumaki {
     void getUserProfile(MessageChannel channel, User target) {
         channel.sendTyping().queue();
 
-        long xpUser = xp.getOrDefault(target.getIdLong(), 0L);
-        long repUser = rep.getOrDefault(target.getIdLong(), 0L);
+        long xpUser = store.get(XP, target.getIdLong());
+        long repUser = store.get(REP, target.getIdLong());
 
         Activity currentGame = null;
         Guild guild = Utils.getQuestGuild(channel.getJDA());
@@ -674,34 +576,40 @@ public class PlagiatTatsumaki {
                     .orElse(null);
         }
 
-        BufferedImage image = createImage(xpUser, repUser,
-                gamestatsManager.getUserStatsForProfile(target),
-                currentGame,
-                target.getEffectiveAvatarUrl(), target.getName(), target.getIdLong());
+        Map<String, String> topGames = gamestatsManager.getUserStatsForProfile(target);
+        Activity game = currentGame;
 
-        if (image == null) {
-            channel.sendMessage("Désolé, ça n'a pas fonctionné. :shrug:").queue();
-        } else {
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            try {
+        try {
+            // si rien n'a changé depuis la dernière fois, on renvoie la même image
+            Path customBackground = Paths.get("backgrounds_user", target.getIdLong() + ".png");
+            ProfileImageCache.CardKey key = new ProfileImageCache.CardKey(target.getIdLong(),
+                    Files.exists(customBackground) ? Files.getLastModifiedTime(customBackground).toMillis() : 0,
+                    xpUser, repUser,
+                    topGames.entrySet().stream().map(entry -> Map.entry(entry.getKey(), entry.getValue())).toList(),
+                    currentGame == null ? null : currentGame.getType().name(), currentGame == null ? null : currentGame.getName(),
+                    target.getEffectiveAvatarUrl(), target.getName());
+
+            byte[] card = imageCache.getCard(key, () -> {
+                BufferedImage image = createImage(xpUser, repUser, topGames, game,
+                        target.getEffectiveAvatarUrl(), target.getName(), target.getIdLong());
+                if (image == null) throw new IOException("La création de l'image de profil a échoué");
+
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
                 ImageIO.write(image, "png", stream);
+                return stream.toByteArray();
+            });
 
-                channel.sendMessage("Et voici le profil de **" + target.getName() + "** :")
-                        .addFiles(FileUpload.fromData(stream.toByteArray(), "profil.png")).queue();
-            } catch (IOException e) {
-                logger.error("Impossible de créer l'image de profil", e);
-                channel.sendMessage("Désolé, ça n'a pas fonctionné. :shrug:").queue();
-            }
+            channel.sendMessage("Et voici le profil de **" + target.getName() + "** :")
+                    .addFiles(FileUpload.fromData(card, "profil.png")).queue();
+        } catch (IOException e) {
+            logger.error("Impossible de créer l'image de profil", e);
+            channel.sendMessage("Désolé, ça n'a pas fonctionné. :shrug:").queue();
         }
-
     }
 
     private static BufferedImage createImage(long xp, long rep, Map<String, String> topGames, Activity currentGame,
                                              String avatarUrl, String nick, Long userId) {
-        int level = 0;
-        while (xp >= getLevelXP(level + 1)) {
-            level++;
-        }
+        int level = getLevel(xp);
 
         long xpInLevel = xp - getLevelXP(level);
         long totalXpInLevel = getLevelXP(level + 1) - getLevelXP(level);
@@ -712,32 +620,37 @@ public class PlagiatTatsumaki {
         Graphics2D graphics = image.createGraphics();
 
         try {
-            graphics.setFont(Font.createFont(Font.TRUETYPE_FONT, PlagiatTatsumaki.class.getResourceAsStream("/0.ttf")));
-        } catch (FontFormatException | IOException e) {
+            graphics.setFont(imageCache.getFont("/0.ttf"));
+        } catch (IOException e) {
             logger.error("Impossible de charger la police du profil", e);
             return null;
         }
 
         {
-            // 1. on peint l'arrière-plan
-            BufferedImage arrierePlan = null;
-            if (new File("backgrounds_user" + File.separator + userId + ".png").exists()) {
+            // 1. on peint l'arrière-plan, avec le masque déjà dessiné par-dessus
+            BufferedImage template = null;
+            Path customBackground = Paths.get("backgrounds_user", userId + ".png");
+            if (Files.exists(customBackground)) {
                 try {
-                    arrierePlan = ImageIO.read(new File("backgrounds_user" + File.separator + userId + ".png"));
+                    template = imageCache.getTemplate("user:" + userId + ":" + Files.getLastModifiedTime(customBackground).toMillis(),
+                            () -> ImageIO.read(customBackground.toFile()));
                 } catch (IOException e) {
                     logger.error("Impossible de charger le fond personnalisé {}", userId, e);
                 }
             } else {
                 Queue<String> games = new ArrayDeque<>(topGames.keySet());
-                while (arrierePlan == null && !games.isEmpty()) {
+                while (template == null && !games.isEmpty()) {
                     String game = games.poll();
                     try {
-                        if (new File("/app/static/quest/extra-game-backgrounds" + File.separator + URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png").exists()) {
-                            arrierePlan = ImageIO.read(new File("/app/static/quest/extra-game-backgrounds" + File.separator + URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png"));
+                        Path gameBackground = Paths.get("/app/static/quest/extra-game-backgrounds", URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png");
+                        if (Files.exists(gameBackground)) {
+                            template = imageCache.getTemplate("file:" + gameBackground + ":" + Files.getLastModifiedTime(gameBackground).toMillis(),
+                                    () -> ImageIO.read(gameBackground.toFile()));
                         } else {
                             MessageEmbed embed = GameDB.findGame(game);
                             if (embed != null && embed.getImage() != null) {
-                                arrierePlan = dlImage(embed.getImage().getUrl().replace(".webp", ".png"));
+                                String url = embed.getImage().getUrl().replace(".webp", ".png");
+                                template = imageCache.getTemplate("url:" + url, () -> imageCache.download(url));
                             }
                         }
                     } catch (IOException e) {
@@ -746,21 +659,21 @@ public class PlagiatTatsumaki {
                 }
             }
 
-            if (arrierePlan == null) {
+            if (template == null) {
                 try {
-                    arrierePlan = ImageIO.read(PlagiatTatsumaki.class.getResourceAsStream("/bgdefault.png"));
+                    template = imageCache.getTemplate("default", () -> {
+                        try (InputStream is = PlagiatTatsumaki.class.getResourceAsStream("/bgdefault.png")) {
+                            return ImageIO.read(is);
+                        }
+                    });
                 } catch (IOException e) {
                     logger.error("Impossible de charger le fond par défaut", e);
                 }
             }
 
-            graphics.drawImage(arrierePlan, 0, 0, 512, 512, null);
-        }
-
-        {
             try {
-                // 2. on dessine le masque par-dessus
-                graphics.drawImage(ImageIO.read(PlagiatTatsumaki.class.getResourceAsStream("/Profil.png")), 0, 0, null);
+                // 2. sans arrière-plan, on dessine quand même le masque
+                graphics.drawImage(template != null ? template : imageCache.getResource("/Profil.png"), 0, 0, null);
             } catch (IOException e) {
                 logger.error("Impossible de peindre le masque", e);
                 return null;
@@ -770,7 +683,7 @@ public class PlagiatTatsumaki {
         {
             try {
                 // 3. on peint l'avatar
-                graphics.drawImage(dlImage(avatarUrl + "?size=128").getScaledInstance(98, 98, SCALE_SMOOTH), 207, 12, null);
+                graphics.drawImage(imageCache.getUrl(avatarUrl + "?size=128", 98, 98), 207, 12, null);
             } catch (IOException e) {
                 logger.error("Impossible de peindre l'avatar", e);
                 return null;
@@ -866,12 +779,13 @@ public class PlagiatTatsumaki {
 
                 String game = gameEntry.getKey();
                 try {
-                    if (new File("/app/static/quest/extra-game-logos" + File.separator + URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png").exists()) {
-                        logo = ImageIO.read(new File("/app/static/quest/extra-game-logos" + File.separator + URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png"));
+                    Path logoFile = Paths.get("/app/static/quest/extra-game-logos", URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png");
+                    if (Files.exists(logoFile)) {
+                        logo = imageCache.getFile(logoFile);
                     } else {
                         MessageEmbed embed = GameDB.findGame(game);
                         if (embed != null && embed.getThumbnail() != null) {
-                            logo = dlImage(embed.getThumbnail().getUrl().replace(".webp", ".png?size=32"));
+                            logo = imageCache.getUrl(embed.getThumbnail().getUrl().replace(".webp", ".png?size=32"), -1, -1);
                         }
                     }
                 } catch (IOException e) {
@@ -933,12 +847,13 @@ public class PlagiatTatsumaki {
 
                 String game = currentGame.getName();
                 try {
-                    if (new File("/app/static/quest/extra-game-logos" + File.separator + URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png").exists()) {
-                        logo = ImageIO.read(new File("/app/static/quest/extra-game-logos" + File.separator + URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png"));
+                    Path logoFile = Paths.get("/app/static/quest/extra-game-logos", URLEncoder.encode(game, StandardCharsets.UTF_8) + ".png");
+                    if (Files.exists(logoFile)) {
+                        logo = imageCache.getFile(logoFile);
                     } else {
                         MessageEmbed embed = GameDB.findGame(game);
                         if (embed != null && embed.getImage() != null) {
-                            logo = dlImage(embed.getThumbnail().getUrl().replace(".webp", ".png?size=32"));
+                            logo = imageCache.getUrl(embed.getThumbnail().getUrl().replace(".webp", ".png?size=32"), -1, -1);
                         }
                     }
                 } catch (IOException e) {
@@ -1015,9 +930,8 @@ public class PlagiatTatsumaki {
         Font fallbackFont = new Font("Monospace", Font.BOLD, (int) (defaultFont.getSize() * 1.3));
         Font actualEmojiFont;
         try {
-            Font emojiFont = Font.createFont(Font.TRUETYPE_FONT, PlagiatTatsumaki.class.getResourceAsStream("/NotoEmoji-Regular.ttf"));
-            actualEmojiFont = emojiFont.deriveFont(defaultFont.getSize() * 1.3f);
-        } catch (FontFormatException | IOException e) {
+            actualEmojiFont = imageCache.getFont("/NotoEmoji-Regular.ttf").deriveFont(defaultFont.getSize() * 1.3f);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
@@ -1063,32 +977,25 @@ public class PlagiatTatsumaki {
         return string;
     }
 
-    private static BufferedImage dlImage(String url) throws IOException {
-        File cacheFile = new File("/tmp/profile_image_cache/" + URLEncoder.encode(url, StandardCharsets.UTF_8));
-        if (cacheFile.exists()) {
-            logger.debug("Reading {} from cache", url);
-            return ImageIO.read(cacheFile);
-        }
-
-        logger.debug("Downloading {}", url);
-
-        try (InputStream is = ConnectionUtils.openStreamWithTimeout(url)) {
-            byte[] imageBytes = IOUtils.toByteArray(is);
-
-            // on l'enregistre en cache
-            Files.createDirectories(cacheFile.getParentFile().toPath());
-            FileUtils.writeByteArrayToFile(cacheFile, imageBytes);
-
-            return ImageIO.read(new ByteArrayInputStream(imageBytes));
-        }
+    private static long getLevelXP(int level) {
+        long root = level * 9L;
+        return root * root;
     }
 
-    private static long getLevelXP(int level) {
-        return (long) Math.pow(level * 9, 2);
+    /**
+     * Donne le niveau technique correspondant à l'XP, c'est-à-dire le plus grand niveau tel que getLevelXP(niveau) <= xp.
+     */
+    private static int getLevel(long xp) {
+        int level = (int) (Math.sqrt(xp) / 9);
+
+        // corriger les erreurs d'arrondi de la racine carrée
+        while (level > 0 && getLevelXP(level) > xp) level--;
+        while (getLevelXP(level + 1) <= xp) level++;
+        return level;
     }
 
     void getUserCash(MessageChannel channel, User target, boolean other) {
-        long argent = cash.getOrDefault(target.getIdLong(), 0L);
+        long argent = store.get(CASH, target.getIdLong());
         channel.sendMessage("**" + target.getName()
                 + (other ? "** a **" : "**, tu as **")
                 + separated.format(argent)
@@ -1104,7 +1011,7 @@ public class PlagiatTatsumaki {
         if (matchingBackground == null) {
             channel.sendMessage("L'arrière-plan **" + backgroundName + "** est introuvable.").queue();
         } else {
-            if (boughtBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>()).contains(matchingBackground.nameUrlEncoded)) {
+            if (store.owns(BACKGROUNDS, author.getIdLong(), matchingBackground.nameUrlEncoded)) {
                 logger.debug("cp /app/static/quest/background-repository{}{} backgrounds_user{}{}.png", File.separator, matchingBackground.fileName, File.separator, author.getIdLong());
 
                 Files.copy(
@@ -1116,7 +1023,7 @@ public class PlagiatTatsumaki {
                 channel.sendMessage(":white_check_mark: Ton arrière-plan est maintenant **" + matchingBackground.name + "** !").queue();
             } else {
                 // déclencher l'achat
-                long authorCash = cash.getOrDefault(authorId, 0L);
+                long authorCash = store.get(CASH, authorId);
                 if (authorCash < matchingBackground.price) {
                     channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                             separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ", et cet arrière-plan en coûte " +
@@ -1164,14 +1071,16 @@ public class PlagiatTatsumaki {
         GameBackground matchingBackground = resolveGameBackground(nameUrlEncoded, true);
 
         if (matchingBackground == null) {
-            channel.sendMessage("Je n'ai pas d'arrière-plan pour le jeu **" + gameName + "**.").queue();
+            List<String> suggestions = GameDB.suggestGames(gameName, 3, true);
+            channel.sendMessage("Je n'ai pas d'arrière-plan pour le jeu **" + gameName + "**."
+                    + (suggestions.isEmpty() ? "" : " Tu voulais peut-être dire : **" + String.join("**, **", suggestions) + "** ?")).queue();
         } else {
             gameName = URLDecoder.decode(matchingBackground.gameNameUrlEncoded, StandardCharsets.UTF_8);
 
             try (InputStream is = ConnectionUtils.openStreamWithTimeout(matchingBackground.backgroundUrl)) {
                 channel.sendTyping().queue();
 
-                if (boughtGameBackgrounds.getOrDefault(author.getIdLong(), new ArrayList<>()).contains(matchingBackground.gameNameUrlEncoded)) {
+                if (store.owns(GAME_BACKGROUNDS, author.getIdLong(), matchingBackground.gameNameUrlEncoded)) {
                     logger.debug("On télécharge {} vers backgrounds_user{}{}.png", matchingBackground.backgroundUrl, File.separator, author.getIdLong());
 
                     IOUtils.copy(
@@ -1182,7 +1091,7 @@ public class PlagiatTatsumaki {
                     channel.sendMessage(":white_check_mark: Ton arrière-plan est maintenant **" + gameName + "** !").queue();
                 } else {
                     // déclencher l'achat
-                    long authorCash = cash.getOrDefault(authorId, 0L);
+                    long authorCash = store.get(CASH, authorId);
                     if (authorCash < GAME_BG_PRICE) {
                         channel.sendMessage("Désolé " + author.getName() + ", tu n'as pas assez d'argent ! Tu as " +
                                 separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ", et cet arrière-plan en coûte " +
@@ -1294,7 +1203,7 @@ public class PlagiatTatsumaki {
         try (Stream<Path> list = Files.list(backgroundRepositoryDirectory)) {
             ownedBackgrounds = list
                     .map(n -> new Background(n.getFileName().toString()))
-                    .filter(bg -> boughtBackgrounds.getOrDefault(userId, new ArrayList<>()).contains(bg.nameUrlEncoded))
+                    .filter(bg -> store.owns(BACKGROUNDS, userId, bg.nameUrlEncoded))
                     .map(background -> background.fileName)
                     .sorted()
                     .collect(Collectors.joining("\n"));
@@ -1304,7 +1213,7 @@ public class PlagiatTatsumaki {
         try (Stream<Path> list = Files.list(backgroundRepositoryDirectory)) {
             unownedBackgrounds = list
                     .map(n -> new Background(n.getFileName().toString()))
-                    .filter(bg -> !boughtBackgrounds.getOrDefault(userId, new ArrayList<>()).contains(bg.nameUrlEncoded))
+                    .filter(bg -> !store.owns(BACKGROUNDS, userId, bg.nameUrlEncoded))
                     .map(background -> background.fileName)
                     .sorted()
                     .collect(Collectors.joining("\n"));
@@ -1327,12 +1236,12 @@ public class PlagiatTatsumaki {
                     .collect(Collectors.joining("\n"));
         }
 
-        long amount = cash.getOrDefault(userId, 0L);
+        long amount = store.get(CASH, userId);
 
         GameBackground defaultGame = resolveDefaultGame(jda, userId);
         AtomicBoolean boughtDefaultBg = new AtomicBoolean(false);
 
-        String gameBackgrounds = boughtGameBackgrounds.getOrDefault(userId, new ArrayList<>()).stream()
+        String gameBackgrounds = store.getOwned(GAME_BACKGROUNDS, userId).stream()
                 .sorted()
                 .map(game -> {
                     if (defaultGame != null && game.equals(defaultGame.gameNameUrlEncoded)) boughtDefaultBg.set(true);
@@ -1345,7 +1254,7 @@ public class PlagiatTatsumaki {
                 .collect(Collectors.joining("\n"));
 
         if (defaultGame == null &&
-                !boughtGameBackgrounds.getOrDefault(userId, new ArrayList<>()).contains("QUEST")) {
+                !store.owns(GAME_BACKGROUNDS, userId, "QUEST")) {
 
             gameBackgrounds = "default;QUEST;https://maddie480.ovh/quest/game_backgrounds/QUEST.png\n" + gameBackgrounds;
         }
@@ -1518,8 +1427,7 @@ public class PlagiatTatsumaki {
         } else {
             logger.debug("Rôle payant");
 
-            if (ownedPaidRoles.getOrDefault(member.getUser().getIdLong(), new ArrayList<>())
-                    .contains(correspondingRole.getIdLong())) {
+            if (store.owns(PAID_ROLES, member.getUser().getIdLong(), correspondingRole.getId())) {
 
                 logger.debug("L'utilisateur a déjà acheté le rôle");
 
@@ -1533,7 +1441,7 @@ public class PlagiatTatsumaki {
                 String authorName = member.getUser().getName();
 
                 // déclencher l'achat
-                long authorCash = cash.getOrDefault(authorId, 0L);
+                long authorCash = store.get(CASH, authorId);
                 if (authorCash < correspondingRolePrice) {
                     channel.sendMessage("Désolé " + authorName + ", tu n'as pas assez d'argent ! Tu as " +
                             separated.format(authorCash) + (authorCash == 1 ? " pièce" : " pièces") + ", et ce rôle en coûte " +
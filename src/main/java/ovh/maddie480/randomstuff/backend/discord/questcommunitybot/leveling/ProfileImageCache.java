@@ -0,0 +1,256 @@
+package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.leveling;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+
+/**
+ * Keeps everything that goes into profile cards in memory, so that showing a profile doesn't decode the same images
+ * over and over: fonts, images already scaled to the size they are drawn at, backgrounds with the profile mask
+ * already drawn on top of them, and the cards themselves as long as the stats they show don't change.
+ * Downloaded images are also kept on disk, up to a maximum size.
+ */
+class ProfileImageCache {
+    private static final Logger logger = LoggerFactory.getLogger(ProfileImageCache.class);
+
+    private static final Path DISK_CACHE = Paths.get("/tmp/profile_image_cache");
+    private static final long MAX_DISK_CACHE_SIZE = 200 * 1024 * 1024;
+
+    interface ImageLoader {
+        BufferedImage load() throws IOException;
+    }
+
+    interface CardRenderer {
+        byte[] render() throws IOException;
+    }
+
+    /**
+     * Everything that is shown on a profile card.
+     * The background depends on the custom background file if there is one, or the top games otherwise.
+     */
+    record CardKey(long userId, long customBackgroundModifiedAt, long xp, long rep, List<Map.Entry<String, String>> topGames,
+                   String activityType, String activityName, String avatarUrl, String nick) {
+    }
+
+    private final Map<String, Font> fonts = new HashMap<>();
+    private final Map<String, BufferedImage> images = lruMap(256);
+    private final Map<String, BufferedImage> templates = lruMap(16);
+    private final Map<CardKey, byte[]> cards = lruMap(64);
+
+    private final AtomicLong cardHits = new AtomicLong(0);
+    private final AtomicLong renderCount = new AtomicLong(0);
+    private final AtomicLong totalRenderNanos = new AtomicLong(0);
+
+    private static <K, V> Map<K, V> lruMap(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a TrueType font from the resources.
+     */
+    Font getFont(String resourceName) throws IOException {
+        synchronized (fonts) {
+            Font font = fonts.get(resourceName);
+            if (font == null) {
+                try (InputStream is = ProfileImageCache.class.getResourceAsStream(resourceName)) {
+                    font = Font.createFont(Font.TRUETYPE_FONT, is);
+                } catch (FontFormatException e) {
+                    throw new IOException(e);
+                }
+                fonts.put(resourceName, font);
+            }
+            return font;
+        }
+    }
+
+    /**
+     * Gets the card for the given stats if it was rendered already, or renders it.
+     */
+    byte[] getCard(CardKey key, CardRenderer renderer) throws IOException {
+        synchronized (cards) {
+            byte[] card = cards.get(key);
+            if (card != null) {
+                logger.debug("Profile card of {} is in cache ({} hits so far)", key.userId(), cardHits.incrementAndGet());
+                return card;
+            }
+        }
+
+        long start = System.nanoTime();
+        byte[] card = renderer.render();
+        long renderTime = System.nanoTime() - start;
+
+        long renders = renderCount.incrementAndGet();
+        long totalRenderTime = totalRenderNanos.addAndGet(renderTime);
+        logger.info("Profile card of {} rendered in {} ms (average {} ms over {} renders, {} cache hits)",
+                key.userId(), renderTime / 1_000_000, totalRenderTime / renders / 1_000_000, renders, cardHits.get());
+
+        synchronized (cards) {
+            cards.put(key, card);
+        }
+        return card;
+    }
+
+    /**
+     * Gets the background with the profile mask drawn on top of it.
+     *
+     * @param key    identifies the background, and should change if the background does
+     * @param loader loads the background, or returns null if it is not a valid image
+     * @return the template, or null if the background could not be loaded
+     */
+    BufferedImage getTemplate(String key, ImageLoader loader) throws IOException {
+        synchronized (templates) {
+            BufferedImage template = templates.get(key);
+            if (template != null) return template;
+        }
+
+        BufferedImage background = loader.load();
+        if (background == null) return null;
+
+        BufferedImage template = new BufferedImage(512, 512, TYPE_INT_ARGB);
+        Graphics2D graphics = template.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.drawImage(background, 0, 0, 512, 512, null);
+        graphics.drawImage(getResource("/Profil.png"), 0, 0, null);
+        graphics.dispose();
+
+        synchronized (templates) {
+            templates.put(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * Gets an image from the resources.
+     */
+    BufferedImage getResource(String resourceName) throws IOException {
+        return getImage("resource:" + resourceName, -1, -1, () -> {
+            try (InputStream is = ProfileImageCache.class.getResourceAsStream(resourceName)) {
+                return ImageIO.read(is);
+            }
+        });
+    }
+
+    /**
+     * Gets an image from a file on disk. The image gets read again if the file changes.
+     */
+    BufferedImage getFile(Path path) throws IOException {
+        return getImage("file:" + path + ":" + Files.getLastModifiedTime(path).toMillis(), -1, -1,
+                () -> ImageIO.read(path.toFile()));
+    }
+
+    /**
+     * Gets an image from the web, scaled to the given size.
+     *
+     * @param width  the width to scale the image to, or -1 to keep its original size
+     * @param height the height to scale the image to, or -1 to keep its original size
+     */
+    BufferedImage getUrl(String url, int width, int height) throws IOException {
+        return getImage("url:" + url, width, height, () -> download(url));
+    }
+
+    private BufferedImage getImage(String key, int width, int height, ImageLoader loader) throws IOException {
+        String sizedKey = key + "@" + width + "x" + height;
+        synchronized (images) {
+            BufferedImage image = images.get(sizedKey);
+            if (image != null) return image;
+        }
+
+        BufferedImage image = loader.load();
+        if (image == null) return null;
+        if (width != -1) image = scale(image, width, height);
+
+        synchronized (images) {
+            images.put(sizedKey, image);
+        }
+        return image;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    /**
+     * Downloads an image, or reads it from the disk cache, without keeping it in memory.
+     * This is for images that are only used to build templates.
+     */
+    BufferedImage download(String url) throws IOException {
+        Path cacheFile = DISK_CACHE.resolve(URLEncoder.encode(url, StandardCharsets.UTF_8));
+        if (Files.exists(cacheFile)) {
+            logger.debug("Reading {} from cache", url);
+
+            // the modification date is used to find the least recently used files
+            Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return ImageIO.read(cacheFile.toFile());
+        }
+
+        logger.debug("Downloading {}", url);
+
+        byte[] imageBytes;
+        try (InputStream is = ConnectionUtils.openStreamWithTimeout(url)) {
+            imageBytes = IOUtils.toByteArray(is);
+        }
+
+        Files.createDirectories(DISK_CACHE);
+        Files.write(cacheFile, imageBytes);
+        trimDiskCache();
+
+        return ImageIO.read(new ByteArrayInputStream(imageBytes));
+    }
+
+    private static synchronized void trimDiskCache() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(DISK_CACHE)) {
+            files = list.sorted((a, b) -> Long.compare(lastModified(b), lastModified(a))).toList();
+        }
+
+        long totalSize = 0;
+        for (Path file : files) {
+            totalSize += Files.size(file);
+            if (totalSize > MAX_DISK_CACHE_SIZE) {
+                logger.debug("Deleting {} from profile image cache", file);
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
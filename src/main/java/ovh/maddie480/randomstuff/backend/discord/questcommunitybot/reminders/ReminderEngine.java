@@ -4,11 +4,22 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.time.DayOfWeek;
 import java.time.Duration;
@@ -23,7 +34,54 @@ import static com.max480.quest.modmanagerbot.imported.ReminderEngine.RappelV3;
 public class ReminderEngine {
     private static final Logger logger = LoggerFactory.getLogger(ReminderEngine.class);
 
-    private final List<RappelV3> tousLesRappelsV3;
+    private static final Path SNAPSHOT_PATH = Paths.get("rappels.json");
+    private static final Path LEGACY_PATH = Paths.get("rappels.ser");
+    private static final Path LOG_PATH = Paths.get("rappels.log");
+
+    // au-delà de ce nombre de changements dans le journal, on réécrit le snapshot
+    private static final int MAX_LOG_RECORDS = 1000;
+
+    // id -> rappel
+    private final Map<Long, RappelV3> tousLesRappelsV3 = new LinkedHashMap<>();
+
+    // ids des rappels, du plus proche au plus lointain
+    private final PriorityQueue<Long> prochainsRappels = new PriorityQueue<>(
+            Comparator.comparing(id -> tousLesRappelsV3.get(id).nextOccurence));
+
+    private long nextId = 0;
+    private int logRecordCount = 0;
+
+    // grammaire des rappels
+    private static final Pattern REFLEXIVE_PATTERN = Pattern.compile("rappelle à <@!?([0-9]+)> .*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ONCE_FROM_NOW_PATTERN = Pattern.compile(
+            "rappelle-moi d(?:e )?'?(.*) dans ([0-9]+) ((?:semaines?)?(?:jours?)?(?:heures?)?(?:minutes?)?)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TIMESTAMP_PATTERN = Pattern.compile(
+            "((?:lundi)?(?:mardi)?(?:mercredi)?(?:jeudi)?(?:vendredi)?(?:samedi)?(?:dimanche)?)((?:demain)?(?:après-demain)?)(?:le (\\d{1,2})(?:er)? ?((?:janvier)?(?:février)?(?:mars)?(?:avril)?(?:mai)?(?:juin)?(?:juillet)?(?:août)?(?:septembre)?(?:octobre)?(?:novembre)?(?:décembre)?)?)? ?à? ?(\\d{1,2})[:h]?(?: heures?)? ?(\\d{1,2})?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern RECURRING_PATTERN = Pattern.compile(
+            "rappelle-moi d(?:e )?'?(.*) tou(?:te)?s les ([0-9]+)? ?((?:semaines?)?(?:jours?)?(?:heures?)?(?:minutes?)?)(?: à partir (.*))?", Pattern.CASE_INSENSITIVE);
+
+    // pronoms à inverser (moi <-> toi, etc.) : des mots entiers, sauf m' et t' qui peuvent être collés au mot suivant
+    private static final Map<String, String> PRONOUN_SWAPS = new HashMap<>();
+    private static final Pattern PRONOUN_PATTERN = Pattern.compile(
+            "(?<![a-zA-ZÀ-ſ])(?:(?:moi|toi|mes|tes|mon|ton|mien|tien|me|te|ma|ta|je|tu)(?![a-zA-ZÀ-ſ])|m'|t')",
+            Pattern.CASE_INSENSITIVE);
+
+    static {
+        for (String[] swap : new String[][]{
+                {"moi", "toi"}, {"me", "te"}, {"mon", "ton"}, {"ma", "ta"}, {"mes", "tes"}, {"mien", "tien"}, {"m'", "t'"}, {"je", "tu"}}) {
+
+            PRONOUN_SWAPS.put(swap[0], swap[1]);
+            PRONOUN_SWAPS.put(swap[1], swap[0]);
+        }
+    }
+
+    // le rappel analysé lors de la validation de la commande, pour ne pas l'analyser à nouveau juste après pour l'ajouter
+    private record ParsedReminder(String parameter, RappelV3 result, long parsedAt) {
+    }
+
+    private static final long PARSED_REMINDER_VALIDITY_MILLIS = 10_000;
+    private ParsedReminder lastParsedReminder;
 
     public void run(Guild guild) {
         new Thread("Reminder Engine") {
@@ -32,15 +90,15 @@ public class ReminderEngine {
                 while (true) {
                     try {
                         checkForReminders(guild.getJDA());
+                        waitForNextReminder();
                     } catch (Exception e) {
                         logger.error("Uncaught exception during reminders refresh", e);
-                    }
 
-                    try {
-                        Thread.sleep(60000 - (ZonedDateTime.now().getSecond() * 1000
-                                + ZonedDateTime.now().getNano() / 1_000_000) + 50);
-                    } catch (InterruptedException e) {
-                        logger.error("Sleep interrupted", e);
+                        try {
+                            Thread.sleep(60000);
+                        } catch (InterruptedException e2) {
+                            logger.error("Sleep interrupted", e2);
+                        }
                     }
                 }
             }
@@ -48,70 +106,113 @@ public class ReminderEngine {
     }
 
     public ReminderEngine(Guild guild) throws IOException {
-        try (ObjectInputStream objectInput = new ObjectInputStream(new FileInputStream("rappels.ser"))) {
-            tousLesRappelsV3 = (List<RappelV3>) objectInput.readObject();
-        } catch (ClassNotFoundException e) {
-            throw new IOException(e);
+        if (Files.exists(SNAPSHOT_PATH)) {
+            JSONObject snapshot = new JSONObject(Files.readString(SNAPSHOT_PATH));
+            nextId = snapshot.getLong("nextId");
+            for (Object o : snapshot.getJSONArray("reminders")) {
+                JSONObject reminder = (JSONObject) o;
+                tousLesRappelsV3.put(reminder.getLong("id"), fromJson(reminder));
+            }
+        } else if (Files.exists(LEGACY_PATH)) {
+            logger.info("Migration des rappels depuis {}", LEGACY_PATH);
+            try (ObjectInputStream objectInput = new ObjectInputStream(Files.newInputStream(LEGACY_PATH))) {
+                for (RappelV3 rappel : (List<RappelV3>) objectInput.readObject()) {
+                    tousLesRappelsV3.put(nextId++, rappel);
+                }
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+
+        if (Files.exists(LOG_PATH)) {
+            replayLog();
         }
 
-        for (RappelV3 rappel : new ArrayList<>(tousLesRappelsV3)) {
+        tousLesRappelsV3.values().removeIf(rappel -> {
             if (guild.getMemberById(rappel.userId) == null) {
                 logger.warn("On supprime le rappel de {} parce qu'il n'existe plus", rappel.userId);
-                tousLesRappelsV3.remove(rappel);
+                return true;
             }
-        }
-        saveRappels();
-    }
+            return false;
+        });
+        saveSnapshot();
 
-    private void checkForReminders(JDA jda) throws IOException {
-        for (int i = 0; i < tousLesRappelsV3.size(); i++) {
-            RappelV3 rappel = tousLesRappelsV3.get(i);
+        prochainsRappels.addAll(tousLesRappelsV3.keySet());
 
-            if (rappel.nextOccurence.isBefore(ZonedDateTime.now())) {
-                logger.info("Le rappel {} est passé", rappel);
+        logger.info("{} rappels chargés", tousLesRappelsV3.size());
+    }
 
-                User user = jda.getUserById(rappel.userId);
-                if (user == null) {
-                    logger.warn("L'utilisateur n'existe plus, je supprime le rappel");
-                    tousLesRappelsV3.remove(i);
-                    i--;
-                    saveRappels();
-                } else {
-                    if (rappel.interval != null) {
-                        while (rappel.nextOccurence.isBefore(ZonedDateTime.now())) {
-                            rappel.nextOccurence = rappel.nextOccurence.plus(rappel.interval);
-                        }
-                    } else {
-                        tousLesRappelsV3.remove(i);
-                        i--;
-                    }
+    private synchronized void checkForReminders(JDA jda) throws IOException {
+        Long id;
+        while ((id = prochainsRappels.peek()) != null && !tousLesRappelsV3.get(id).nextOccurence.isAfter(ZonedDateTime.now())) {
+            RappelV3 rappel = tousLesRappelsV3.get(id);
+            logger.info("Le rappel {} est passé", rappel);
 
-                    saveRappels();
+            User user = jda.getUserById(rappel.userId);
+            if (user == null) {
+                logger.warn("L'utilisateur n'existe plus, je supprime le rappel");
+                removeRappel(id);
+            } else {
+                if (rappel.interval != null) {
+                    rescheduleRappel(id, nextOccurenceAfter(rappel.nextOccurence, rappel.interval, ZonedDateTime.now()));
+                } else {
+                    removeRappel(id);
+                }
 
-                    user.openPrivateChannel().queue(channel -> {
-                        String message = "Tu m'avais demandé de te rappeler de \"" + rappel.message + "\". C'est fait.";
+                String message = "Tu m'avais demandé de te rappeler de \"" + rappel.message + "\". C'est fait.";
 
-                        if (rappel.interval != null) {
-                            message += "\n(Je te le rappellerai à nouveau le " + DateFormat.getDateTimeInstance().format(new Date(rappel.nextOccurence.toInstant().toEpochMilli()))
-                                    + ", comme convenu.)";
-                        }
+                if (rappel.interval != null) {
+                    message += "\n(Je te le rappellerai à nouveau le " + DateFormat.getDateTimeInstance().format(new Date(rappel.nextOccurence.toInstant().toEpochMilli()))
+                            + ", comme convenu.)";
+                }
 
-                        final String finalMessage = message;
+                final String finalMessage = message;
+                user.openPrivateChannel().queue(channel ->
                         channel.sendMessage(finalMessage).queue(
                                 success -> {
                                 },
                                 failure -> jda.getTextChannelById(SecretConstants.LEVELING_NOTIFICATION_CHANNEL)
                                         .sendMessage("<@" + user.getIdLong() + "> " + finalMessage)
-                                        .queue());
-                    });
-                }
+                                        .queue()));
             }
         }
     }
 
+    /**
+     * Attend que le prochain rappel soit passé, ou qu'un rappel soit ajouté ou supprimé.
+     */
+    private synchronized void waitForNextReminder() throws InterruptedException {
+        Long id = prochainsRappels.peek();
+        if (id == null) {
+            logger.debug("Aucun rappel, j'attends qu'il y en ait un");
+            wait();
+        } else {
+            long delay = Duration.between(ZonedDateTime.now(), tousLesRappelsV3.get(id).nextOccurence).toMillis();
+            logger.debug("Prochain rappel dans {} ms", delay);
+            if (delay > 0) wait(delay);
+        }
+    }
+
+    /**
+     * La première occurence de la forme (nextOccurence + n * interval) qui n'est pas avant maintenant.
+     */
+    static ZonedDateTime nextOccurenceAfter(ZonedDateTime nextOccurence, Duration interval, ZonedDateTime now) {
+        if (!nextOccurence.isBefore(now)) return nextOccurence;
+
+        long missed = Duration.between(nextOccurence, now).dividedBy(interval);
+        ZonedDateTime result = nextOccurence.plus(interval.multipliedBy(missed));
+        if (result.isBefore(now)) result = result.plus(interval);
+        return result;
+    }
+
     boolean isReminderValid(String parameter) {
         try {
             RappelV3 result = parseRappel("rappelle-moi " + parameter);
+            if (result != null) {
+                synchronized (this) {
+                    lastParsedReminder = new ParsedReminder(parameter, result, System.currentTimeMillis());
+                }
+            }
             return result != null;
         } catch (Exception e) {
             logger.error("Le parsing du rappel a mal tourné ", e);
@@ -119,8 +220,17 @@ public class ReminderEngine {
         }
     }
 
-    void addReminder(MessageChannel incomingChannel, User author, String parameter) throws IOException {
-        RappelV3 parsedReminder = parseRappel("rappelle-moi " + parameter);
+    synchronized void addReminder(MessageChannel incomingChannel, User author, String parameter) throws IOException {
+        RappelV3 parsedReminder;
+        if (lastParsedReminder != null && lastParsedReminder.parameter().equals(parameter)
+                && System.currentTimeMillis() - lastParsedReminder.parsedAt() < PARSED_REMINDER_VALIDITY_MILLIS) {
+
+            logger.debug("Le rappel a déjà été analysé lors de la validation");
+            parsedReminder = lastParsedReminder.result();
+        } else {
+            parsedReminder = parseRappel("rappelle-moi " + parameter);
+        }
+        lastParsedReminder = null;
 
         if (parsedReminder.interval != null && parsedReminder.interval.minusMillis(3_600_000).isNegative()) {
             incomingChannel.sendMessage("Désolé, les rappels récurrents sont autorisés toutes les heures au maximum !").queue();
@@ -134,16 +244,15 @@ public class ReminderEngine {
             incomingChannel.sendMessage("Bien reçu ! Je vais te rappeler de " + parsedReminder + ".").queue();
             parsedReminder.userId = author.getIdLong();
         }
-        tousLesRappelsV3.add(parsedReminder);
-        saveRappels();
+        addRappel(parsedReminder);
     }
 
-    void listReminders(MessageChannel incomingChannel, User author) {
+    synchronized void listReminders(MessageChannel incomingChannel, User author) {
         if (tousLesRappelsV3.isEmpty()) {
             incomingChannel.sendMessage("Tu n'as pas de rappel !").queue();
         } else {
             StringBuilder reponse = new StringBuilder("Voici la liste de tes rappels :");
-            for (RappelV3 rapp : tousLesRappelsV3) {
+            for (RappelV3 rapp : tousLesRappelsV3.values()) {
                 if (rapp.userId == author.getIdLong())
                     reponse.append("\n- ").append(rapp);
             }
@@ -155,57 +264,166 @@ public class ReminderEngine {
         }
     }
 
-    void removeReminder(MessageChannel incomingChannel, User author, String reminder) throws IOException {
+    synchronized void removeReminder(MessageChannel incomingChannel, User author, String reminder) throws IOException {
         reminder = inversionDesPronoms(reminder);
         boolean trouve = false;
-        for (int i = 0; i < tousLesRappelsV3.size(); i++) {
-            if (reminder.equals(tousLesRappelsV3.get(i).message)
-                    && tousLesRappelsV3.get(i).userId == author.getIdLong()) {
-                tousLesRappelsV3.remove(i);
+        for (Map.Entry<Long, RappelV3> rappel : new ArrayList<>(tousLesRappelsV3.entrySet())) {
+            if (reminder.equals(rappel.getValue().message)
+                    && rappel.getValue().userId == author.getIdLong()) {
+                removeRappel(rappel.getKey());
                 trouve = true;
-                i--;
             }
         }
 
         if (trouve) {
             incomingChannel.sendMessage("OK ! Il n'y a plus de rappel \"" + reminder + "\".").queue();
-            saveRappels();
         } else {
             incomingChannel.sendMessage("Y a pas de rappel qui s'appelle \"" + reminder + "\". Qu'est-ce que tu racontes ?").queue();
         }
     }
 
-    private void saveRappels() throws IOException {
+    // ================== gestion des rappels et sauvegarde
+
+    // Chaque changement est ajouté au journal, et le snapshot n'est réécrit que de temps en temps.
+    // Toutes les opérations du journal sont idempotentes : si on plante entre l'écriture du snapshot et
+    // la suppression du journal, rejouer le journal sur le nouveau snapshot donne le même résultat.
+
+    private void addRappel(RappelV3 rappel) throws IOException {
+        long id = nextId++;
+        tousLesRappelsV3.put(id, rappel);
+        prochainsRappels.add(id);
+        notifyAll();
+
+        appendToLog(toJson(id, rappel).put("type", "add"));
+    }
+
+    private void rescheduleRappel(long id, ZonedDateTime nextOccurence) throws IOException {
+        prochainsRappels.remove(id);
+        tousLesRappelsV3.get(id).nextOccurence = nextOccurence;
+        prochainsRappels.add(id);
+        notifyAll();
+
+        appendToLog(new JSONObject()
+                .put("type", "reschedule")
+                .put("id", id)
+                .put("nextOccurence", nextOccurence.toString()));
+    }
+
+    private void removeRappel(long id) throws IOException {
+        prochainsRappels.remove(id);
+        tousLesRappelsV3.remove(id);
+        notifyAll();
+
+        appendToLog(new JSONObject()
+                .put("type", "remove")
+                .put("id", id));
+    }
+
+    private void appendToLog(JSONObject record) throws IOException {
+        try (FileChannel log = FileChannel.open(LOG_PATH,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC)) {
+
+            log.write(ByteBuffer.wrap((record.toString() + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        logRecordCount++;
+        if (logRecordCount >= MAX_LOG_RECORDS) {
+            saveSnapshot();
+        }
+    }
+
+    private void replayLog() throws IOException {
+        List<String> lines = Files.readAllLines(LOG_PATH, StandardCharsets.UTF_8);
+
+        for (int i = 0; i < lines.size(); i++) {
+            JSONObject record;
+            try {
+                record = new JSONObject(lines.get(i));
+            } catch (JSONException e) {
+                if (i == lines.size() - 1) {
+                    // on a planté en écrivant la dernière ligne
+                    logger.warn("Dernière ligne du journal des rappels incomplète, on l'ignore");
+                    break;
+                }
+                throw new IOException("Ligne " + (i + 1) + " du journal des rappels invalide", e);
+            }
+
+            long id = record.getLong("id");
+            switch (record.getString("type")) {
+                case "add" -> {
+                    tousLesRappelsV3.put(id, fromJson(record));
+                    nextId = Math.max(nextId, id + 1);
+                }
+                case "reschedule" -> {
+                    RappelV3 rappel = tousLesRappelsV3.get(id);
+                    if (rappel != null) rappel.nextOccurence = ZonedDateTime.parse(record.getString("nextOccurence"));
+                }
+                case "remove" -> tousLesRappelsV3.remove(id);
+                default -> throw new IOException("Type d'enregistrement inconnu dans le journal des rappels : " + record.getString("type"));
+            }
+        }
+
+        logger.debug("{} changements rejoués depuis le journal des rappels", lines.size());
+    }
+
+    private void saveSnapshot() throws IOException {
         logger.debug("Saving reminders");
-        try (ObjectOutputStream objects = new ObjectOutputStream(new FileOutputStream("rappels.ser"))) {
-            objects.writeObject(tousLesRappelsV3);
+
+        JSONArray reminders = new JSONArray();
+        for (Map.Entry<Long, RappelV3> rappel : tousLesRappelsV3.entrySet()) {
+            reminders.put(toJson(rappel.getKey(), rappel.getValue()));
+        }
+
+        Path tempFile = Paths.get(SNAPSHOT_PATH + ".tmp");
+        Files.writeString(tempFile, new JSONObject()
+                .put("nextId", nextId)
+                .put("reminders", reminders)
+                .toString(), StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
         }
+        Files.move(tempFile, SNAPSHOT_PATH, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Files.deleteIfExists(LOG_PATH);
+        logRecordCount = 0;
+    }
+
+    private static JSONObject toJson(long id, RappelV3 rappel) {
+        JSONObject result = new JSONObject()
+                .put("id", id)
+                .put("userId", rappel.userId)
+                .put("message", rappel.message)
+                .put("nextOccurence", rappel.nextOccurence.toString());
+
+        if (rappel.interval != null) {
+            result.put("interval", rappel.interval.toString());
+        }
+        return result;
+    }
+
+    private static RappelV3 fromJson(JSONObject json) {
+        RappelV3 rappel = new RappelV3();
+        rappel.userId = json.getLong("userId");
+        rappel.message = json.getString("message");
+        rappel.nextOccurence = ZonedDateTime.parse(json.getString("nextOccurence"));
+        rappel.interval = json.has("interval") ? Duration.parse(json.getString("interval")) : null;
+        return rappel;
     }
 
-    private static RappelV3 parseRappel(String rappel) {
+    static RappelV3 parseRappel(String rappel) {
         Long reflectedUserId = null;
 
-        final String reflexiveRegex = "rappelle à <@!?([0-9]+)> .*";
-        Pattern reflexiveRegexPattern = Pattern.compile(reflexiveRegex, Pattern.CASE_INSENSITIVE);
-        Matcher reflexiveRegexMatcher = reflexiveRegexPattern.matcher(rappel);
+        Matcher reflexiveRegexMatcher = REFLEXIVE_PATTERN.matcher(rappel);
         if (reflexiveRegexMatcher.matches()) {
             reflectedUserId = Long.parseLong(reflexiveRegexMatcher.group(1));
             rappel = "rappelle-moi" + rappel.substring(rappel.indexOf(">") + 1);
         }
 
-        final String onceFromNow = "rappelle-moi d(?:e )?'?(.*) dans ([0-9]+) ((?:semaines?)?(?:jours?)?(?:heures?)?(?:minutes?)?)";
-        final String timestamp = "((?:lundi)?(?:mardi)?(?:mercredi)?(?:jeudi)?(?:vendredi)?(?:samedi)?(?:dimanche)?)((?:demain)?(?:après-demain)?)(?:le (\\d{1,2})(?:er)? ?((?:janvier)?(?:février)?(?:mars)?(?:avril)?(?:mai)?(?:juin)?(?:juillet)?(?:août)?(?:septembre)?(?:octobre)?(?:novembre)?(?:décembre)?)?)? ?à? ?(\\d{1,2})[:h]?(?: heures?)? ?(\\d{1,2})?";
-        final String recurring = "rappelle-moi d(?:e )?'?(.*) tou(?:te)?s les ([0-9]+)? ?((?:semaines?)?(?:jours?)?(?:heures?)?(?:minutes?)?)(?: à partir (.*))?";
-
-        Pattern onceFromNowPattern = Pattern.compile(onceFromNow, Pattern.CASE_INSENSITIVE);
-        Pattern timestampPattern = Pattern.compile(timestamp, Pattern.CASE_INSENSITIVE);
-        Pattern recurringPattern = Pattern.compile(recurring, Pattern.CASE_INSENSITIVE);
-
         ZonedDateTime nextOccurence = null;
         Duration interval = null;
         String message = null;
 
-        Matcher onceFromNowMatcher = onceFromNowPattern.matcher(rappel);
+        Matcher onceFromNowMatcher = ONCE_FROM_NOW_PATTERN.matcher(rappel);
         if (onceFromNowMatcher.matches()) {
             message = onceFromNowMatcher.group(1);
             int fromNow = Integer.parseInt(onceFromNowMatcher.group(2));
@@ -220,7 +438,7 @@ public class ReminderEngine {
                 nextOccurence = ZonedDateTime.now().plusMinutes(fromNow);
             }
         } else {
-            Matcher recurringMatcher = recurringPattern.matcher(rappel);
+            Matcher recurringMatcher = RECURRING_PATTERN.matcher(rappel);
             if (recurringMatcher.matches()) {
                 message = recurringMatcher.group(1);
 
@@ -247,7 +465,7 @@ public class ReminderEngine {
                         maybeTimestamp = "le " + maybeTimestamp.substring(3);
                     }
 
-                    nextOccurence = matchesToTime(timestampPattern.matcher(maybeTimestamp));
+                    nextOccurence = matchesToTime(TIMESTAMP_PATTERN.matcher(maybeTimestamp));
                 }
             } else if (rappel.toLowerCase().startsWith("rappelle-moi d")) {
                 rappel = rappel.substring(rappel.toLowerCase().startsWith("rappelle-moi de ") ? "rappelle-moi de ".length() : "rappelle-moi d'".length());
@@ -257,13 +475,13 @@ public class ReminderEngine {
                 String lastMatchedTimeCandidate = null;
                 for (int i = words.length - 1; i >= 0; i--) {
                     timeCandidate = words[i] + (timeCandidate == null ? "" : " " + timeCandidate);
-                    if (timestampPattern.matcher(timeCandidate).matches()) {
+                    if (TIMESTAMP_PATTERN.matcher(timeCandidate).matches()) {
                         lastMatchedTimeCandidate = timeCandidate;
                     }
                 }
 
                 if (lastMatchedTimeCandidate != null) {
-                    nextOccurence = matchesToTime(timestampPattern.matcher(lastMatchedTimeCandidate));
+                    nextOccurence = matchesToTime(TIMESTAMP_PATTERN.matcher(lastMatchedTimeCandidate));
                     message = rappel.substring(0, rappel.length() - lastMatchedTimeCandidate.length()).trim();
                 }
             }
@@ -363,77 +581,17 @@ public class ReminderEngine {
     }
 
     private static String inversionDesPronoms(String phrase) {
-        phrase = inversionDunPronom(phrase, "moi", "toi");
-        phrase = inversionDunPronom(phrase, "me", "te");
-        phrase = inversionDunPronom(phrase, "mon", "ton");
-        phrase = inversionDunPronom(phrase, "ma", "ta");
-        phrase = inversionDunPronom(phrase, "mes", "tes");
-        phrase = inversionDunPronom(phrase, "mien", "tien");
-        phrase = inversionDunPronom(phrase, "m'", "t'", true);
-        phrase = inversionDunPronom(phrase, "je", "tu");
-
-        return phrase;
+        return PRONOUN_PATTERN.matcher(phrase).replaceAll(match -> Matcher.quoteReplacement(inversionDunPronom(match.group())));
     }
 
-    private static String inversionDunPronom(String phrase, String moi, String toi) {
-        return inversionDunPronom(phrase, moi, toi, false);
-    }
+    private static String inversionDunPronom(String pronom) {
+        String inverse = PRONOUN_SWAPS.get(pronom.toLowerCase());
 
-    private static String inversionDunPronom(String phrase, String moi, String toi, boolean wordAcceptedAfter) {
-        String temp = "¤" + toi.substring(1);
-
-        for (Map.Entry<String, String> cases : getAllPossibleCases(moi, toi).entrySet()) {
-            phrase = phrase
-                    .replaceAll(toWholeWordRegex(cases.getKey(), wordAcceptedAfter), temp)
-                    .replaceAll(toWholeWordRegex(cases.getValue(), wordAcceptedAfter), cases.getKey())
-                    .replaceAll(toWholeWordRegex(temp, wordAcceptedAfter), cases.getValue());
+        // garder la casse de chaque lettre
+        StringBuilder result = new StringBuilder(inverse.length());
+        for (int i = 0; i < inverse.length(); i++) {
+            result.append(Character.isUpperCase(pronom.charAt(i)) ? Character.toUpperCase(inverse.charAt(i)) : inverse.charAt(i));
         }
-
-        return phrase;
-    }
-
-    private static Map<String, String> getAllPossibleCases(String s1, String s2) {
-        assert s1.length() == s2.length();
-
-        boolean[] bits = new boolean[s1.length()];
-
-        Map<String, String> all = new HashMap<>();
-        for (int i = 0; i < Math.pow(2, s1.length()); i++) {
-            String capS1 = s1;
-            String capS2 = s2;
-
-            boolean capitalizesSpecialChar = false;
-            for (int pos = 0; pos < bits.length; pos++) {
-                if (bits[pos]) {
-                    if (!Character.isLetter(capS1.charAt(pos)) || !Character.isLetter(capS2.charAt(pos))) {
-                        capitalizesSpecialChar = true;
-                        break;
-                    }
-
-                    capS1 = capS1.substring(0, pos) + capS1.substring(pos, pos + 1).toUpperCase() + capS1.substring(pos + 1);
-                    capS2 = capS2.substring(0, pos) + capS2.substring(pos, pos + 1).toUpperCase() + capS2.substring(pos + 1);
-                }
-            }
-            if (!capitalizesSpecialChar) {
-                all.put(capS1, capS2);
-            }
-
-            for (int l = bits.length - 1; l >= 0; l--) {
-                if (!bits[l]) {
-                    bits[l] = true;
-                    break;
-                } else {
-                    bits[l] = false;
-                    // propagation
-                }
-            }
-        }
-
-        return all;
-    }
-
-    private static String toWholeWordRegex(String st, boolean wordAcceptedAfter) {
-        // pas de lettre avant
-        return "(?<![a-zA-ZÀ-ſ])" + st + (wordAcceptedAfter ? "" : "(?![a-zA-ZÀ-ſ])");
+        return result.toString();
     }
 }
@@ -13,7 +13,7 @@ import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.SecretConstants;
-import ovh.maddie480.randomstuff.backend.streams.features.CustomEmotes;
+import ovh.maddie480.randomstuff.backend.streams.features.EmoteMatcher;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 
 import java.io.*;
@@ -22,6 +22,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.OffsetDateTime;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -37,10 +39,36 @@ public class YouTubeChatProvider implements IChatProvider<String> {
 
     private static final String CHANNEL_ID = "UCeYyIN2Z1H2R4gc-mQJyrsA";
 
+    // bounds for the delay between two chat checks
+    private static final long MIN_POLL_DELAY = 3_000L;
+    private static final long MAX_POLL_DELAY = 30_000L;
+    private static final long MAX_BACKOFF_DELAY = 300_000L;
+
+    // we try to get about that many messages each time we check the chat
+    private static final double TARGET_MESSAGES_PER_POLL = 10;
+
+    // the bot runs for 6 hours at most, so there is no point in saving quota for later than that
+    private static final Duration SESSION_LENGTH = Duration.ofHours(6);
+
+    // quota units that are kept aside for the bot to be able to send messages
+    private static final int RESERVED_QUOTA = 1000;
+
+    private static final Duration METRICS_LOG_INTERVAL = Duration.ofMinutes(10);
+
+    private final YouTubeQuotaTracker quotaTracker = new YouTubeQuotaTracker(Paths.get("youtube_quota.json"));
+    private final long connectedAt = System.currentTimeMillis();
+
+    // exponentially weighted averages of the chat speed, the API response time and the delay before we see messages
+    private double messagesPerSecond = 0;
+    private double averageResponseTimeMillis = 0;
+    private double averageMessageDelayMillis = 0;
+    private long lastPollAt = 0;
+    private long lastMetricsLogAt = 0;
+
     private Credential credential;
     private String liveChatId;
 
-    private Map<String, String> allEmotes;
+    private EmoteMatcher emoteMatcher;
 
     private Map<String, String> fixedMessages;
     private long lastTimedMessagePostedAt = 0;
@@ -85,8 +113,9 @@ public class YouTubeChatProvider implements IChatProvider<String> {
         liveChatId = getLiveChatId(liveStreamVideoId);
         log.debug("The ID of the chat of the current YouTube live stream is {}", liveChatId);
 
-        allEmotes = YouTubeEmoteDatabase.getEmotes();
+        Map<String, String> allEmotes = YouTubeEmoteDatabase.getEmotes();
         log.debug("Got emotes: {}", allEmotes);
+        emoteMatcher = new EmoteMatcher(allEmotes);
 
         fixedMessages = getMoobotCommands();
 
@@ -112,6 +141,7 @@ public class YouTubeChatProvider implements IChatProvider<String> {
 
     private String getLiveStreamVideoId() throws IOException {
         for (String type : Arrays.asList("live", "upcoming")) {
+            quotaTracker.record(YouTubeQuotaTracker.CallType.SEARCH);
             HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout("https://www.googleapis.com/youtube/v3/search?channelId=" + CHANNEL_ID + "&part=snippet&type=video&eventType=" + type);
             connection.setRequestProperty("Authorization", "Bearer " + getAccessToken());
 
@@ -126,6 +156,7 @@ public class YouTubeChatProvider implements IChatProvider<String> {
     }
 
     private String getLiveChatId(String videoId) throws IOException {
+        quotaTracker.record(YouTubeQuotaTracker.CallType.VIDEOS_LIST);
         HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout("https://www.googleapis.com/youtube/v3/videos?id=" + videoId + "&part=liveStreamingDetails");
         connection.setRequestProperty("Authorization", "Bearer " + getAccessToken());
 
@@ -160,10 +191,16 @@ public class YouTubeChatProvider implements IChatProvider<String> {
                 String pageToken = null;
 
                 while (readMessagesLoopActive) {
+                    if (!quotaTracker.canAfford(YouTubeQuotaTracker.CallType.LIVE_CHAT_MESSAGES_LIST)) {
+                        log.error("Out of YouTube quota! {}", quotaTracker.getSummary());
+                        givingUpAction.run();
+                        break;
+                    }
+
                     try {
                         MessageCheckResult result = readMessages(messageListener, pageToken);
                         pageToken = result.pageToken();
-                        Thread.sleep(Math.max(result.suggestedSleepTime(), 10000));
+                        Thread.sleep(computeNextPollDelay(result));
                         sendPeriodicMessageIfNecessary();
                         failsInARow = 0;
                     } catch (Exception e) {
@@ -177,7 +214,8 @@ public class YouTubeChatProvider implements IChatProvider<String> {
                         }
 
                         try {
-                            Thread.sleep(10000);
+                            // 10 seconds, then twice as much each time
+                            Thread.sleep(Math.min(10_000L << (failsInARow - 1), MAX_BACKOFF_DELAY));
                         } catch (InterruptedException ex) {
                             throw new RuntimeException(ex);
                         }
@@ -189,10 +227,52 @@ public class YouTubeChatProvider implements IChatProvider<String> {
         }.start();
     }
 
-    private record MessageCheckResult(int suggestedSleepTime, String pageToken) {
+    private record MessageCheckResult(int suggestedSleepTime, String pageToken, int messageCount) {
+    }
+
+    /**
+     * Decides how long to wait before checking the chat again: the busier the chat is, the more often we check it,
+     * as long as we don't go faster than what YouTube suggests, or than what the remaining quota allows.
+     */
+    private long computeNextPollDelay(MessageCheckResult result) {
+        long now = System.currentTimeMillis();
+
+        if (lastPollAt != 0) {
+            double secondsSinceLastPoll = Math.max(1, now - lastPollAt) / 1000.0;
+            messagesPerSecond = 0.7 * messagesPerSecond + 0.3 * (result.messageCount() / secondsSinceLastPoll);
+        }
+        lastPollAt = now;
+
+        long velocityDelay = messagesPerSecond == 0 ? MAX_POLL_DELAY : (long) (TARGET_MESSAGES_PER_POLL / messagesPerSecond * 1000);
+        long delay = Math.clamp(velocityDelay, MIN_POLL_DELAY, MAX_POLL_DELAY);
+        delay = Math.max(delay, result.suggestedSleepTime());
+
+        // spread the remaining quota over the rest of the session, or until it gets reset.
+        // if the stream goes on past the planned end of the session, spread it until the reset instead.
+        long timeUntilReset = quotaTracker.getTimeUntilReset().toMillis();
+        long timeUntilSessionEnd = connectedAt + SESSION_LENGTH.toMillis() - now;
+        long timeLeft = timeUntilSessionEnd > 0 ? Math.min(timeUntilReset, timeUntilSessionEnd) : timeUntilReset;
+        int pollsLeft = (quotaTracker.getRemainingUnits() - RESERVED_QUOTA) / YouTubeQuotaTracker.CallType.LIVE_CHAT_MESSAGES_LIST.getCost();
+        long budgetDelay = pollsLeft <= 0 || timeLeft <= 0 ? MAX_BACKOFF_DELAY : timeLeft / pollsLeft;
+        delay = Math.min(Math.max(delay, budgetDelay), MAX_BACKOFF_DELAY);
+
+        if (now - lastMetricsLogAt > METRICS_LOG_INTERVAL.toMillis()) {
+            log.info("YouTube chat: {} messages/s, polling every {} ms (velocity: {} ms, budget: {} ms), response time {} ms, message delay {} ms, {}",
+                    String.format("%.2f", messagesPerSecond), delay, velocityDelay, budgetDelay,
+                    (long) averageResponseTimeMillis, (long) averageMessageDelayMillis, quotaTracker.getSummary());
+            lastMetricsLogAt = now;
+        } else {
+            log.debug("Next YouTube chat check in {} ms ({} messages/s, velocity delay {} ms, budget delay {} ms)",
+                    delay, String.format("%.2f", messagesPerSecond), velocityDelay, budgetDelay);
+        }
+
+        return delay;
     }
 
     private MessageCheckResult readMessages(Consumer<ChatMessage<String>> messageListener, String pageToken) throws IOException {
+        quotaTracker.record(YouTubeQuotaTracker.CallType.LIVE_CHAT_MESSAGES_LIST);
+        long requestStart = System.currentTimeMillis();
+
         HttpURLConnection connection = ConnectionUtils.openConnectionWithTimeout("https://www.googleapis.com/youtube/v3/liveChat/messages?"
                 + "liveChatId=" + liveChatId + "&part=id,snippet,authorDetails&maxResults=200"
                 + (pageToken == null ? "" : "&pageToken=" + pageToken));
@@ -200,7 +280,10 @@ public class YouTubeChatProvider implements IChatProvider<String> {
 
         try (InputStream is = ConnectionUtils.connectionToInputStream(connection)) {
             JSONObject response = new JSONObject(new JSONTokener(is));
+            long responseTime = System.currentTimeMillis() - requestStart;
+            averageResponseTimeMillis = averageResponseTimeMillis == 0 ? responseTime : 0.9 * averageResponseTimeMillis + 0.1 * responseTime;
 
+            int messageCount = 0;
             for (int i = 0; i < response.getJSONArray("items").length() && pageToken != null; i++) {
                 JSONObject message = response.getJSONArray("items").getJSONObject(i);
 
@@ -218,15 +301,19 @@ public class YouTubeChatProvider implements IChatProvider<String> {
                         messageText,
                         CHANNEL_ID.equals(message.getJSONObject("authorDetails").getString("channelId")),
                         Collections.emptyList(),
-                        CustomEmotes.findEmotes(messageText, allEmotes),
+                        emoteMatcher.findEmotes(messageText),
                         this
                 );
 
+                long messageDelay = System.currentTimeMillis() - OffsetDateTime.parse(message.getJSONObject("snippet").getString("publishedAt")).toInstant().toEpochMilli();
+                averageMessageDelayMillis = averageMessageDelayMillis == 0 ? messageDelay : 0.9 * averageMessageDelayMillis + 0.1 * messageDelay;
+
                 messageListener.accept(chatMessage);
                 messageCountSinceLastTimedPost++;
+                messageCount++;
             }
 
-            return new MessageCheckResult(response.getInt("pollingIntervalMillis"), response.getString("nextPageToken"));
+            return new MessageCheckResult(response.getInt("pollingIntervalMillis"), response.getString("nextPageToken"), messageCount);
         }
     }
 
@@ -256,7 +343,13 @@ public class YouTubeChatProvider implements IChatProvider<String> {
 
     @Override
     public void sendMessage(String contents) {
+        if (!quotaTracker.canAfford(YouTubeQuotaTracker.CallType.LIVE_CHAT_MESSAGES_INSERT)) {
+            log.error("Not enough YouTube quota left to send message: {}", contents);
+            return;
+        }
+
         try {
+            quotaTracker.record(YouTubeQuotaTracker.CallType.LIVE_CHAT_MESSAGES_INSERT);
             if (contents.length() > 200) contents = contents.substring(0, 197) + "...";
 
             JSONObject text = new JSONObject();
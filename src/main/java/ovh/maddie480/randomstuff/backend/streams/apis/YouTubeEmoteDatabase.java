@@ -12,7 +12,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class YouTubeEmoteDatabase {
-    static Map<String, String> getEmotes() {
+    public static Map<String, String> getEmotes() {
         Map<String, String> emotes = new HashMap<>();
 
         // paste output of the script here
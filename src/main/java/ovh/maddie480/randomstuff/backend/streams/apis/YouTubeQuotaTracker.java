@@ -0,0 +1,143 @@
+package ovh.maddie480.randomstuff.backend.streams.apis;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the YouTube API quota units spent today, so that we can avoid running out of them mid-stream.
+ * The count is saved to a file, since the bot can be restarted several times in a day.
+ */
+class YouTubeQuotaTracker {
+    private static final Logger log = LoggerFactory.getLogger(YouTubeQuotaTracker.class);
+
+    // quota resets at midnight Pacific time
+    private static final ZoneId QUOTA_TIMEZONE = ZoneId.of("America/Los_Angeles");
+    private static final int DAILY_BUDGET = 10_000;
+
+    enum CallType {
+        SEARCH(100),
+        VIDEOS_LIST(1),
+        LIVE_CHAT_MESSAGES_LIST(5),
+        LIVE_CHAT_MESSAGES_INSERT(50);
+
+        private final int cost;
+
+        CallType(int cost) {
+            this.cost = cost;
+        }
+
+        int getCost() {
+            return cost;
+        }
+    }
+
+    private final Path stateFile;
+
+    private LocalDate day;
+    private final Map<CallType, Integer> unitsSpent = new EnumMap<>(CallType.class);
+    private final Map<CallType, Integer> callCount = new EnumMap<>(CallType.class);
+
+    YouTubeQuotaTracker(Path stateFile) {
+        this.stateFile = stateFile;
+        this.day = LocalDate.now(QUOTA_TIMEZONE);
+
+        if (Files.exists(stateFile)) {
+            try (BufferedReader br = Files.newBufferedReader(stateFile)) {
+                JSONObject state = new JSONObject(new JSONTokener(br));
+
+                if (day.equals(LocalDate.parse(state.getString("day")))) {
+                    for (CallType type : CallType.values()) {
+                        unitsSpent.put(type, state.getJSONObject("unitsSpent").optInt(type.name(), 0));
+                        callCount.put(type, state.getJSONObject("callCount").optInt(type.name(), 0));
+                    }
+                    log.debug("Loaded YouTube quota state: {} units spent today", getUnitsSpent());
+                }
+            } catch (IOException e) {
+                log.warn("Could not load YouTube quota state, starting from 0", e);
+            }
+        }
+    }
+
+    /**
+     * Counts a call to the API. This should be done before the call, since failed calls also cost quota.
+     */
+    synchronized void record(CallType type) {
+        resetIfNecessary();
+
+        unitsSpent.merge(type, type.getCost(), Integer::sum);
+        callCount.merge(type, 1, Integer::sum);
+        save();
+    }
+
+    synchronized int getRemainingUnits() {
+        resetIfNecessary();
+        return DAILY_BUDGET - getUnitsSpent();
+    }
+
+    synchronized boolean canAfford(CallType type) {
+        return getRemainingUnits() >= type.getCost();
+    }
+
+    Duration getTimeUntilReset() {
+        ZonedDateTime now = ZonedDateTime.now(QUOTA_TIMEZONE);
+        return Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay(QUOTA_TIMEZONE));
+    }
+
+    synchronized String getSummary() {
+        resetIfNecessary();
+        return describeUnitsSpent();
+    }
+
+    private String describeUnitsSpent() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(getUnitsSpent()).append("/").append(DAILY_BUDGET).append(" units spent today (");
+        for (CallType type : CallType.values()) {
+            if (type.ordinal() != 0) summary.append(", ");
+            summary.append(type.name()).append(": ")
+                    .append(callCount.getOrDefault(type, 0)).append(" calls = ")
+                    .append(unitsSpent.getOrDefault(type, 0)).append(" units");
+        }
+        return summary.append(")").toString();
+    }
+
+    private int getUnitsSpent() {
+        return unitsSpent.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    private void resetIfNecessary() {
+        LocalDate today = LocalDate.now(QUOTA_TIMEZONE);
+        if (!today.equals(day)) {
+            log.info("YouTube quota was reset! Yesterday: {}", describeUnitsSpent());
+            day = today;
+            unitsSpent.clear();
+            callCount.clear();
+        }
+    }
+
+    private void save() {
+        JSONObject state = new JSONObject();
+        state.put("day", day.toString());
+        state.put("unitsSpent", unitsSpent);
+        state.put("callCount", callCount);
+
+        try (BufferedWriter bw = Files.newBufferedWriter(stateFile)) {
+            state.write(bw);
+        } catch (IOException e) {
+            log.warn("Could not save YouTube quota state", e);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.streams.apis.IChatProvider;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs LNJ Bot against replayed chat messages instead of the real Twitch and YouTube chats, and measures
+ * how long it takes for each message to go from the chat provider to the live chat websocket.
+ * This tells us how many messages per second the bot can take before falling behind.
+ * <p>
+ * Usage:
+ * <ul>
+ * <li><code>ChatLoadTest replay [file] [speed]</code>: replays a recorded chat. The file has one JSON object per line,
+ * with keys offset (in milliseconds from the start), platform (twitch or youtube), author, message and admin.</li>
+ * <li><code>ChatLoadTest synthetic [messages per second] [duration in seconds] ([raid start in seconds]
+ * [raid messages per second] [raid duration in seconds])</code>: generates random messages at the given rate,
+ * optionally with a raid burst at some point.</li>
+ * </ul>
+ * The real websocket and SHS ports are used, so this cannot run alongside the real bot.
+ */
+class ChatLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(ChatLoadTest.class);
+
+    private static final List<String> SAMPLE_MESSAGES = Arrays.asList(
+            "lol", "gg", "mdr", "c'est quoi ce jeu", ":lnj: :lnj: :lnj:", "quel navet :navet:", "bonjour à tous !",
+            "pizza dude", "freelancer", "!zombie", "!clio", "!poop", "ça rame un peu là", "ahah :yt:",
+            ":chirac: :chirac2:", "trop bien :face-blue-smiling:", "le boss final est nul", "!clip", ":ljn::lnj:"
+    );
+
+    private final Map<Integer, Long> callbackTimes = new ConcurrentHashMap<>();
+    private final Queue<Long> providerLags = new ConcurrentLinkedQueue<>();
+    private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+
+    static void main(String[] args) throws Exception {
+        Map<String, List<ChatReplayProvider.ReplayedMessage>> messagesByPlatform;
+        double speed = 1;
+
+        if (args.length >= 2 && args[0].equals("replay")) {
+            messagesByPlatform = readRecordedChat(Paths.get(args[1]));
+            if (args.length >= 3) speed = Double.parseDouble(args[2]);
+        } else if ((args.length == 3 || args.length == 6) && args[0].equals("synthetic")) {
+            messagesByPlatform = generateSyntheticChat(
+                    Double.parseDouble(args[1]), Integer.parseInt(args[2]),
+                    args.length == 6 ? Integer.parseInt(args[3]) : 0,
+                    args.length == 6 ? Double.parseDouble(args[4]) : 0,
+                    args.length == 6 ? Integer.parseInt(args[5]) : 0
+            );
+        } else {
+            System.err.println("Usage: ChatLoadTest replay [file] [speed] | ChatLoadTest synthetic [rate] [duration]"
+                    + " ([raid start] [raid rate] [raid duration])");
+            return;
+        }
+
+        // the bot starts servers that never stop by themselves, so we need to exit explicitly
+        try {
+            new ChatLoadTest().run(messagesByPlatform, speed);
+            System.exit(0);
+        } catch (Exception e) {
+            logger.error("Load test failed!", e);
+            System.exit(1);
+        }
+    }
+
+    private void run(Map<String, List<ChatReplayProvider.ReplayedMessage>> messagesByPlatform, double speed) throws Exception {
+        // tag each message with a number in the author name, so that we can tell them apart on the websocket side
+        int messageCount = 0;
+        List<ChatReplayProvider> providers = new ArrayList<>();
+        for (Map.Entry<String, List<ChatReplayProvider.ReplayedMessage>> platform : messagesByPlatform.entrySet()) {
+            List<ChatReplayProvider.ReplayedMessage> tagged = new ArrayList<>();
+            for (ChatReplayProvider.ReplayedMessage message : platform.getValue()) {
+                tagged.add(new ChatReplayProvider.ReplayedMessage(message.offsetMillis(), message.senderId(),
+                        message.senderName() + " #" + messageCount++, message.contents(), message.isAdmin()));
+            }
+            providers.add(new ChatReplayProvider(platform.getKey(), tagged, speed, this::beforeCallback));
+        }
+
+        // the poll everyone will be voting on
+        Path pollPath = Files.createTempFile("lnj-poll-load-test", ".json");
+        try (BufferedWriter bw = Files.newBufferedWriter(pollPath)) {
+            new LNJPoll("Load test", Set.of("Pizza Dude", "Freelancer")).toJson().write(bw);
+        }
+
+        new LNJBot(new ArrayList<IChatProvider<?>>(providers), message -> logger.debug("Clip requested by {}", message.messageSenderName()), pollPath);
+
+        WebSocketClient client = new WebSocketClient(new URI("ws://localhost:11586")) {
+            @Override
+            public void onOpen(ServerHandshake serverHandshake) {
+                logger.info("Connected to live chat websocket");
+            }
+
+            @Override
+            public void onMessage(String message) {
+                onWebsocketFrame(message, System.nanoTime());
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                logger.info("Disconnected from live chat websocket: {}", reason);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                logger.error("Live chat websocket error", e);
+            }
+        };
+        if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+            throw new IOException("Could not connect to the live chat websocket!");
+        }
+
+        logger.info("Replaying {} messages at speed x{}", messageCount, speed);
+        long start = System.nanoTime();
+        for (ChatReplayProvider provider : providers) provider.start(start);
+        for (ChatReplayProvider provider : providers) provider.join();
+        long replayEnd = System.nanoTime();
+
+        // give the last messages some time to come through
+        for (int i = 0; i < 300 && !callbackTimes.isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        client.closeBlocking();
+
+        double replaySeconds = (replayEnd - start) / 1_000_000_000.0;
+        System.out.printf("%d messages replayed in %.1f seconds (%.1f messages/s), %d received on the websocket, %d lost%n",
+                messageCount, replaySeconds, messageCount / replaySeconds, latencies.size(), callbackTimes.size());
+        System.out.println("Bot messages sent: " + providers.stream().mapToInt(ChatReplayProvider::getMessagesSentByBot).sum());
+        printPercentiles("Provider callback => websocket frame", latencies);
+        printPercentiles("Provider lag (callback later than planned)", providerLags);
+
+        Files.delete(pollPath);
+    }
+
+    private void beforeCallback(ChatReplayProvider.ReplayedMessage message, long dueAtNanos, long callbackAtNanos) {
+        callbackTimes.put(getMessageNumber(message.senderName()), callbackAtNanos);
+        providerLags.add(callbackAtNanos - dueAtNanos);
+    }
+
+    private void onWebsocketFrame(String frame, long receivedAtNanos) {
+        int messageNumber = getMessageNumber(new JSONObject(frame).getString("author"));
+        Long callbackAt = callbackTimes.remove(messageNumber);
+
+        if (callbackAt == null) {
+            logger.warn("Received unexpected message #{} on the websocket", messageNumber);
+        } else {
+            latencies.add(receivedAtNanos - callbackAt);
+        }
+    }
+
+    private static int getMessageNumber(String author) {
+        return Integer.parseInt(author.substring(author.lastIndexOf('#') + 1));
+    }
+
+    private static void printPercentiles(String name, Collection<Long> values) {
+        if (values.isEmpty()) {
+            System.out.println(name + ": no data");
+            return;
+        }
+
+        long[] sorted = values.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("%s: p50 = %.2f ms, p90 = %.2f ms, p99 = %.2f ms, p99.9 = %.2f ms, max = %.2f ms%n", name,
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                sorted[sorted.length - 1] / 1_000_000.0);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    private static Map<String, List<ChatReplayProvider.ReplayedMessage>> readRecordedChat(Path file) throws IOException {
+        Map<String, List<ChatReplayProvider.ReplayedMessage>> messagesByPlatform = new TreeMap<>();
+
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank()) continue;
+            JSONObject message = new JSONObject(line);
+
+            messagesByPlatform.computeIfAbsent(message.getString("platform"), k -> new ArrayList<>())
+                    .add(new ChatReplayProvider.ReplayedMessage(
+                            message.getLong("offset"),
+                            message.getString("author"),
+                            message.getString("author"),
+                            message.getString("message"),
+                            message.optBoolean("admin", false)
+                    ));
+        }
+
+        messagesByPlatform.values().forEach(messages -> messages.sort(Comparator.comparingLong(ChatReplayProvider.ReplayedMessage::offsetMillis)));
+        return messagesByPlatform;
+    }
+
+    private static Map<String, List<ChatReplayProvider.ReplayedMessage>> generateSyntheticChat(
+            double rate, int durationSeconds, int raidStartSeconds, double raidRate, int raidDurationSeconds) {
+
+        Random random = new Random(42);
+        Map<String, List<ChatReplayProvider.ReplayedMessage>> messagesByPlatform = new TreeMap<>();
+        messagesByPlatform.put("twitch", new ArrayList<>());
+        messagesByPlatform.put("youtube", new ArrayList<>());
+
+        double time = 0;
+        while (time < durationSeconds) {
+            boolean raid = raidRate > 0 && time >= raidStartSeconds && time < raidStartSeconds + raidDurationSeconds;
+
+            // messages come in at random, with the given rate on average
+            time += -Math.log(1 - random.nextDouble()) / (raid ? raidRate : rate);
+
+            // raiders are all different people coming from Twitch, while the regular chat is a smaller group
+            String platform = raid || random.nextBoolean() ? "twitch" : "youtube";
+            String author = raid ? "raider" + random.nextInt(10_000) : "viewer" + random.nextInt(200);
+
+            messagesByPlatform.get(platform).add(new ChatReplayProvider.ReplayedMessage(
+                    (long) (time * 1000), author, author,
+                    SAMPLE_MESSAGES.get(random.nextInt(SAMPLE_MESSAGES.size())), false
+            ));
+        }
+
+        return messagesByPlatform;
+    }
+}
@@ -0,0 +1,113 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ovh.maddie480.randomstuff.backend.streams.apis.ChatMessage;
+import ovh.maddie480.randomstuff.backend.streams.apis.IChatProvider;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A chat provider that doesn't connect to anything, and instead plays back a list of messages at the time they were
+ * (or would have been) posted. Used by {@link ChatLoadTest} to simulate a busy chat.
+ */
+class ChatReplayProvider implements IChatProvider<String> {
+    private static final Logger logger = LoggerFactory.getLogger(ChatReplayProvider.class);
+
+    /**
+     * @param offsetMillis When the message should be sent, relative to the start of the replay
+     */
+    record ReplayedMessage(long offsetMillis, String senderId, String senderName, String contents, boolean isAdmin) {
+    }
+
+    /**
+     * Called right before a message is handed over to the message listener.
+     */
+    interface ReplayListener {
+        void beforeCallback(ReplayedMessage message, long dueAtNanos, long callbackAtNanos);
+    }
+
+    private final String name;
+    private final List<ReplayedMessage> messages;
+    private final double speed;
+    private final ReplayListener replayListener;
+
+    private final AtomicInteger messagesSentByBot = new AtomicInteger(0);
+
+    private Consumer<ChatMessage<String>> messageListener;
+    private Thread replayThread;
+
+    /**
+     * @param name     The name of the provider, for logging
+     * @param messages The messages to replay, sorted by offset
+     * @param speed    How fast the messages should be replayed (2 = twice as fast as recorded)
+     */
+    ChatReplayProvider(String name, List<ReplayedMessage> messages, double speed, ReplayListener replayListener) {
+        this.name = name;
+        this.messages = messages;
+        this.speed = speed;
+        this.replayListener = replayListener;
+    }
+
+    @Override
+    public void connect(Consumer<ChatMessage<String>> messageListener) {
+        this.messageListener = messageListener;
+    }
+
+    /**
+     * Starts replaying messages in a background thread.
+     */
+    void start(long startNanos) {
+        replayThread = new Thread(name + " Chat Replay") {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < messages.size(); i++) {
+                        ReplayedMessage message = messages.get(i);
+                        long dueAt = startNanos + (long) (message.offsetMillis() * 1_000_000L / speed);
+
+                        long waitTime = dueAt - System.nanoTime();
+                        if (waitTime > 0) Thread.sleep(waitTime / 1_000_000L, (int) (waitTime % 1_000_000L));
+
+                        replayListener.beforeCallback(message, dueAt, System.nanoTime());
+                        messageListener.accept(new ChatMessage<>(
+                                message.senderId(), message.senderName(), name + "-" + i, message.contents(),
+                                message.isAdmin(), Collections.emptyList(), Collections.emptyList(), ChatReplayProvider.this
+                        ));
+                    }
+                } catch (InterruptedException e) {
+                    logger.warn("{} replay interrupted!", name);
+                }
+            }
+        };
+        replayThread.start();
+    }
+
+    void join() throws InterruptedException {
+        replayThread.join();
+    }
+
+    int getMessagesSentByBot() {
+        return messagesSentByBot.get();
+    }
+
+    @Override
+    public void disconnect() {
+        if (replayThread != null) replayThread.interrupt();
+    }
+
+    @Override
+    public void sendMessage(String contents) {
+        logger.debug("[{}] Bot sent message: {}", name, contents);
+        messagesSentByBot.incrementAndGet();
+    }
+
+    @Override
+    public void respondTo(ChatMessage<String> message, String response) {
+        logger.debug("[{}] Bot responded to {}: {}", name, message.messageSenderName(), response);
+        messagesSentByBot.incrementAndGet();
+    }
+}
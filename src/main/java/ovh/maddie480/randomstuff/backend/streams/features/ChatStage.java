@@ -0,0 +1,84 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A step of chat message processing, that runs tasks one at a time in order on its own thread, with a bounded queue.
+ * It keeps track of how late tasks run compared to when the message was received, to tell which step falls behind.
+ */
+class ChatStage {
+    private static final Logger logger = LoggerFactory.getLogger(ChatStage.class);
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    // metrics since the last call to logMetrics()
+    private final AtomicLong taskCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong totalLagNanos = new AtomicLong(0);
+    private final AtomicLong maxLagNanos = new AtomicLong(0);
+    private final AtomicLong totalRunTimeNanos = new AtomicLong(0);
+
+    /**
+     * @param name     The name of the stage, also used for its thread
+     * @param capacity How many tasks can wait in the queue before new ones get dropped
+     */
+    ChatStage(String name, int capacity) {
+        this.name = name;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+                runnable -> new Thread(runnable, name));
+    }
+
+    /**
+     * Queues up a task, or drops it if too many tasks are waiting already.
+     *
+     * @param receivedAtNanos When the chat message this task is about was received, as given by {@link System#nanoTime()}
+     */
+    void submit(long receivedAtNanos, Runnable task) {
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                long lag = start - receivedAtNanos;
+                totalLagNanos.addAndGet(lag);
+                maxLagNanos.accumulateAndGet(lag, Math::max);
+
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error("Error while processing chat message in stage {}", name, e);
+                } finally {
+                    totalRunTimeNanos.addAndGet(System.nanoTime() - start);
+                    taskCount.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            droppedCount.incrementAndGet();
+            logger.warn("Stage {} is full, dropping chat message!", name);
+        }
+    }
+
+    /**
+     * Logs how this stage performed since the last time this was called.
+     */
+    void logMetrics() {
+        long tasks = taskCount.getAndSet(0);
+        long dropped = droppedCount.getAndSet(0);
+        long totalLag = totalLagNanos.getAndSet(0);
+        long maxLag = maxLagNanos.getAndSet(0);
+        long totalRunTime = totalRunTimeNanos.getAndSet(0);
+
+        if (tasks == 0 && dropped == 0) return;
+
+        logger.info("Stage {}: {} messages processed, {} dropped, {} in queue, lag since reception avg {} ms / max {} ms, processing time avg {} ms",
+                name, tasks, dropped, executor.getQueue().size(),
+                tasks == 0 ? 0 : totalLag / tasks / 1_000_000, maxLag / 1_000_000,
+                tasks == 0 ? 0 : totalRunTime / tasks / 1_000_000);
+    }
+}
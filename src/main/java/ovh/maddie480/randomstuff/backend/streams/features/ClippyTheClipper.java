@@ -5,6 +5,8 @@ import org.slf4j.LoggerFactory;
 import ovh.maddie480.randomstuff.backend.streams.apis.ChatMessage;
 import ovh.maddie480.randomstuff.backend.streams.apis.TwitchChatProvider;
 
+import java.util.function.Consumer;
+
 /**
  * Small utility class that makes clips on Twitch with a rate limit.
  */
@@ -14,16 +16,19 @@ public class ClippyTheClipper {
     private long lastClipAt = 0;
     private boolean rateLimitMessageSent = false;
 
-    private final TwitchChatProvider twitchChatProvider;
+    private final Consumer<ChatMessage<?>> clipMaker;
 
-    public ClippyTheClipper(TwitchChatProvider twitchChatProvider) {
-        this.twitchChatProvider = twitchChatProvider;
+    /**
+     * @param clipMaker The action that actually makes the clip, usually {@link TwitchChatProvider#makeClip(ChatMessage)}
+     */
+    public ClippyTheClipper(Consumer<ChatMessage<?>> clipMaker) {
+        this.clipMaker = clipMaker;
     }
 
     public void makeClip(ChatMessage<?> triggeredByMessage) {
         if (System.currentTimeMillis() - lastClipAt > 30000) {
             logger.debug("Time to create a clip!");
-            twitchChatProvider.makeClip(triggeredByMessage);
+            clipMaker.accept(triggeredByMessage);
             lastClipAt = System.currentTimeMillis();
             rateLimitMessageSent = false;
         } else if (!rateLimitMessageSent) {
@@ -5,16 +5,15 @@ import ovh.maddie480.randomstuff.backend.streams.apis.Emote;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Twitch won't let us, so here we are!
  */
 public class CustomEmotes {
-    private final Map<String, String> allEmotes;
+    private final EmoteMatcher emoteMatcher;
 
     public CustomEmotes() {
-        allEmotes = Arrays.stream("""
+        Map<String, String> allEmotes = Arrays.stream("""
                 bigrigs;852891851002609716
                 taxi2;854315889351327754
                 verajones;852891183494856744
@@ -48,19 +47,16 @@ public class CustomEmotes {
                 line -> ":" + line.split(";")[0] + ":",
                 line -> "https://cdn.discordapp.com/emojis/" + line.split(";")[1].trim() + ".webp?size=24&quality=lossless"
         ));
+
+        emoteMatcher = new EmoteMatcher(allEmotes);
     }
 
     public <T> ChatMessage<T> fillWithCustomEmotes(ChatMessage<T> message) {
-        List<Emote> resolvedEmotes = findEmotes(message.messageContents().toLowerCase(Locale.ROOT), allEmotes);
+        List<Emote> resolvedEmotes = emoteMatcher.findEmotes(message.messageContents().toLowerCase(Locale.ROOT), message.emotesInMessage());
         if (resolvedEmotes.isEmpty()) return message;
 
-        List<Emote> allEmotes = Stream.concat(
-                        message.emotesInMessage().stream(),
-                        resolvedEmotes.stream().filter(emote1 -> message.emotesInMessage().stream().noneMatch(emote2 ->
-                                emote1.startIndex() < emote2.endIndex() && emote1.endIndex() > emote2.startIndex()
-                        ))
-                )
-                .toList();
+        List<Emote> allEmotes = new ArrayList<>(message.emotesInMessage());
+        allEmotes.addAll(resolvedEmotes);
 
         return new ChatMessage<>(
                 message.messageSenderId(), message.messageSenderName(), message.messageId(),
@@ -68,31 +64,4 @@ public class CustomEmotes {
                 allEmotes, message.provider()
         );
     }
-
-    /**
-     * Finds all emotes in the given message.
-     * This logic works for both YouTube and custom emotes.
-     */
-    public static List<Emote> findEmotes(String message, Map<String, String> allEmotes) {
-        List<Emote> result = new LinkedList<>();
-
-        for (Map.Entry<String, String> emote : allEmotes.entrySet()) {
-            String truncatedMessage = message;
-            int index = 0;
-
-            while (truncatedMessage.contains(emote.getKey())) {
-                result.add(new Emote(
-                        emote.getValue(),
-                        truncatedMessage.indexOf(emote.getKey()) + index,
-                        truncatedMessage.indexOf(emote.getKey()) + index + emote.getKey().length()
-                ));
-
-                int cutoffAt = truncatedMessage.indexOf(emote.getKey()) + emote.getKey().length();
-                index += cutoffAt;
-                truncatedMessage = truncatedMessage.substring(cutoffAt);
-            }
-        }
-
-        return result;
-    }
 }
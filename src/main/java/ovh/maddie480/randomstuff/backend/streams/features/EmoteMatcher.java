@@ -0,0 +1,176 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+import ovh.maddie480.randomstuff.backend.streams.apis.Emote;
+
+import java.util.*;
+
+/**
+ * Finds emote codes in chat messages, using an Aho-Corasick automaton built once from the list of emotes.
+ * All emotes are found in one pass over the message, and if several emotes overlap, the one starting first wins
+ * (or the longest one if they start at the same place).
+ * This logic works for both YouTube and custom emotes.
+ */
+public class EmoteMatcher {
+    // emote codes and URLs, sorted by decreasing code length
+    private final String[] codes;
+    private final String[] urls;
+
+    // transitions of state s are edgeChars/edgeTargets[edgeStart[s]..edgeStart[s + 1]), sorted by character
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+
+    private final int[] fail;
+    // index of the emote ending at this state, or -1 if there isn't one
+    private final int[] output;
+    // closest state in the fail chain that has an output, or -1
+    private final int[] outputLink;
+
+    /**
+     * @param emotes The emotes to look for: code => URL
+     */
+    public EmoteMatcher(Map<String, String> emotes) {
+        List<Map.Entry<String, String>> sortedEmotes = emotes.entrySet().stream()
+                .filter(emote -> !emote.getKey().isEmpty())
+                .sorted(Comparator.comparingInt((Map.Entry<String, String> emote) -> emote.getKey().length()).reversed())
+                .toList();
+
+        codes = sortedEmotes.stream().map(Map.Entry::getKey).toArray(String[]::new);
+        urls = sortedEmotes.stream().map(Map.Entry::getValue).toArray(String[]::new);
+
+        // build the trie
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> trieOutput = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        trieOutput.add(-1);
+
+        for (int i = 0; i < codes.length; i++) {
+            int state = 0;
+            for (char c : codes[i].toCharArray()) {
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    trieOutput.add(-1);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            trieOutput.set(state, i);
+        }
+
+        // flatten it
+        int stateCount = trie.size();
+        edgeStart = new int[stateCount + 1];
+        edgeChars = new char[stateCount - 1];
+        edgeTargets = new int[stateCount - 1];
+        output = new int[stateCount];
+
+        int edge = 0;
+        for (int state = 0; state < stateCount; state++) {
+            edgeStart[state] = edge;
+            for (Map.Entry<Character, Integer> transition : trie.get(state).entrySet()) {
+                edgeChars[edge] = transition.getKey();
+                edgeTargets[edge] = transition.getValue();
+                edge++;
+            }
+            output[state] = trieOutput.get(state);
+        }
+        edgeStart[stateCount] = edge;
+
+        // compute fail links breadth-first, so that the fail link of a state is always computed before its children
+        fail = new int[stateCount];
+        outputLink = new int[stateCount];
+        outputLink[0] = -1;
+
+        Deque<Integer> toVisit = new ArrayDeque<>();
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            fail[edgeTargets[e]] = 0;
+            outputLink[edgeTargets[e]] = -1;
+            toVisit.add(edgeTargets[e]);
+        }
+
+        while (!toVisit.isEmpty()) {
+            int state = toVisit.poll();
+
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                int child = edgeTargets[e];
+                int failState = next(fail[state], edgeChars[e]);
+
+                fail[child] = failState;
+                outputLink[child] = output[failState] != -1 ? failState : outputLink[failState];
+                toVisit.add(child);
+            }
+        }
+    }
+
+    /**
+     * Finds all emotes in the given message.
+     */
+    public List<Emote> findEmotes(String message) {
+        return findEmotes(message, Collections.emptyList());
+    }
+
+    /**
+     * Finds all emotes in the given message, skipping the ones that would overlap with emotes that are already known.
+     */
+    public List<Emote> findEmotes(String message, List<Emote> existingEmotes) {
+        // each match is stored as (start index << 32 | emote index), so that sorting them puts them in order of priority
+        long[] matches = null;
+        int matchCount = 0;
+
+        int state = 0;
+        for (int i = 0; i < message.length(); i++) {
+            state = next(state, message.charAt(i));
+
+            for (int match = output[state] != -1 ? state : outputLink[state]; match != -1; match = outputLink[match]) {
+                int emote = output[match];
+
+                if (matches == null) {
+                    matches = new long[4];
+                } else if (matchCount == matches.length) {
+                    matches = Arrays.copyOf(matches, matchCount * 2);
+                }
+
+                matches[matchCount++] = ((long) (i + 1 - codes[emote].length()) << 32) | emote;
+            }
+        }
+
+        if (matchCount == 0) return Collections.emptyList();
+        Arrays.sort(matches, 0, matchCount);
+
+        List<Emote> result = new ArrayList<>();
+        int lastEnd = 0;
+
+        for (int m = 0; m < matchCount; m++) {
+            int start = (int) (matches[m] >>> 32);
+            int emote = (int) matches[m];
+            int end = start + codes[emote].length();
+
+            if (start >= lastEnd && !overlapsAny(start, end, existingEmotes)) {
+                result.add(new Emote(urls[emote], start, end));
+                lastEnd = end;
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean overlapsAny(int start, int end, List<Emote> emotes) {
+        for (Emote emote : emotes) {
+            if (start < emote.endIndex() && end > emote.startIndex()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int e = Arrays.binarySearch(edgeChars, edgeStart[state], edgeStart[state + 1], c);
+            if (e >= 0) return edgeTargets[e];
+            if (state == 0) return 0;
+            state = fail[state];
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+import com.sun.management.ThreadMXBean;
+import ovh.maddie480.randomstuff.backend.streams.apis.Emote;
+import ovh.maddie480.randomstuff.backend.streams.apis.YouTubeEmoteDatabase;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Compares the time and memory it takes to find YouTube emotes in a chat replay with {@link EmoteMatcher},
+ * and with the previous way of doing it (calling indexOf for each emote).
+ */
+class EmoteMatcherBenchmark {
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+
+    static void main(String[] args) throws IOException {
+        // 1/ dump the text of chat messages to a file, one message per line
+        // 2/ run the class with the path to that file as an argument
+        List<String> messages = Files.readAllLines(Paths.get(args[0]));
+        Map<String, String> emotes = YouTubeEmoteDatabase.getEmotes();
+        EmoteMatcher matcher = new EmoteMatcher(emotes);
+
+        int differences = 0;
+        for (String message : messages) {
+            if (!findEmotesWithIndexOf(message, emotes).equals(matcher.findEmotes(message))) {
+                differences++;
+            }
+        }
+        System.out.println(messages.size() + " messages, " + emotes.size() + " emotes, "
+                + differences + " messages with different results (overlapping emotes)");
+
+        measure("indexOf", messages, message -> findEmotesWithIndexOf(message, emotes));
+        measure("EmoteMatcher", messages, matcher::findEmotes);
+    }
+
+    private static void measure(String name, List<String> messages, Function<String, List<Emote>> finder) {
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long totalEmotes = 0;
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            for (String message : messages) {
+                totalEmotes += finder.apply(message).size();
+            }
+        }
+
+        long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            for (String message : messages) {
+                totalEmotes += finder.apply(message).size();
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        long messageCount = (long) messages.size() * MEASURED_ROUNDS;
+
+        System.out.printf("%s: %.1f ns/message, %.1f bytes allocated/message (%d emotes found)%n",
+                name, (double) elapsed / messageCount, (double) allocated / messageCount, totalEmotes);
+    }
+
+    // what CustomEmotes.findEmotes used to do
+    private static List<Emote> findEmotesWithIndexOf(String message, Map<String, String> allEmotes) {
+        List<Emote> result = new ArrayList<>();
+
+        for (Map.Entry<String, String> emote : allEmotes.entrySet()) {
+            String truncatedMessage = message;
+            int index = 0;
+
+            while (truncatedMessage.contains(emote.getKey())) {
+                result.add(new Emote(
+                        emote.getValue(),
+                        truncatedMessage.indexOf(emote.getKey()) + index,
+                        truncatedMessage.indexOf(emote.getKey()) + index + emote.getKey().length()
+                ));
+
+                int cutoffAt = truncatedMessage.indexOf(emote.getKey()) + emote.getKey().length();
+                index += cutoffAt;
+                truncatedMessage = truncatedMessage.substring(cutoffAt);
+            }
+        }
+
+        result.sort((a, b) -> Integer.compare(a.startIndex(), b.startIndex()));
+        return result;
+    }
+}
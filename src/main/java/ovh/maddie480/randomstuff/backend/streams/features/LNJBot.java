@@ -12,18 +12,19 @@ import ovh.maddie480.randomstuff.backend.streams.apis.TwitchChatProvider;
 import ovh.maddie480.randomstuff.backend.streams.apis.YouTubeChatProvider;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -36,14 +37,25 @@ import java.util.stream.Collectors;
 public class LNJBot {
     private static final Logger logger = LoggerFactory.getLogger(LNJBot.class);
     private static final Path lnjPollPath = Paths.get("/shared/lnj-poll.json");
+    private static final Pattern TOLERANT_COMMAND = Pattern.compile("^! *([a-z0-9_é]+)$");
 
     private final WebsocketLiveChat websocketLiveChat;
     private final SHSChatControl shsChatControl;
     private final ClippyTheClipper clipper;
     private final CustomEmotes customEmotes;
+    private final LNJPollStore pollStore;
+
+    // messages go through the intake stage of their provider, then the command stage, then the response stage if needed
+    private final ChatStage commandStage = new ChatStage("Chat Commands", 1000);
+    private final ChatStage responseStage = new ChatStage("Chat Responses", 100);
+    private final List<ChatStage> stages = new CopyOnWriteArrayList<>(List.of(commandStage, responseStage));
 
     static void main(String[] args) throws IOException {
-        new LNJBot();
+        TwitchChatProvider twitchChatProvider = new TwitchChatProvider();
+        YouTubeChatProvider youTubeChatProvider = new YouTubeChatProvider(() ->
+                twitchChatProvider.sendMessage("Le bot YouTube n'a plus de budget. RIP"));
+
+        new LNJBot(Arrays.asList(twitchChatProvider, youTubeChatProvider), twitchChatProvider::makeClip, lnjPollPath);
         logger.debug("Startup finished!");
 
         try {
@@ -55,45 +67,62 @@ public class LNJBot {
         }
     }
 
-    private LNJBot() throws IOException {
+    /**
+     * @param chatProviders The chat providers to connect to
+     * @param clipMaker     The action to run to make a clip
+     * @param pollPath      The file the ongoing poll is saved to
+     */
+    LNJBot(List<IChatProvider<?>> chatProviders, Consumer<ChatMessage<?>> clipMaker, Path pollPath) throws IOException {
         customEmotes = new CustomEmotes();
+        pollStore = new LNJPollStore(pollPath, 2000);
+        clipper = new ClippyTheClipper(clipMaker);
+        shsChatControl = new SHSChatControl(chatProviders);
 
-        new WebsocketHttpServer().start();
+        new WebsocketHttpServer(pollStore).start();
         websocketLiveChat = new WebsocketLiveChat();
         websocketLiveChat.start();
 
-        TwitchChatProvider twitchChatProvider = new TwitchChatProvider();
-        twitchChatProvider.connect(this::handleChatMessage);
-
-        YouTubeChatProvider youTubeChatProvider = new YouTubeChatProvider(() ->
-                twitchChatProvider.sendMessage("Le bot YouTube n'a plus de budget. RIP"));
-        youTubeChatProvider.connect(this::handleChatMessage);
-
-        List<IChatProvider<?>> chatProviders = Arrays.asList(twitchChatProvider, youTubeChatProvider);
+        for (IChatProvider<?> chatProvider : chatProviders) {
+            connect(chatProvider);
+        }
         chatProviders.forEach(provider -> provider.sendMessage("Je suis prêt !"));
 
-        shsChatControl = new SHSChatControl(chatProviders);
         shsChatControl.run();
 
-        clipper = new ClippyTheClipper(twitchChatProvider);
+        Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "Chat Stage Metrics"))
+                .scheduleWithFixedDelay(() -> stages.forEach(ChatStage::logMetrics), 5, 5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Messages from each provider go through their own queue first, so that a provider sending a lot of messages
+     * doesn't delay the others.
+     */
+    private <T> void connect(IChatProvider<T> chatProvider) throws IOException {
+        ChatStage intakeStage = new ChatStage(chatProvider.getClass().getSimpleName() + " Intake", 1000);
+        stages.add(intakeStage);
+
+        chatProvider.connect(message -> {
+            long receivedAt = System.nanoTime();
+            intakeStage.submit(receivedAt, () -> handleChatMessage(message, receivedAt));
+        });
     }
 
-    private synchronized <T> void handleChatMessage(ChatMessage<T> message) {
+    private <T> void handleChatMessage(ChatMessage<T> message, long receivedAt) {
         logger.debug("New message from {}: {}", message.messageSenderName(), message.messageContents());
-        message = customEmotes.fillWithCustomEmotes(message);
-        websocketLiveChat.onMessageReceived(message);
-
-        LNJPoll poll;
-        try (BufferedReader br = Files.newBufferedReader(lnjPollPath)) {
-            poll = new LNJPoll(new JSONObject(new JSONTokener(br)));
-        } catch (IOException e) {
-            logger.error("Could not load LNJ Poll", e);
-            return;
-        }
+        ChatMessage<T> messageWithEmotes = customEmotes.fillWithCustomEmotes(message);
+        websocketLiveChat.onMessageReceived(messageWithEmotes);
+
+        commandStage.submit(receivedAt, () -> handleCommands(messageWithEmotes, receivedAt));
+    }
 
+    /**
+     * Handles commands and poll votes. This always runs on the same thread, so they are handled in order.
+     * Anything that involves calling a chat API is passed on to the response stage.
+     */
+    private <T> void handleCommands(ChatMessage<T> message, long receivedAt) {
         if (message.messageContents().trim().toLowerCase(Locale.ROOT).matches("^! *clip$")) {
             logger.debug("Received a !clip command from {}", message.messageSenderName());
-            clipper.makeClip(message);
+            responseStage.submit(receivedAt, () -> clipper.makeClip(message));
 
         } else if (message.isAdmin()
                 && (message.messageContents().trim().startsWith("!poll ") || message.messageContents().trim().equals("!poll"))) {
@@ -102,40 +131,29 @@ public class LNJBot {
 
             if (command.size() < 3) {
                 // we need at least a question and an answer!
-                message.respond("Tu dois au moins préciser une question et une réponse ! Par exemple : !poll \"à quoi on joue ce soir ?\" \"pizza dude\" \"geopolitical simulator\" \"freelancer\"");
+                responseStage.submit(receivedAt, () -> message.respond("Tu dois au moins préciser une question et une réponse ! Par exemple : !poll \"à quoi on joue ce soir ?\" \"pizza dude\" \"geopolitical simulator\" \"freelancer\""));
             } else {
                 String title = command.get(1);
                 Set<String> choices = command.stream().skip(2).collect(Collectors.toSet());
 
-                try (OutputStream os = Files.newOutputStream(lnjPollPath)) {
-                    IOUtils.write(new LNJPoll(title, choices).toJson().toString(), os, StandardCharsets.UTF_8);
-                } catch (IOException e) {
-                    logger.error("Could not save new LNJ Poll", e);
-                    return;
-                }
+                pollStore.startNewPoll(new LNJPoll(title, choices));
 
                 logger.debug("New poll created: \"{}\", with choices {}", title, choices);
-                message.respond("Sondage créé !");
+                responseStage.submit(receivedAt, () -> message.respond("Sondage créé !"));
             }
-        } else if (poll.voteFor(message.messageSenderId(), message.messageContents())) {
+        } else if (pollStore.voteFor(message.messageSenderId(), message.messageContents())) {
             logger.debug("New vote received on poll: {} (ID {}) voted {}", message.messageSenderName(),
                     message.messageSenderId(), message.messageContents());
-
-            try (OutputStream os = Files.newOutputStream(lnjPollPath)) {
-                IOUtils.write(poll.toJson().toString(), os, StandardCharsets.UTF_8);
-            } catch (IOException e) {
-                logger.error("Could not save LNJ Poll vote", e);
-            }
         }
 
-        Matcher tolerantCommandMatcher = Pattern.compile("^! *([a-z0-9_é]+)$")
-                .matcher(message.messageContents().trim().toLowerCase(Locale.ROOT));
+        Matcher tolerantCommandMatcher = TOLERANT_COMMAND.matcher(message.messageContents().trim().toLowerCase(Locale.ROOT));
 
         if (tolerantCommandMatcher.matches()) {
-            shsChatControl.handleCommand("!" + tolerantCommandMatcher.group(1));
+            String commandName = tolerantCommandMatcher.group(1);
+            shsChatControl.handleCommand("!" + commandName);
 
             if (message.provider() instanceof YouTubeChatProvider youtube) {
-                youtube.respondToFixedCommand(message, tolerantCommandMatcher.group(1));
+                responseStage.submit(receivedAt, () -> youtube.respondToFixedCommand(message, commandName));
             }
         }
     }
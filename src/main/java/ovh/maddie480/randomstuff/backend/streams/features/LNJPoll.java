@@ -2,12 +2,15 @@ package ovh.maddie480.randomstuff.backend.streams.features;
 
 import org.json.JSONObject;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents the ongoing poll on the stream, and handles people responding to it.
+ * Votes can come from several chat providers at once, so they are stored in a concurrent map.
  */
 class LNJPoll {
     private final long id;
@@ -18,18 +21,19 @@ class LNJPoll {
     public LNJPoll(String name, Set<String> answers) {
         this.id = System.currentTimeMillis();
         this.name = name;
-        this.answersWithCase = new HashMap<>();
+        Map<String, String> answersWithCase = new HashMap<>();
         for (String answer : answers) {
-            this.answersWithCase.put(answer.toLowerCase(), answer);
+            answersWithCase.put(answer.toLowerCase(), answer);
         }
-        this.answersByUser = new HashMap<>();
+        this.answersWithCase = Collections.unmodifiableMap(answersWithCase);
+        this.answersByUser = new ConcurrentHashMap<>();
     }
 
     public LNJPoll(JSONObject json) {
         id = json.getLong("id");
         name = json.getString("name");
-        answersWithCase = toMap(json.getJSONObject("answersWithCase"));
-        answersByUser = toMap(json.getJSONObject("answersByUser"));
+        answersWithCase = Collections.unmodifiableMap(toMap(json.getJSONObject("answersWithCase")));
+        answersByUser = new ConcurrentHashMap<>(toMap(json.getJSONObject("answersByUser")));
     }
 
     private static Map<String, String> toMap(JSONObject json) {
@@ -49,14 +53,36 @@ class LNJPoll {
         return o;
     }
 
+    /**
+     * Registers a vote from a user.
+     *
+     * @return true if the vote changed something, false if it is not an answer to the poll or if the user already voted for it
+     */
     public boolean voteFor(String userId, String vote) {
         vote = vote.toLowerCase();
 
         if (answersWithCase.containsKey(vote)) {
-            answersByUser.put(userId, vote);
-            return true;
+            return !vote.equals(answersByUser.put(userId, vote));
         } else {
             return false;
         }
     }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Counts the votes for each answer, without the case being changed.
+     */
+    public Map<String, Integer> getTallies() {
+        Map<String, Integer> tallies = new HashMap<>();
+        for (String answer : answersWithCase.values()) {
+            tallies.put(answer, 0);
+        }
+        for (String vote : answersByUser.values()) {
+            tallies.merge(answersWithCase.get(vote), 1, Integer::sum);
+        }
+        return tallies;
+    }
 }
@@ -0,0 +1,110 @@
+package ovh.maddie480.randomstuff.backend.streams.features;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the ongoing poll in memory, and writes it back to disk in the background.
+ * Votes that happen between two writes all get saved at once.
+ */
+class LNJPollStore {
+    private static final Logger logger = LoggerFactory.getLogger(LNJPollStore.class);
+
+    private final Path pollPath;
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    // null if no poll was ever started
+    private volatile LNJPoll currentPoll;
+
+    /**
+     * Loads the poll from the given file if there is one, and starts saving it back every writeIntervalMillis milliseconds if it changed.
+     */
+    public LNJPollStore(Path pollPath, long writeIntervalMillis) {
+        this.pollPath = pollPath;
+
+        if (Files.exists(pollPath)) {
+            try (BufferedReader br = Files.newBufferedReader(pollPath)) {
+                currentPoll = new LNJPoll(new JSONObject(new JSONTokener(br)));
+            } catch (IOException | JSONException e) {
+                logger.error("Could not load LNJ Poll, starting without one", e);
+            }
+        } else {
+            logger.info("No LNJ Poll saved at {}, starting without one", pollPath);
+        }
+
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LNJ Poll Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(this::saveIfDirty, writeIntervalMillis, writeIntervalMillis, TimeUnit.MILLISECONDS);
+
+        // don't lose the last votes if the bot is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveIfDirty, "LNJ Poll Writer Shutdown Hook"));
+    }
+
+    public void startNewPoll(LNJPoll poll) {
+        currentPoll = poll;
+        dirty.set(true);
+    }
+
+    /**
+     * Registers a vote on the current poll.
+     *
+     * @return whether the vote was taken into account
+     */
+    public boolean voteFor(String userId, String vote) {
+        LNJPoll poll = currentPoll;
+        if (poll != null && poll.voteFor(userId, vote)) {
+            dirty.set(true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the name and live vote counts for each answer of the current poll, for the overlay.
+     *
+     * @return null if there is no poll
+     */
+    public JSONObject getLiveResults() {
+        LNJPoll poll = currentPoll;
+        if (poll == null) return null;
+
+        return new JSONObject()
+                .put("name", poll.getName())
+                .put("tallies", poll.getTallies());
+    }
+
+    private void saveIfDirty() {
+        if (!dirty.getAndSet(false)) return;
+
+        LNJPoll poll = currentPoll;
+        Path tempFile = pollPath.resolveSibling(pollPath.getFileName() + ".tmp");
+
+        try {
+            // write to a temporary file then move it, so that the frontend never reads a half-written poll
+            try (BufferedWriter bw = Files.newBufferedWriter(tempFile)) {
+                poll.toJson().write(bw);
+            }
+            Files.move(tempFile, pollPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Saved LNJ Poll");
+        } catch (IOException e) {
+            logger.error("Could not save LNJ Poll", e);
+            dirty.set(true);
+        }
+    }
+}
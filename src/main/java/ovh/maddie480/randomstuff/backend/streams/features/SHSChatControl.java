@@ -9,24 +9,39 @@ import ovh.maddie480.randomstuff.backend.streams.apis.IChatProvider;
 import ovh.maddie480.randomstuff.backend.utils.ConnectionUtils;
 import ovh.maddie480.randomstuff.backend.utils.OutputStreamLogger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Chat control for an obscure game called Streatham Hill Stories.
  * Powered by the magic of TCP sockets!
+ * <p>
+ * Both the game command socket and the radio socket are served by a single selector thread. Game commands are
+ * sent without waiting for the previous one to be acknowledged (up to {@link #MAX_COMMANDS_IN_FLIGHT} at once),
+ * and the game acknowledges them in order by sending them back.
  */
 public class SHSChatControl implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(SHSChatControl.class);
@@ -39,136 +54,355 @@ public class SHSChatControl implements Runnable {
             "!give_flame", "!give_bat", "!exploding_peds", "!chirac_en_3d"
     );
 
+    // The game reads its socket one byte at a time and sends each command back once it ran it, so commands that are
+    // sent before the previous ones were acknowledged just wait in its socket's receive buffer, in order.
+    // This assumes that the game keeps accepting data while running a command, which is the case of the current mod:
+    // if a version of the game ever stops doing that, setting this to 1 goes back to waiting for each acknowledgement.
+    private static final int MAX_COMMANDS_IN_FLIGHT = 8;
+    private static final int MAX_PENDING_COMMANDS = 100;
+
+    // clients that don't say hi within that delay after connecting get disconnected
+    private static final long HANDSHAKE_TIMEOUT_SECONDS = 10;
+
     private final List<IChatProvider<?>> chatProviders;
 
-    private int sessionId = 0;
+    private final Selector selector;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "SHS Scheduler"));
+    private final ExecutorService radioPreparers = Executors.newVirtualThreadPerTaskExecutor();
 
-    private BlockingQueue<Byte> commandQueue;
+    // only accessed from the selector thread
+    private final List<GameSession> gameSessions = new ArrayList<>();
+    private int sessionCount = 0;
 
-    public SHSChatControl(List<IChatProvider<?>> chatProviders) {
+    public SHSChatControl(List<IChatProvider<?>> chatProviders) throws IOException {
         this.chatProviders = chatProviders;
+        this.selector = Selector.open();
     }
 
     public void run() {
-        runSHSServerSocket();
-        runSHSRadioSocket();
-    }
-
-    private void runSHSServerSocket() {
-        new Thread("SHS Server Socket") {
+        new Thread("SHS Selector") {
             @Override
             public void run() {
-                try (ServerSocket serverSocket = new ServerSocket(11584)) {
-                    while (true) {
-                        try (Socket socket = serverSocket.accept()) {
-                            logger.info("Client connected!");
-                            commandQueue = new ArrayBlockingQueue<>(100);
-                            handleClient(socket, sessionId);
-
-                        } catch (IOException e) {
-                            logger.warn("Client disconnected!", e);
-                            commandQueue = null;
-                            sessionId++;
-                        }
-                    }
+                try (ServerSocketChannel gameServer = ServerSocketChannel.open();
+                     ServerSocketChannel radioServer = ServerSocketChannel.open()) {
+
+                    listen(gameServer, 11584);
+                    listen(radioServer, 11585);
+                    runSelectorLoop(gameServer);
                 } catch (IOException e) {
-                    logger.error("Error while starting server socket!", e);
+                    logger.error("Error while running SHS server sockets!", e);
                 }
             }
         }.start();
     }
 
-    private void runSHSRadioSocket() {
-        new Thread("SHS Radio Socket") {
-            @Override
-            public void run() {
-                try (ServerSocket serverSocket = new ServerSocket(11585)) {
-                    while (true) {
-                        try (Socket socket = serverSocket.accept()) {
-                            sendRadio(socket);
-                        } catch (IOException | InterruptedException e) {
-                            logger.error("Error while sending radio to client!", e);
-                        }
+    private void listen(ServerSocketChannel server, int port) throws IOException {
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void handleCommand(String command) {
+        if (!COMMANDS.contains(command)) return;
+
+        byte commandId = (byte) (COMMANDS.indexOf(command) + 1);
+        runOnSelector(() -> {
+            // sessions can get closed (and removed from the list) while the command is being queued
+            for (GameSession session : new ArrayList<>(gameSessions)) {
+                try {
+                    session.queueCommand(commandId);
+                } catch (RuntimeException e) {
+                    logger.error("Error while queuing command for session {}, disconnecting it", session.sessionId, e);
+                    session.close();
+                }
+            }
+        });
+    }
+
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private void runSelectorLoop(ServerSocketChannel gameServer) throws IOException {
+        while (true) {
+            selector.select();
+
+            Runnable task;
+            while ((task = selectorTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // this thread serves all clients of both sockets, so it should never die
+                    logger.error("Error while running task on SHS selector thread", e);
+                }
+            }
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (!key.isValid()) continue;
+
+                try {
+                    if (key.isAcceptable()) {
+                        ServerSocketChannel server = (ServerSocketChannel) key.channel();
+                        SocketChannel client = server.accept();
+                        if (client == null) continue;
+
+                        client.configureBlocking(false);
+                        Session session = server == gameServer ? new GameSession(client, sessionCount++) : new RadioSession(client);
+                        client.register(selector, SelectionKey.OP_READ, session);
+                        scheduler.schedule(() -> runOnSelector(session::checkHandshakeTimeout), HANDSHAKE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        logger.info("Client connected to port {}!", server.socket().getLocalPort());
+
+                    } else {
+                        Session session = (Session) key.attachment();
+                        if (key.isReadable()) session.onReadable();
+                        if (key.isValid() && key.isWritable()) session.onWritable();
                     }
                 } catch (IOException e) {
-                    logger.error("Error while starting radio socket!", e);
+                    logger.warn("Client disconnected!", e);
+                    if (key.attachment() instanceof Session session) session.close();
+                } catch (RuntimeException e) {
+                    logger.error("Error while handling client, disconnecting it", e);
+                    if (key.attachment() instanceof Session session) session.close();
                 }
             }
-        }.start();
+            selector.selectedKeys().clear();
+        }
     }
 
-    public void handleCommand(String command) {
-        if (!COMMANDS.contains(command) || commandQueue == null) return;
+    private abstract class Session {
+        protected final SocketChannel channel;
+        protected boolean handshakeReceived = false;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(64);
+        private ByteBuffer writeBuffer = ByteBuffer.allocate(0);
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void checkHandshakeTimeout() {
+            if (channel.isOpen() && !handshakeReceived) {
+                logger.warn("Client did not send a handshake within {} seconds, disconnecting", HANDSHAKE_TIMEOUT_SECONDS);
+                close();
+            }
+        }
+
+        void onReadable() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read == -1) throw new IOException("Connection closed!");
+
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                onByteReceived(readBuffer.get() & 0xFF);
+            }
+        }
 
-        try {
-            commandQueue.put((byte) (COMMANDS.indexOf(command) + 1));
-            logger.debug("Command {} queued up!", command);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        abstract void onByteReceived(int b) throws IOException;
+
+        /**
+         * Sends the given data, keeping whatever could not be sent right away for when the socket is writable again.
+         */
+        void send(ByteBuffer data) throws IOException {
+            if (writeBuffer.hasRemaining()) {
+                ByteBuffer merged = ByteBuffer.allocate(writeBuffer.remaining() + data.remaining());
+                merged.put(writeBuffer).put(data).flip();
+                writeBuffer = merged;
+            } else {
+                writeBuffer = data;
+            }
+            onWritable();
+        }
+
+        void onWritable() throws IOException {
+            if (!channel.isOpen()) return;
+            channel.write(writeBuffer);
+
+            SelectionKey key = channel.keyFor(selector);
+            if (writeBuffer.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                onAllDataSent();
+            }
+        }
+
+        void onAllDataSent() throws IOException {
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Could not close connection", e);
+            }
         }
     }
 
-    private void handleClient(Socket socket, int sessionId) throws IOException {
-        try (InputStream is = socket.getInputStream();
-             OutputStream os = socket.getOutputStream()) {
+    private class GameSession extends Session {
+        private final int sessionId;
+
+        // commands waiting to be sent, and commands sent that were not acknowledged yet, in order
+        private final Deque<Byte> pendingCommands = new ArrayDeque<>();
+        private final Deque<Byte> commandsInFlight = new ArrayDeque<>();
+        private long lastCommandSentAt = System.currentTimeMillis();
+        private long lastAckReceivedAt = System.currentTimeMillis();
+        private int sequenceNumber = 0;
+
+        private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
 
-            {
+        GameSession(SocketChannel channel, int sessionId) {
+            super(channel);
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        void onByteReceived(int b) throws IOException {
+            if (!handshakeReceived) {
                 // hi! - 42
-                int handshake = is.read();
-                if (handshake != 42) throw new IOException("Unexpected handshake " + handshake);
+                if (b != 42) throw new IOException("Unexpected handshake " + b);
+                logger.debug("Handshake received for session {}!", sessionId);
+                handshakeReceived = true;
+                onHandshake();
+                return;
+            }
 
-                logger.debug("Handshake received!");
+            // the game sends back the commands in the order it received them
+            Byte expected = commandsInFlight.poll();
+            if (expected == null || b != (expected & 0xFF)) {
+                throw new IOException("Unexpected response " + b + ", was expecting " + expected);
             }
 
+            lastAckReceivedAt = System.currentTimeMillis();
+            logger.debug("Command #{} of session {} acknowledged!", sequenceNumber - commandsInFlight.size() - 1, sessionId);
+            sendPendingCommands();
+        }
+
+        private void onHandshake() {
+            gameSessions.add(this);
+
             chatProviders.forEach(provider -> provider.sendMessage("Streatham Hill Stories est connecté ! "
                     + "Commandes disponibles : " + String.join(", ", COMMANDS)));
 
-            new Thread("Command Poster") {
-                @Override
-                public void run() {
-                    while (SHSChatControl.this.sessionId == sessionId) {
-                        try {
-                            Thread.sleep(300_000);
-                        } catch (InterruptedException e) {
-                            throw new RuntimeException(e);
-                        }
-
-                        chatProviders.forEach(provider -> provider.sendMessage("Commandes disponibles : " + String.join(", ", COMMANDS)));
-                    }
-                }
-            }.start();
+            scheduledTasks.add(scheduler.scheduleWithFixedDelay(() -> chatProviders.forEach(provider ->
+                            provider.sendMessage("Commandes disponibles : " + String.join(", ", COMMANDS))),
+                    5, 5, TimeUnit.MINUTES));
+
+            scheduledTasks.add(scheduler.scheduleWithFixedDelay(() -> runOnSelector(this::checkKeepalive),
+                    5, 5, TimeUnit.SECONDS));
+        }
+
+        private void checkKeepalive() {
+            if (!channel.isOpen()) return;
+
+            if (!commandsInFlight.isEmpty() && System.currentTimeMillis() - lastAckReceivedAt > 60_000) {
+                logger.warn("Session {} did not acknowledge commands for 60 seconds, disconnecting", sessionId);
+                close();
+            } else if (pendingCommands.isEmpty() && commandsInFlight.isEmpty()
+                    && System.currentTimeMillis() - lastCommandSentAt > 30_000) {
 
-            while (true) {
                 // we want at least to send a byte every 30 seconds (even if it is 0 - do nothing) as a keepalive.
-                Byte command = commandQueue.poll(30, TimeUnit.SECONDS);
-                if (command == null) command = 0;
+                queueCommand((byte) 0);
+            }
+        }
+
+        void queueCommand(byte command) {
+            if (pendingCommands.size() >= MAX_PENDING_COMMANDS) {
+                logger.warn("Too many commands pending for session {}, dropping command {}", sessionId, command);
+                return;
+            }
+
+            pendingCommands.add(command);
+            logger.debug("Command {} queued up for session {}!", command, sessionId);
 
-                logger.debug("Sending command {}...", command);
-                os.write(command);
-                os.flush();
+            try {
+                sendPendingCommands();
+            } catch (IOException e) {
+                logger.warn("Client disconnected!", e);
+                close();
+            }
+        }
+
+        private void sendPendingCommands() throws IOException {
+            int count = Math.min(pendingCommands.size(), MAX_COMMANDS_IN_FLIGHT - commandsInFlight.size());
+            if (count <= 0) return;
 
-                int response = is.read();
-                if (response != command) throw new IOException("Unexpected response " + response);
-                logger.debug("Command acknowledged!");
+            ByteBuffer commands = ByteBuffer.allocate(count);
+            for (int i = 0; i < count; i++) {
+                byte command = pendingCommands.poll();
+                commandsInFlight.add(command);
+                commands.put(command);
+                logger.debug("Sending command #{} ({}) to session {}...", sequenceNumber++, command, sessionId);
             }
+            commands.flip();
+
+            if (commandsInFlight.size() == count) {
+                // nothing was waiting for an acknowledgement, so the ack timeout starts now
+                lastAckReceivedAt = System.currentTimeMillis();
+            }
+            lastCommandSentAt = System.currentTimeMillis();
+            send(commands);
+        }
 
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        @Override
+        void close() {
+            super.close();
+            gameSessions.remove(this);
+            scheduledTasks.forEach(task -> task.cancel(false));
         }
     }
 
-    private void sendRadio(Socket socket) throws IOException, InterruptedException {
-        try (InputStream is = socket.getInputStream();
-             ObjectOutputStream os = new ObjectOutputStream(socket.getOutputStream())) {
+    private class RadioSession extends Session {
+        private boolean transferDone = false;
+        private byte expectedAck;
 
-            {
-                // hi! - 43
-                int handshake = is.read();
-                if (handshake != 43) throw new IOException("Unexpected handshake " + handshake);
+        RadioSession(SocketChannel channel) {
+            super(channel);
+        }
 
+        @Override
+        void onByteReceived(int b) throws IOException {
+            if (!handshakeReceived) {
+                // hi! - 43
+                if (b != 43) throw new IOException("Unexpected handshake " + b);
                 logger.debug("Handshake received!");
+                handshakeReceived = true;
+
+                // getting the song ready can take a while, so it is done outside the selector thread
+                radioPreparers.submit(() -> {
+                    try {
+                        ByteBuffer payload = prepareRadio();
+                        runOnSelector(() -> {
+                            try {
+                                send(payload);
+                            } catch (IOException e) {
+                                logger.error("Error while sending radio to client!", e);
+                                close();
+                            }
+                        });
+                    } catch (IOException | InterruptedException e) {
+                        logger.error("Error while sending radio to client!", e);
+                        runOnSelector(this::close);
+                    }
+                });
+            } else if (transferDone) {
+                if (b != (expectedAck & 0xFF)) throw new IOException("Did not receive ack!");
+
+                logger.debug("Transfer done! Closing connection.");
+                close();
+            } else {
+                throw new IOException("Unexpected data received during transfer: " + b);
             }
+        }
 
+        @Override
+        void onAllDataSent() {
+            if (handshakeReceived) transferDone = true;
+        }
+
+        private ByteBuffer prepareRadio() throws IOException, InterruptedException {
             // get radio state, make sure there is more than 15 seconds left or hold the line
             String songPath;
             int seek;
@@ -192,13 +426,12 @@ public class SHSChatControl implements Runnable {
             }
 
             // download the song, cut it if necessary
-            Path radioToSend;
-            {
-                Path radioTemp = Paths.get("/tmp/radio.mp3");
-                Path radioTempCut = Paths.get("/tmp/radio_cut.mp3");
-                radioToSend = radioTemp;
-
-                if (Files.exists(radioTempCut)) Files.delete(radioTempCut);
+            // (each session gets its own folder, since several radio clients can be served at once)
+            Path radioFolder = Files.createTempDirectory("shs-radio");
+            try {
+                Path radioTemp = radioFolder.resolve("radio.mp3");
+                Path radioTempCut = radioFolder.resolve("radio_cut.mp3");
+                Path radioToSend = radioTemp;
 
                 logger.debug("Next song is {} (duration {}) with seek {}, downloading...", songPath, duration, seek);
 
@@ -230,37 +463,37 @@ public class SHSChatControl implements Runnable {
                         throw new IOException("Could not convert file: return code " + ffmpeg.exitValue());
                     }
 
-                    Files.delete(radioTemp);
                     radioToSend = radioTempCut;
 
                     seek += (int) (System.currentTimeMillis() - seekTimeMillis);
                     logger.debug("Cut complete, seek adjusted to {}", seek);
                 }
-            }
 
-            int fileSize = (int) Files.size(radioToSend);
-            logger.debug("Transferring file {} @ {} ({} bytes) and remaining duration {} to client", songPath, radioToSend.toAbsolutePath(), fileSize, duration - seek);
-
-            // transfer the size, the file, then the time left
-            os.writeInt(fileSize);
-            byte[] buf = new byte[4096];
-            try (InputStream ris = Files.newInputStream(radioToSend)) {
-                while (true) {
-                    int read = ris.read(buf);
-                    if (read == -1) break;
-                    os.write(buf, 0, read);
-                }
-            }
-            Files.delete(radioToSend);
-            os.writeInt(duration - seek + 1000);
+                int fileSize = (int) Files.size(radioToSend);
+                logger.debug("Transferring file {} @ {} ({} bytes) and remaining duration {} to client", songPath, radioToSend.toAbsolutePath(), fileSize, duration - seek);
 
-            // send a random number, the client should reply with that number to acknowledge they received everything
-            byte random = (byte) (Math.random() * Byte.MAX_VALUE);
-            os.writeByte(random);
-            os.flush();
-            if (is.read() != random) throw new IOException("Did not receive ack!");
+                // the client reads this with an ObjectInputStream, so the whole payload is written with an ObjectOutputStream
+                // then sent as is: the size, the file, then the time left
+                ByteArrayOutputStream payload = new ByteArrayOutputStream(fileSize + 64);
+                try (ObjectOutputStream os = new ObjectOutputStream(payload)) {
+                    os.writeInt(fileSize);
+                    try (InputStream ris = Files.newInputStream(radioToSend)) {
+                        ris.transferTo(os);
+                    }
+                    os.writeInt(duration - seek + 1000);
+
+                    // send a random number, the client should reply with that number to acknowledge they received everything
+                    expectedAck = (byte) (Math.random() * Byte.MAX_VALUE);
+                    os.writeByte(expectedAck);
+                }
 
-            logger.debug("Transfer done! Closing connection.");
+                return ByteBuffer.wrap(payload.toByteArray());
+            } finally {
+                try (var files = Files.list(radioFolder)) {
+                    for (Path file : files.toList()) Files.delete(file);
+                }
+                Files.delete(radioFolder);
+            }
         }
     }
 }
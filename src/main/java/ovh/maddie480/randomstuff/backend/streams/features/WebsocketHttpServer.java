@@ -1,78 +1,103 @@
 package ovh.maddie480.randomstuff.backend.streams.features;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
 
 /**
  * A simple HTTP server that answers a simple HTML page to any request thrown to it.
  * This is because we need a plain HTTP page to be allowed to use plain websockets...
+ * Each request is handled on its own virtual thread, and connections are kept alive.
+ * The live results of the ongoing poll are also served at /poll.json, straight from memory.
  */
 public class WebsocketHttpServer {
     private static final Logger logger = LoggerFactory.getLogger(WebsocketHttpServer.class);
 
-    public void start() {
-        new Thread("Websocket HTTP Server") {
-            @Override
-            public void run() {
-                try (ServerSocket serverSocket = new ServerSocket(11587)) {
-                    while (true) {
-                        try (Socket socket = serverSocket.accept()) {
-                            logger.info("Client connected!");
-                            dealWithClient(socket);
-                            logger.info("Client disconnected normally!");
-
-                        } catch (IOException e) {
-                            logger.warn("Client disconnected!", e);
-                        }
-                    }
-                } catch (IOException e) {
-                    logger.error("Error while starting server socket!", e);
-                }
+    private static final String CONTENT_SECURITY_POLICY = "default-src 'self' https://maddie480.ovh; connect-src 'self' https://maddie480.ovh ws:; img-src 'self' https://maddie480.ovh https://static-cdn.jtvnw.net https://yt3.ggpht.com https://cdn.discordapp.com; frame-ancestors 'none'; object-src 'none';";
+
+    private static final byte[] PAGE = """
+            <!DOCTYPE html>
+            <html lang="en">
+            <head>
+                <meta charset="UTF-8">
+                <title>LNJ Twitch Chat</title>
+                <link rel="stylesheet" href="https://maddie480.ovh/css/twitch-chat.css">
+            </head>
+            <body id="body">
+                <script src="https://maddie480.ovh/js/twitch-chat.js"></script>
+            </body>
+            </html>
+            """.getBytes(StandardCharsets.UTF_8);
+
+    private final LNJPollStore pollStore;
+
+    public WebsocketHttpServer(LNJPollStore pollStore) {
+        this.pollStore = pollStore;
+    }
+
+    public void start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(11587), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::dealWithClient);
+        server.createContext("/poll.json", this::sendPollResults);
+        server.start();
+        logger.info("Server started!");
+    }
+
+    private void dealWithClient(HttpExchange exchange) throws IOException {
+        logger.debug("Received request: {} {}", exchange.getRequestMethod(), exchange.getRequestURI());
+
+        try (exchange) {
+            // consume the request body if there is one, so that the connection can be reused
+            try (InputStream is = exchange.getRequestBody()) {
+                is.transferTo(OutputStream.nullOutputStream());
             }
-        }.start();
+
+            exchange.getResponseHeaders().set("Content-Security-Policy", CONTENT_SECURITY_POLICY);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+
+            sendResponse(exchange, 200, PAGE);
+        }
     }
 
-    private void dealWithClient(Socket socket) throws IOException {
-        try (InputStream is = socket.getInputStream();
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
-
-            // pretend to consume the request
-            StringBuilder request = new StringBuilder();
-            while (!request.toString().equals("\r\n\r\n")) {
-                int result = is.read();
-                if (result == -1) throw new IOException("Connection closed!");
-                request.append((char) result);
-                if (request.length() == 5) request = new StringBuilder(request.substring(1, 5));
+    private void sendPollResults(HttpExchange exchange) throws IOException {
+        logger.debug("Received request: {} {}", exchange.getRequestMethod(), exchange.getRequestURI());
+
+        try (exchange) {
+            try (InputStream is = exchange.getRequestBody()) {
+                is.transferTo(OutputStream.nullOutputStream());
             }
 
-            // send the response
-            writer.write("""
-                    HTTP/1.1 200 OK
-                    content-security-policy: default-src 'self' https://maddie480.ovh; connect-src 'self' https://maddie480.ovh ws:; img-src 'self' https://maddie480.ovh https://static-cdn.jtvnw.net https://yt3.ggpht.com https://cdn.discordapp.com; frame-ancestors 'none'; object-src 'none';
-                    connection: close
-                    content-type: text/html
-                    content-length: 288
-
-                    <!DOCTYPE html>
-                    <html lang="en">
-                    <head>
-                        <meta charset="UTF-8">
-                        <title>LNJ Twitch Chat</title>
-                        <link rel="stylesheet" href="https://maddie480.ovh/css/twitch-chat.css">
-                    </head>
-                    <body id="body">
-                        <script src="https://maddie480.ovh/js/twitch-chat.js"></script>
-                    </body>
-                    </html>
-                    """);
+            exchange.getResponseHeaders().set("Content-Security-Policy", CONTENT_SECURITY_POLICY);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+
+            JSONObject results = pollStore.getLiveResults();
+            if (results == null) {
+                sendResponse(exchange, 404, "{}".getBytes(StandardCharsets.UTF_8));
+            } else {
+                sendResponse(exchange, 200, results.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void sendResponse(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
         }
     }
 }
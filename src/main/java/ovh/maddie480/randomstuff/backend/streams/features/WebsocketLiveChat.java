@@ -3,6 +3,9 @@ package ovh.maddie480.randomstuff.backend.streams.features;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 import org.json.JSONObject;
@@ -12,16 +15,31 @@ import ovh.maddie480.randomstuff.backend.streams.apis.ChatMessage;
 import ovh.maddie480.randomstuff.backend.streams.apis.TwitchChatProvider;
 
 import java.net.InetSocketAddress;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Transmits the live chat to the LNJ stream through the magic of websockets.
+ * Messages are serialized once and queued up, then a separate thread broadcasts them to all clients,
+ * so that the chat never waits for the overlay.
  */
 public class WebsocketLiveChat extends WebSocketServer {
     private static final Logger logger = LoggerFactory.getLogger(WebsocketLiveChat.class);
 
-    private final Set<WebSocket> webSockets = new HashSet<>();
+    // if the broadcaster falls behind, the oldest messages get dropped past that point
+    private static final int MAX_PENDING_MESSAGES = 500;
+
+    // messages that are pending at the same time get broadcast together, up to that amount
+    private static final int MAX_BATCH_SIZE = 50;
+
+    // clients that have that much data waiting to be sent are too slow to keep up, so they will miss messages
+    private static final int MAX_QUEUED_FRAMES_PER_CLIENT = 200;
+
+    private final BlockingQueue<String> pendingMessages = new ArrayBlockingQueue<>(MAX_PENDING_MESSAGES);
 
     public WebsocketLiveChat() {
         super(new InetSocketAddress(11586));
@@ -30,15 +48,36 @@ public class WebsocketLiveChat extends WebSocketServer {
     @Override
     public void onStart() {
         logger.info("Server started!");
+
+        new Thread("Websocket Live Chat Broadcaster") {
+            @Override
+            public void run() {
+                List<String> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+                while (true) {
+                    try {
+                        batch.add(pendingMessages.take());
+                    } catch (InterruptedException e) {
+                        logger.warn("Broadcaster interrupted!");
+                        return;
+                    }
+
+                    pendingMessages.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    try {
+                        broadcastBatch(batch);
+                    } catch (RuntimeException e) {
+                        // this is the only broadcaster, so it should keep going whatever happens
+                        logger.error("Could not broadcast {} messages", batch.size(), e);
+                    }
+                    batch.clear();
+                }
+            }
+        }.start();
     }
 
     @Override
     public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
         logger.info("Client connected!");
-
-        synchronized (webSockets) {
-            webSockets.add(webSocket);
-        }
     }
 
     @Override
@@ -49,19 +88,11 @@ public class WebsocketLiveChat extends WebSocketServer {
     @Override
     public void onClose(WebSocket webSocket, int i, String s, boolean b) {
         logger.warn("Client disconnected!");
-
-        synchronized (webSockets) {
-            webSockets.remove(webSocket);
-        }
     }
 
     @Override
     public void onError(WebSocket webSocket, Exception e) {
         logger.warn("Client disconnected!", e);
-
-        synchronized (webSockets) {
-            webSockets.remove(webSocket);
-        }
     }
 
     public void onMessageReceived(ChatMessage<?> message) {
@@ -79,10 +110,39 @@ public class WebsocketLiveChat extends WebSocketServer {
                 .toList());
         messageSerialized.put("ack", RandomStringUtils.insecure().nextAlphanumeric(20));
 
-        logger.debug("Sending message: {}", messageSerialized.toString(2));
+        String frame = messageSerialized.toString();
+        logger.debug("Sending message: {}", frame);
+
+        while (!pendingMessages.offer(frame)) {
+            String dropped = pendingMessages.poll();
+            if (dropped != null) logger.warn("Too many messages pending, dropping message: {}", dropped);
+        }
+    }
+
+    private void broadcastBatch(List<String> batch) {
+        List<WebSocket> clients = new ArrayList<>();
+        for (WebSocket webSocket : getConnections()) {
+            if (webSocket instanceof WebSocketImpl impl && impl.outQueue.size() > MAX_QUEUED_FRAMES_PER_CLIENT) {
+                logger.warn("Client {} is too slow, skipping {} messages", webSocket.getRemoteSocketAddress(), batch.size());
+            } else {
+                clients.add(webSocket);
+            }
+        }
+
+        if (clients.isEmpty()) return;
+
+        for (String frame : batch) {
+            // encode each frame only once for all clients using the same draft, like broadcast() does
+            Map<Draft, List<Framedata>> encodedFrames = new HashMap<>();
 
-        synchronized (webSockets) {
-            webSockets.forEach(webSocket -> webSocket.send(messageSerialized.toString()));
+            for (WebSocket client : clients) {
+                try {
+                    client.sendFrame(encodedFrames.computeIfAbsent(client.getDraft(), draft -> draft.createFrames(frame, false)));
+                } catch (RuntimeException e) {
+                    // typically WebsocketNotConnectedException, if the client disconnected since the list was made
+                    logger.warn("Could not send message to client {}", client.getRemoteSocketAddress(), e);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,238 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs a check on a lot of items in parallel, each on its own virtual thread.
+ * Instead of limiting the amount of items processed at once, the amount of connections open at once
+ * to each host is limited: checks should open their connections through {@link #openStream(String)}
+ * or {@link #openStreams(String...)}.
+ * Progress, throughput and ETA are logged and written to a status file on a regular basis.
+ * The checks can be stopped at any time with {@link #cancel()}.
+ */
+public class BulkRemoteVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(BulkRemoteVerifier.class);
+
+    private final Path statusFile;
+    private final Duration reportInterval;
+
+    private final Map<String, Semaphore> connectionsPerHost = new ConcurrentHashMap<>();
+    private int maxConnectionsPerHost;
+
+    private volatile ExecutorService executor;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param statusFile     The file to write progress to, as JSON
+     * @param reportInterval How often progress should be reported
+     */
+    public BulkRemoteVerifier(Path statusFile, Duration reportInterval) {
+        this.statusFile = statusFile;
+        this.reportInterval = reportInterval;
+    }
+
+    /**
+     * Runs the given check on all items, and waits for all of them to be done.
+     *
+     * @param name                  The name of this batch of checks, to report progress
+     * @param items                 The items to check
+     * @param maxConnectionsPerHost The maximum amount of connections {@link #openStream(String)} can have open at once to a host
+     * @param processOne            The check to run on each item
+     */
+    public synchronized <T> void run(String name, Collection<T> items, int maxConnectionsPerHost, Consumer<T> processOne) {
+        if (cancelled) return;
+
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        connectionsPerHost.clear();
+
+        Instant start = Instant.now();
+        AtomicInteger processed = new AtomicInteger(0);
+
+        Thread reporter = Thread.ofVirtual().name("Bulk Remote Verifier Progress Reporter").start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(reportInterval);
+                    reportProgress(name, start, processed.get(), items.size(), false);
+                }
+            } catch (InterruptedException e) {
+                // we're done!
+            }
+        });
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            this.executor = executor;
+
+            for (T item : items) {
+                if (cancelled) break;
+
+                try {
+                    executor.submit(() -> {
+                        // items that did not start yet are skipped
+                        if (cancelled) return;
+
+                        try {
+                            processOne.accept(item);
+                        } finally {
+                            processed.incrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // cancel() shut the executor down while we were submitting
+                    break;
+                }
+            }
+        } finally {
+            this.executor = null;
+            reporter.interrupt();
+            reportProgress(name, start, processed.get(), items.size(), true);
+        }
+    }
+
+    /**
+     * Cancels the checks: the ones that did not start yet are skipped, and the ones that are running get interrupted.
+     * Interrupted checks give their connection slots back: slots being waited for are released by
+     * {@link #openStreams(String...)}, and the others are released when the checks close their streams.
+     * Any further call to {@link #run(String, Collection, int, Consumer)} does nothing.
+     */
+    public void cancel() {
+        cancelled = true;
+
+        ExecutorService currentExecutor = executor;
+        if (currentExecutor != null) currentExecutor.shutdownNow();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Opens a buffered stream to the given URL, waiting for a connection slot to be available for its host first.
+     * The slot is freed when the stream is closed.
+     */
+    public InputStream openStream(String url) throws IOException {
+        return openStreams(url).getFirst();
+    }
+
+    /**
+     * Opens buffered streams to all the given URLs at once, for checks that need to compare several files.
+     * Connection slots are reserved for all hosts before connecting to any of them, so that no connection stays idle
+     * while waiting for a slot on another host. Slots are freed when the streams are closed.
+     */
+    public List<InputStream> openStreams(String... urls) throws IOException {
+        // always reserve slots in the same order to avoid deadlocks between checks
+        List<Semaphore> reserved = new ArrayList<>();
+        try {
+            for (String host : Arrays.stream(urls).map(BulkRemoteVerifier::getHost).sorted().toList()) {
+                Semaphore slots = getSlots(host);
+                slots.acquire();
+                reserved.add(slots);
+            }
+        } catch (InterruptedException e) {
+            reserved.forEach(Semaphore::release);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + Arrays.toString(urls));
+        }
+
+        List<InputStream> streams = new ArrayList<>();
+        try {
+            for (String url : urls) {
+                streams.add(new SlotReleasingInputStream(ConnectionUtils.openStreamWithTimeout(url), getSlots(getHost(url))));
+            }
+        } catch (IOException | RuntimeException e) {
+            // free the slots of the streams that were opened by closing them, then the ones that were never used
+            for (InputStream stream : streams) {
+                try {
+                    stream.close();
+                } catch (IOException e2) {
+                    logger.warn("Could not close stream", e2);
+                }
+            }
+            for (int i = streams.size(); i < urls.length; i++) {
+                getSlots(getHost(urls[i])).release();
+            }
+            throw e;
+        }
+
+        return streams;
+    }
+
+    private Semaphore getSlots(String host) {
+        return connectionsPerHost.computeIfAbsent(host, h -> new Semaphore(maxConnectionsPerHost));
+    }
+
+    private static String getHost(String url) {
+        return URI.create(url).getHost();
+    }
+
+    private static class SlotReleasingInputStream extends BufferedInputStream {
+        private final Semaphore slots;
+        private boolean released = false;
+
+        public SlotReleasingInputStream(InputStream in, Semaphore slots) {
+            super(in);
+            this.slots = slots;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    slots.release();
+                }
+            }
+        }
+    }
+
+    private void reportProgress(String name, Instant start, int processed, int total, boolean done) {
+        double elapsedSeconds = Math.max(1, Duration.between(start, Instant.now()).toSeconds());
+        double itemsPerSecond = processed / elapsedSeconds;
+        long etaSeconds = itemsPerSecond == 0 ? -1 : (long) ((total - processed) / itemsPerSecond);
+
+        logger.info("{}: {}/{} processed, {} items/s, ETA {} seconds", name, processed, total, String.format("%.2f", itemsPerSecond), etaSeconds);
+
+        JSONObject status = new JSONObject();
+        status.put("name", name);
+        status.put("processed", processed);
+        status.put("total", total);
+        status.put("itemsPerSecond", itemsPerSecond);
+        status.put("etaSeconds", etaSeconds);
+        status.put("startedAt", start.toString());
+        status.put("updatedAt", Instant.now().toString());
+        status.put("done", done);
+        status.put("cancelled", cancelled);
+
+        try (BufferedWriter bw = Files.newBufferedWriter(statusFile)) {
+            status.write(bw);
+        } catch (IOException e) {
+            logger.warn("Could not write progress to {}", statusFile, e);
+        }
+    }
+}
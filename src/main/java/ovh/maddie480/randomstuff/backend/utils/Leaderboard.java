@@ -0,0 +1,158 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * Keeps IDs sorted by score (highest first, then by ID), as a treap where each node knows the size of its subtree.
+ * This allows adding, removing, finding the rank of an ID and finding the ID at a given rank in O(log n),
+ * instead of sorting everything each time someone asks for the ranking.
+ * This class is not thread-safe.
+ */
+public class Leaderboard {
+    public record Entry(long id, long score) {
+    }
+
+    private static class Node {
+        final long id;
+        final long score;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(long id, long score, int priority) {
+            this.id = id;
+            this.score = score;
+            this.priority = priority;
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * Adds an ID to the leaderboard. It must not already be in it.
+     */
+    public void add(long id, long score) {
+        Node[] parts = split(root, id, score);
+        root = merge(merge(parts[0], new Node(id, score, random.nextInt())), parts[1]);
+    }
+
+    /**
+     * Removes an ID from the leaderboard. The score must be the one it was added with.
+     */
+    public void remove(long id, long score) {
+        root = remove(root, id, score);
+    }
+
+    /**
+     * @return the position of the ID in the leaderboard starting from 0, or -1 if it is not in it
+     */
+    public int rankOf(long id, long score) {
+        int rank = 0;
+        Node node = root;
+
+        while (node != null) {
+            if (node.id == id && node.score == score) return rank + size(node.left);
+
+            if (isBefore(id, score, node)) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param rank the position in the leaderboard, starting from 0
+     */
+    public Entry get(int rank) {
+        Node node = root;
+
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                node = node.left;
+            } else if (rank == leftSize) {
+                return new Entry(node.id, node.score);
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+
+        throw new IndexOutOfBoundsException("Rank " + rank + " out of bounds for leaderboard of size " + size());
+    }
+
+    private static boolean isBefore(long id, long score, Node node) {
+        return score != node.score ? score > node.score : id < node.id;
+    }
+
+    /**
+     * Splits the tree into the nodes that come before the given ID, and the others.
+     */
+    private static Node[] split(Node node, long id, long score) {
+        if (node == null) return new Node[]{null, null};
+
+        if (isBefore(id, score, node)) {
+            Node[] parts = split(node.left, id, score);
+            node.left = parts[1];
+            update(node);
+            return new Node[]{parts[0], node};
+        } else {
+            Node[] parts = split(node.right, id, score);
+            node.right = parts[0];
+            update(node);
+            return new Node[]{node, parts[1]};
+        }
+    }
+
+    /**
+     * Merges two trees, all nodes of the first one coming before all nodes of the second one.
+     */
+    private static Node merge(Node first, Node second) {
+        if (first == null) return second;
+        if (second == null) return first;
+
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            update(first);
+            return first;
+        } else {
+            second.left = merge(first, second.left);
+            update(second);
+            return second;
+        }
+    }
+
+    private static Node remove(Node node, long id, long score) {
+        if (node == null) return null;
+
+        if (node.id == id && node.score == score) {
+            return merge(node.left, node.right);
+        }
+
+        if (isBefore(id, score, node)) {
+            node.left = remove(node.left, id, score);
+        } else {
+            node.right = remove(node.right, id, score);
+        }
+        update(node);
+        return node;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+}
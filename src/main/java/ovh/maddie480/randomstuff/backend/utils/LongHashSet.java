@@ -0,0 +1,41 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+/**
+ * A set of longs that doesn't box them like a {@link java.util.HashSet HashSet&lt;Long&gt;} would,
+ * backed by a {@link LongLongHashMap} whose values are ignored. This class is not thread-safe.
+ */
+public class LongHashSet {
+    private final LongLongHashMap map = new LongLongHashMap();
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public boolean contains(long value) {
+        return map.containsKey(value);
+    }
+
+    /**
+     * @return whether the value was not present already
+     */
+    public boolean add(long value) {
+        if (map.containsKey(value)) return false;
+        map.put(value, 0);
+        return true;
+    }
+
+    /**
+     * @return whether the value was present
+     */
+    public boolean remove(long value) {
+        return map.remove(value);
+    }
+
+    public long[] toArray() {
+        return map.keys();
+    }
+}
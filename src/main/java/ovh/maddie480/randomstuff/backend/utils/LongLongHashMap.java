@@ -0,0 +1,175 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long to long that stores keys and values in plain arrays, instead of boxing them
+ * like a {@link java.util.HashMap HashMap&lt;Long, Long&gt;} would.
+ * Uses open addressing with linear probing. This class is not thread-safe.
+ */
+public class LongLongHashMap {
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public LongLongHashMap(LongLongHashMap other) {
+        keys = Arrays.copyOf(other.keys, other.keys.length);
+        values = Arrays.copyOf(other.values, other.values.length);
+        used = Arrays.copyOf(other.used, other.used.length);
+        mask = other.mask;
+        size = other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public long get(long key, long defaultValue) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    public void put(long key, long value) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        index = -index - 1;
+        keys[index] = key;
+        values[index] = value;
+        used[index] = true;
+        size++;
+
+        // keep the table at most half full, so that probe sequences stay short
+        if (size * 2 > keys.length) resize(keys.length * 2);
+    }
+
+    /**
+     * Adds delta to the value associated with the key (or to 0 if there is none).
+     *
+     * @return the new value
+     */
+    public long addTo(long key, long delta) {
+        long value = get(key, 0) + delta;
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * @return whether the key was present
+     */
+    public boolean remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) return false;
+
+        // shift back the next entries of the probe sequence, so that lookups don't stop at the hole we leave
+        int hole = index;
+        int current = index;
+        while (true) {
+            current = (current + 1) & mask;
+            if (!used[current]) break;
+
+            int home = slot(keys[current]);
+            boolean homeBetweenHoleAndCurrent = hole <= current ?
+                    (hole < home && home <= current) :
+                    (hole < home || home <= current);
+
+            if (!homeBetweenHoleAndCurrent) {
+                keys[hole] = keys[current];
+                values[hole] = values[current];
+                hole = current;
+            }
+        }
+
+        used[hole] = false;
+        size--;
+        return true;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    public long[] keys() {
+        long[] result = new long[size];
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) result[j++] = keys[i];
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the key if it is present, or (-insertion point - 1) if it isn't
+     */
+    private int indexOf(long key) {
+        int index = slot(key);
+        while (used[index]) {
+            if (keys[index] == key) return index;
+            index = (index + 1) & mask;
+        }
+        return -index - 1;
+    }
+
+    private int slot(long key) {
+        // Discord IDs are snowflakes whose low bits are not very random, so mix them up
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int index = -indexOf(oldKeys[i]) - 1;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                used[index] = true;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) capacity *= 2;
+        return capacity;
+    }
+}
@@ -0,0 +1,164 @@
+package ovh.maddie480.randomstuff.backend.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks that a response contains some expected pieces of text, without loading it as a whole in memory.
+ * All pieces of text are looked for at once (with an Aho-Corasick automaton over the UTF-8 bytes) while the response
+ * is being read, and reading stops as soon as all of them were found.
+ */
+public class ResponseVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(ResponseVerifier.class);
+
+    /**
+     * @param missing               the markers that were not found
+     * @param timeToFirstByteMillis the time it took to get the first byte of the response, or -1 if it was empty
+     * @param timeToMatchMillis     the time it took to find all markers, or -1 if some were not found
+     * @param bytesRead             how much of the response was read
+     */
+    public record Result(List<String> missing, long timeToFirstByteMillis, long timeToMatchMillis, long bytesRead) {
+        public boolean allFound() {
+            return missing.isEmpty();
+        }
+    }
+
+    private static final Map<List<String>, Automaton> automatons = new ConcurrentHashMap<>();
+
+    /**
+     * Downloads the given URL and checks that the response contains all the markers.
+     */
+    public static boolean containsAll(String url, String... markers) throws IOException {
+        return verify(url, markers).allFound();
+    }
+
+    /**
+     * Downloads the given URL and looks for all the markers in the response.
+     * The times in the result include the time it took to connect.
+     */
+    public static Result verify(String url, String... markers) throws IOException {
+        long start = System.nanoTime();
+        try (InputStream is = ConnectionUtils.openStreamWithTimeout(url)) {
+            Result result = verify(is, start, markers);
+            logger.debug("Checked {}: first byte after {} ms, all markers found after {} ms, {} bytes read, missing {}",
+                    url, result.timeToFirstByteMillis(), result.timeToMatchMillis(), result.bytesRead(), result.missing());
+            return result;
+        }
+    }
+
+    /**
+     * Checks that the stream contains all the markers. The stream is not closed.
+     */
+    public static boolean containsAll(InputStream is, String... markers) throws IOException {
+        return verify(is, System.nanoTime(), markers).allFound();
+    }
+
+    private static Result verify(InputStream is, long start, String... markers) throws IOException {
+        // some markers depend on the date, so don't keep automatons forever
+        if (automatons.size() > 100) automatons.clear();
+        Automaton automaton = automatons.computeIfAbsent(List.of(markers), Automaton::new);
+
+        long found = automaton.output[0];
+        int state = 0;
+        long timeToFirstByte = -1;
+        long timeToMatch = found == automaton.allFound ? 0 : -1;
+        long bytesRead = 0;
+
+        byte[] buffer = new byte[8192];
+        int read;
+        while (timeToMatch == -1 && (read = is.read(buffer)) != -1) {
+            if (timeToFirstByte == -1 && read > 0) timeToFirstByte = (System.nanoTime() - start) / 1_000_000;
+
+            for (int i = 0; i < read; i++) {
+                state = automaton.next[state][buffer[i] & 0xFF];
+                found |= automaton.output[state];
+            }
+            bytesRead += read;
+
+            if (found == automaton.allFound) timeToMatch = (System.nanoTime() - start) / 1_000_000;
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < markers.length; i++) {
+            if ((found & (1L << i)) == 0) missing.add(markers[i]);
+        }
+        return new Result(missing, timeToFirstByte, timeToMatch, bytesRead);
+    }
+
+    private static class Automaton {
+        // state -> byte -> next state, with failure transitions already followed
+        final int[][] next;
+        // state -> bitmask of the markers that end at this state (including through failure links)
+        final long[] output;
+        final long allFound;
+
+        Automaton(List<String> markers) {
+            if (markers.size() > 64) throw new IllegalArgumentException("Cannot look for more than 64 markers at once");
+
+            // build the trie
+            List<int[]> trie = new ArrayList<>();
+            List<Long> outputs = new ArrayList<>();
+            trie.add(newState());
+            outputs.add(0L);
+
+            for (int i = 0; i < markers.size(); i++) {
+                int state = 0;
+                for (byte b : markers.get(i).getBytes(StandardCharsets.UTF_8)) {
+                    int c = b & 0xFF;
+                    if (trie.get(state)[c] == -1) {
+                        trie.get(state)[c] = trie.size();
+                        trie.add(newState());
+                        outputs.add(0L);
+                    }
+                    state = trie.get(state)[c];
+                }
+                outputs.set(state, outputs.get(state) | (1L << i));
+            }
+
+            next = trie.toArray(new int[0][]);
+            output = new long[next.length];
+            for (int i = 0; i < output.length; i++) output[i] = outputs.get(i);
+
+            // turn it into an automaton, breadth-first so that failure states are always complete before being used
+            int[] failure = new int[next.length];
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < 256; c++) {
+                if (next[0][c] == -1) {
+                    next[0][c] = 0;
+                } else {
+                    failure[next[0][c]] = 0;
+                    queue.add(next[0][c]);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                output[state] |= output[failure[state]];
+
+                for (int c = 0; c < 256; c++) {
+                    int child = next[state][c];
+                    if (child == -1) {
+                        next[state][c] = next[failure[state]][c];
+                    } else {
+                        failure[child] = next[failure[state]][c];
+                        queue.add(child);
+                    }
+                }
+            }
+
+            allFound = markers.size() == 64 ? -1L : (1L << markers.size()) - 1;
+        }
+
+        private static int[] newState() {
+            int[] state = new int[256];
+            Arrays.fill(state, -1);
+            return state;
+        }
+    }
+}
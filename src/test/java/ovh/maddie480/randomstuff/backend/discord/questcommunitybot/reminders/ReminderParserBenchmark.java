@@ -0,0 +1,98 @@
+package ovh.maddie480.randomstuff.backend.discord.questcommunitybot.reminders;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.max480.quest.modmanagerbot.imported.ReminderEngine.RappelV3;
+
+/**
+ * Compare le temps d'analyse d'un rappel avec {@link ReminderEngine#parseRappel(String)},
+ * et avec l'ancienne façon de faire ({@link LegacyReminderParser}, qui compile toutes les regex à chaque analyse).
+ * Avant les mesures, les deux analyses doivent donner le même résultat pour tous les rappels du corpus.
+ * <p>
+ * Le corpus contient les paramètres de vrais rappels, un par ligne. Il peut être extrait des logs du bot avec :
+ * <pre>grep -A2 'sent command \[!rappellemoi,' bot.log | grep -oP 'grouped as one: \K.*' > reminder-phrases.txt</pre>
+ * Pour lancer le benchmark :
+ * <pre>mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test-classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/test-classpath.txt) \
+ *     ovh.maddie480.randomstuff.backend.discord.questcommunitybot.reminders.ReminderParserBenchmark reminder-phrases.txt</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReminderParserBenchmark {
+    @Param("reminder-phrases.txt")
+    public String corpus;
+
+    private List<String> reminders;
+    private int next = 0;
+
+    @Setup
+    public void loadCorpus() throws IOException {
+        Path corpusPath = Paths.get(corpus);
+        if (!Files.exists(corpusPath)) {
+            throw new IllegalStateException("Le corpus " + corpusPath.toAbsolutePath() + " n'existe pas, voir la javadoc pour l'extraire des logs");
+        }
+
+        reminders = Files.readAllLines(corpusPath).stream()
+                .filter(line -> !line.isBlank())
+                .map(line -> "rappelle-moi " + line)
+                .toList();
+
+        List<String> differences = new ArrayList<>();
+        for (String reminder : reminders) {
+            String legacyResult = describe(LegacyReminderParser.parseRappel(reminder));
+            String result = describe(ReminderEngine.parseRappel(reminder));
+            if (!legacyResult.equals(result)) {
+                differences.add(reminder + " => " + legacyResult + " / " + result);
+            }
+        }
+        if (!differences.isEmpty()) {
+            throw new IllegalStateException(differences.size() + " rappels sur " + reminders.size()
+                    + " sont analysés différemment :\n" + String.join("\n", differences));
+        }
+    }
+
+    @Benchmark
+    public RappelV3 legacyParser() {
+        return LegacyReminderParser.parseRappel(nextReminder());
+    }
+
+    @Benchmark
+    public RappelV3 reminderEngine() {
+        return ReminderEngine.parseRappel(nextReminder());
+    }
+
+    private String nextReminder() {
+        String reminder = reminders.get(next);
+        next = (next + 1) % reminders.size();
+        return reminder;
+    }
+
+    // la date est arrondie à la minute, puisque les deux analyses ne sont pas faites au même moment
+    private static String describe(RappelV3 rappel) {
+        if (rappel == null) return "null";
+        return rappel.message + " | " + rappel.interval + " | " + rappel.userId + " | " + rappel.nextOccurence.truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        options.include(ReminderParserBenchmark.class.getSimpleName());
+        if (args.length > 0) options.param("corpus", args[0]);
+        new Runner(options.build()).run();
+    }
+}